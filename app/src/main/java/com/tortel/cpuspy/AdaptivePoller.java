@@ -0,0 +1,238 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+/**
+ * Picks the delay before the next background sample, so the sampler reads
+ * only as often as the residency is actually changing, within a CPU budget:
+ *
+ *   - while each policy's residency over the last interval stays within a
+ *     few percent of the interval before, the delay doubles, up to
+ *     MAX_BACKOFF times the base interval
+ *   - when the frequency transition rate (total_trans) spikes above twice
+ *     its running average, it drops straight back to the base interval
+ *   - otherwise it halves back towards the base interval
+ *   - if the process used more than its CPU budget since the last sample
+ *     (from /proc/self/stat), the delay is stretched by the overshoot
+ *
+ * The delay never goes below the base interval or above the ceiling.
+ * Steady state work is one small positional read per policy and one read
+ * of the stat file; nothing is allocated. Use it from the sampler thread only
+ */
+class AdaptivePoller {
+    /** the most the delay grows from stability alone */
+    static final int MAX_BACKOFF = 16;
+    /** residency shares moving less than this count as stable */
+    static final float STABLE_DISTANCE = 0.02f;
+    /** a transition rate this many times its average is a spike */
+    static final float SPIKE_FACTOR = 2f;
+    /** rates (transitions/s) below this are never spikes */
+    static final float MIN_SPIKE_RATE = 5f;
+    /** weight of the newest rate in the running average */
+    private static final float RATE_WEIGHT = 0.25f;
+    private static final String[] TOTAL_TRANS_PATHS = {
+            "/sys/devices/system/cpu/cpu#/cpufreq/stats/total_trans",
+            "/sys/devices/system/cpu/cpufreq/stats/cpu#/total_trans"
+    };
+
+    private final Sysfs mSysfs;
+    private final long mBase;
+    private final long mCeiling;
+    private final float mBudget;
+    private final ProcessCpuTime mCpuTime;
+
+    private long mInterval;
+    private CpuPolicy[] mPolicies = new CpuPolicy[0];
+    private SysfsValueFile[] mTransFiles = new SysfsValueFile[0];
+
+    /* the previous sample; mLastTime < 0 before the first */
+    private long mLastTime = -1;
+    /** each policy's durations at the last sample; the snapshots are reused */
+    private long[][] mLast = new long[0][];
+    /** each policy's residency shares over the last interval, by state */
+    private float[][] mShares = new float[0][];
+    private long mLastTransitions = -1;
+    private float mAverageRate = -1;
+    private long mLastCpu = -1;
+    private float mCpuShare;
+
+    /**
+     * @param base the shortest delay (ms), the user's sampling interval
+     * @param ceiling the longest delay (ms), at least base
+     * @param budget the share of one CPU the process may use, such as 0.01
+     */
+    AdaptivePoller(Sysfs sysfs, long base, long ceiling, float budget) {
+        mSysfs = sysfs;
+        mBase = base;
+        mCeiling = Math.max(base, ceiling);
+        mBudget = budget;
+        mCpuTime = new ProcessCpuTime(sysfs);
+        mInterval = base;
+    }
+
+    long getBaseInterval() {
+        return mBase;
+    }
+
+    float getBudget() {
+        return mBudget;
+    }
+
+    /** @return the current delay (ms) */
+    long getInterval() {
+        return mInterval;
+    }
+
+    /** @return the share of one CPU the process used over the last interval */
+    float getCpuShare() {
+        return mCpuShare;
+    }
+
+    /**
+     * Take in a sample and pick the delay before the next
+     * @param time when (ms, elapsed realtime) the snapshots were read
+     * @param snapshots each policy's time in state since boot; only read
+     *                  during the call, so they may be refilled after
+     * @return the delay (ms)
+     */
+    long update(long time, CpuPolicy[] policies, CpuSnapshot[] snapshots) {
+        if (policies != mPolicies) {
+            setPolicies(policies);
+        }
+        long transitions = readTransitions();
+        long cpu = mCpuTime.read();
+
+        int count = policies.length;
+        boolean first = mLastTime < 0 || mLast.length != count;
+        long elapsed = time - mLastTime;
+        if (first || elapsed <= 0) {
+            remember(time, snapshots, transitions, cpu);
+            mInterval = mBase;
+            return mInterval;
+        }
+
+        float distance = 0;
+        for (int p = 0; p < count; p++) {
+            distance = Math.max(distance, updateShares(p, snapshots[p]));
+        }
+
+        boolean spike = false;
+        if (transitions >= 0 && mLastTransitions >= 0 && transitions >= mLastTransitions) {
+            float rate = (transitions - mLastTransitions) * 1000f / elapsed;
+            spike = mAverageRate >= 0 && rate >= MIN_SPIKE_RATE
+                    && rate > SPIKE_FACTOR * mAverageRate;
+            mAverageRate = mAverageRate < 0 ? rate
+                    : mAverageRate + RATE_WEIGHT * (rate - mAverageRate);
+        }
+
+        long interval;
+        if (spike) {
+            interval = mBase;
+        } else if (distance < STABLE_DISTANCE) {
+            interval = Math.min(mInterval * 2, mBase * MAX_BACKOFF);
+        } else {
+            interval = mInterval / 2;
+        }
+
+        mCpuShare = 0;
+        if (cpu >= 0 && mLastCpu >= 0 && cpu >= mLastCpu) {
+            mCpuShare = (float) (cpu - mLastCpu) / elapsed;
+            if (mBudget > 0 && mCpuShare > mBudget) {
+                // sampling less often cuts the cost in proportion
+                interval = (long) (Math.max(interval, mInterval) * (mCpuShare / mBudget));
+            }
+        }
+
+        mInterval = Math.max(mBase, Math.min(mCeiling, interval));
+        remember(time, snapshots, transitions, cpu);
+        return mInterval;
+    }
+
+    /** close the files kept open */
+    void close() {
+        for (SysfsValueFile file : mTransFiles) {
+            file.close();
+        }
+    }
+
+    private void setPolicies(CpuPolicy[] policies) {
+        close();
+        mPolicies = policies;
+        mTransFiles = new SysfsValueFile[policies.length];
+        for (int p = 0; p < policies.length; p++) {
+            mTransFiles[p] = SysfsValueFile.forPolicy(mSysfs, policies[p], TOTAL_TRANS_PATHS);
+        }
+        mShares = new float[policies.length][];
+        mLast = new long[0][];
+        mLastTransitions = -1;
+        mAverageRate = -1;
+    }
+
+    /** @return the transitions of every policy summed, or -1 if any is unknown */
+    private long readTransitions() {
+        long total = 0;
+        for (SysfsValueFile file : mTransFiles) {
+            long transitions = file.read();
+            if (transitions < 0) {
+                return -1;
+            }
+            total += transitions;
+        }
+        return total;
+    }
+
+    /**
+     * Work out the policy's residency shares since the last sample and
+     * store them over the previous ones
+     * @return how far the shares moved: half the sum of the differences,
+     * from 0 (same) to 1 (nothing in common); 0 if not comparable
+     */
+    private float updateShares(int policy, CpuSnapshot snapshot) {
+        long[] last = mLast[policy];
+        int states = snapshot.getCount();
+        if (last == null || last.length != states) {
+            mShares[policy] = null;
+            return 1;
+        }
+        long total = 0;
+        for (int i = 0; i < states; i++) {
+            total += Math.max(0, snapshot.getDuration(i) - last[i]);
+        }
+        float[] shares = mShares[policy];
+        boolean comparable = shares != null && shares.length == states;
+        if (shares == null || shares.length != states) {
+            shares = new float[states];
+            mShares[policy] = shares;
+        }
+        float distance = 0;
+        for (int i = 0; i < states; i++) {
+            float share = total == 0 ? 0
+                    : (float) Math.max(0, snapshot.getDuration(i) - last[i]) / total;
+            distance += Math.abs(share - shares[i]);
+            shares[i] = share;
+        }
+        return comparable ? distance / 2 : 1;
+    }
+
+    private void remember(long time, CpuSnapshot[] snapshots, long transitions, long cpu) {
+        mLastTime = time;
+        if (mLast.length != snapshots.length) {
+            mLast = new long[snapshots.length][];
+        }
+        for (int p = 0; p < mLast.length; p++) {
+            int states = snapshots[p].getCount();
+            if (mLast[p] == null || mLast[p].length != states) {
+                mLast[p] = new long[states];
+            }
+            for (int i = 0; i < states; i++) {
+                mLast[p][i] = snapshots[p].getDuration(i);
+            }
+        }
+        mLastTransitions = transitions;
+        mLastCpu = cpu;
+    }
+}
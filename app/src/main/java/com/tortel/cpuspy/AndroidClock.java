@@ -0,0 +1,27 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import android.os.SystemClock;
+
+/**
+ * MonitorClock backed by android.os.SystemClock
+ */
+public class AndroidClock implements MonitorClock {
+    public static final AndroidClock INSTANCE = new AndroidClock();
+
+    @Override
+    public long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+}
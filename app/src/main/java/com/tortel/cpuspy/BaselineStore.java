@@ -0,0 +1,130 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Keeps the "reset timers" baselines (offsets) in a small binary file, so
+ * they survive the app being killed but not a reboot:
+ *
+ *   int magic, int version, boot id (short length, bytes), int policies,
+ *   per policy: int first CPU, int states, states * (int freq, long ticks),
+ *   int crc32 of everything before it
+ *
+ * Loading is one read and one pass over the bytes, and saving replaces the
+ * file atomically (see CrcFile). Baselines taken in another boot (a
+ * different boot_id) are dropped on load
+ */
+class BaselineStore {
+    static final String BOOT_ID_PATH = "/proc/sys/kernel/random/boot_id";
+    private static final int MAGIC = 0x43505542; // "CPUB"
+    private static final int VERSION = 1;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final CrcFile mFile;
+    private final Sysfs mSysfs;
+
+    BaselineStore(File file, Sysfs sysfs) {
+        mFile = new CrcFile(file);
+        mSysfs = sysfs;
+    }
+
+    /**
+     * @return the baseline of each policy, matched by first CPU, with null
+     * where there is none. All null if the file is missing, damaged or from
+     * another boot
+     */
+    CpuSnapshot[] load(CpuPolicy[] policies) {
+        CpuSnapshot[] baselines = new CpuSnapshot[policies.length];
+        ByteBuffer buffer = mFile.read(16);
+        if (buffer == null) {
+            return baselines;
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            delete();
+            return baselines;
+        }
+        try {
+            byte[] bootId = new byte[buffer.getShort()];
+            buffer.get(bootId);
+            if (!new String(bootId, ASCII).equals(DeviceInfo.readBootId(mSysfs))) {
+                // rebooted since; the counters started over
+                delete();
+                return baselines;
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                int firstCpu = buffer.getInt();
+                int states = buffer.getInt();
+                if (states < 0 || states > buffer.remaining() / 12) {
+                    return new CpuSnapshot[policies.length];
+                }
+                int[] freqs = new int[states];
+                long[] ticks = new long[states];
+                for (int s = 0; s < states; s++) {
+                    freqs[s] = buffer.getInt();
+                    ticks[s] = buffer.getLong();
+                }
+                for (int p = 0; p < policies.length; p++) {
+                    if (policies[p].getFirstCpu() == firstCpu) {
+                        baselines[p] = new CpuSnapshot(freqs, ticks, states);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // counts pointing past the end; the crc makes this unlikely
+            return new CpuSnapshot[policies.length];
+        }
+        return baselines;
+    }
+
+    /**
+     * Atomically replace the file with the given baselines; nulls are left
+     * out, and if all are null the file is deleted
+     */
+    void save(CpuPolicy[] policies, CpuSnapshot[] baselines) throws IOException {
+        byte[] bootId = DeviceInfo.readBootId(mSysfs).getBytes(ASCII);
+        int count = 0;
+        int size = 4 + 4 + 2 + bootId.length + 4;
+        for (CpuSnapshot baseline : baselines) {
+            if (baseline != null) {
+                count++;
+                size += 8 + baseline.getCount() * 12;
+            }
+        }
+        if (count == 0) {
+            delete();
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putShort((short) bootId.length).put(bootId);
+        buffer.putInt(count);
+        for (int p = 0; p < policies.length; p++) {
+            CpuSnapshot baseline = baselines[p];
+            if (baseline == null) {
+                continue;
+            }
+            buffer.putInt(policies[p].getFirstCpu()).putInt(baseline.getCount());
+            for (int s = 0; s < baseline.getCount(); s++) {
+                buffer.putInt(baseline.getFreq(s)).putLong(baseline.getDuration(s));
+            }
+        }
+        mFile.write(buffer.array(), size);
+    }
+
+    /** forget the baselines */
+    void delete() {
+        mFile.delete();
+    }
+}
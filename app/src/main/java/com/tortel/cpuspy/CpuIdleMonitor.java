@@ -0,0 +1,124 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads per-core idle state residency from
+ * /sys/devices/system/cpu/cpuN/cpuidle/stateK/{name,time,usage}. The state
+ * names are read once when the CPUs are discovered and the time and usage
+ * files are kept open, so a refresh only re-reads them in place into a reused
+ * buffer per CPU. Not thread safe; the CpuStateMonitor calls it under its lock
+ */
+class CpuIdleMonitor {
+    private static final String CPUIDLE_DIR = "/sys/devices/system/cpu/cpu#/cpuidle";
+    private static final String STATE_PREFIX = "state";
+
+    private final Sysfs mSysfs;
+    private final SysfsReader mReader = new SysfsReader(64);
+
+    /* per CPU: the state names, their counter files and a read buffer, stateK order */
+    private String[][] mNames = new String[0][];
+    private SysfsValueFile[][] mTimeFiles = new SysfsValueFile[0][];
+    private SysfsValueFile[][] mUsageFiles = new SysfsValueFile[0][];
+    private long[][] mCounters = new long[0][];
+
+    CpuIdleMonitor(Sysfs sysfs) {
+        mSysfs = sysfs;
+    }
+
+    /**
+     * Find every CPU's idle states
+     */
+    void discover(int cpuCount) {
+        close();
+        mNames = new String[cpuCount][];
+        mTimeFiles = new SysfsValueFile[cpuCount][];
+        mUsageFiles = new SysfsValueFile[cpuCount][];
+        mCounters = new long[cpuCount][];
+        for (int cpu = 0; cpu < cpuCount; cpu++) {
+            File dir = mSysfs.file(CPUIDLE_DIR.replace("#", String.valueOf(cpu)));
+            int count = countStates(dir);
+            String[] names = new String[count];
+            mTimeFiles[cpu] = new SysfsValueFile[count];
+            mUsageFiles[cpu] = new SysfsValueFile[count];
+            mCounters[cpu] = new long[count * 2];
+            for (int k = 0; k < count; k++) {
+                File state = new File(dir, STATE_PREFIX + k);
+                names[k] = readName(new File(state, "name"), k);
+                mTimeFiles[cpu][k] = new SysfsValueFile(new File(state, "time"));
+                mUsageFiles[cpu][k] = new SysfsValueFile(new File(state, "usage"));
+            }
+            // CPUs with the same states share one names array
+            mNames[cpu] = cpu > 0 && Arrays.equals(names, mNames[cpu - 1]) ? mNames[cpu - 1] : names;
+        }
+    }
+
+    /**
+     * Read every CPU's idle counters
+     * @param now the wall time (microseconds) the snapshots are taken at
+     * @param out receives one snapshot per CPU; EMPTY for CPUs without
+     *            cpuidle or whose counters cannot be read (offline)
+     */
+    void read(long now, IdleSnapshot[] out) {
+        for (int cpu = 0; cpu < mNames.length; cpu++) {
+            out[cpu] = readCpu(cpu, now);
+        }
+    }
+
+    /** close every open counter file */
+    void close() {
+        for (int cpu = 0; cpu < mTimeFiles.length; cpu++) {
+            for (int k = 0; k < mTimeFiles[cpu].length; k++) {
+                mTimeFiles[cpu][k].close();
+                mUsageFiles[cpu][k].close();
+            }
+        }
+    }
+
+    private IdleSnapshot readCpu(int cpu, long now) {
+        int count = mNames[cpu].length;
+        if (count == 0) {
+            return IdleSnapshot.EMPTY;
+        }
+        // fill the buffer first; only a complete read is copied out
+        long[] counters = mCounters[cpu];
+        for (int k = 0; k < count; k++) {
+            long time = mTimeFiles[cpu][k].read();
+            long usage = mUsageFiles[cpu][k].read();
+            if (time == Long.MIN_VALUE || usage == Long.MIN_VALUE) {
+                return IdleSnapshot.EMPTY;
+            }
+            counters[k] = Math.max(0, time);
+            counters[count + k] = Math.max(0, usage);
+        }
+        return new IdleSnapshot(mNames[cpu], counters.clone(), now);
+    }
+
+    /** @return the number of consecutive stateK directories */
+    private static int countStates(File dir) {
+        int count = 0;
+        while (new File(dir, STATE_PREFIX + count).isDirectory()) {
+            count++;
+        }
+        return count;
+    }
+
+    private String readName(File file, int k) {
+        try {
+            mReader.read(file);
+            String name = mReader.nextLineString();
+            return name.length() > 0 ? name : STATE_PREFIX + k;
+        } catch (IOException e) {
+            return STATE_PREFIX + k;
+        }
+    }
+}
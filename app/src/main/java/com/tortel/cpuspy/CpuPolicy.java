@@ -0,0 +1,116 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A cpufreq policy: a group of CPUs that share one clock, and so one
+ * time_in_state file. Each policy keeps its own parser so its buffers are
+ * reused from one refresh to the next
+ */
+public class CpuPolicy {
+    private final int mId;
+    private final int[] mCpus;
+    private final File[] mStateFiles;
+    private final TimeInStateParser mParser = new TimeInStateParser();
+    /** created on the first transition read; most refreshes never need it */
+    private TransTableParser mTransParser;
+
+    /**
+     * @param id the policy number, or the CPU number for per-CPU fallbacks
+     * @param cpus the CPUs sharing this policy, lowest first
+     * @param stateFiles candidate time_in_state files, the first existing
+     *                   one is read
+     */
+    CpuPolicy(int id, int[] cpus, File[] stateFiles) {
+        mId = id;
+        mCpus = cpus;
+        mStateFiles = stateFiles;
+    }
+
+    /** @return the policy number */
+    public int getId() {
+        return mId;
+    }
+
+    /** @return the number of CPUs in the policy */
+    public int getCpuCount() {
+        return mCpus.length;
+    }
+
+    /** @return the i'th CPU in the policy */
+    public int getCpu(int i) {
+        return mCpus[i];
+    }
+
+    /** @return the lowest numbered CPU in the policy */
+    public int getFirstCpu() {
+        return mCpus[0];
+    }
+
+    /** @return the last CPU in the policy */
+    public int getLastCpu() {
+        return mCpus[mCpus.length - 1];
+    }
+
+    /** @return the parser holding the states from the last read */
+    TimeInStateParser getParser() {
+        return mParser;
+    }
+
+    /**
+     * Read the trans_table and total_trans files next to the first existing
+     * time_in_state file
+     * @param time the elapsed time (ms) of the read
+     * @return the table, or TransTable.EMPTY if the kernel has none
+     */
+    TransTable readTransTable(long time) throws IOException {
+        for (File stateFile : mStateFiles) {
+            if (!stateFile.exists()) {
+                continue;
+            }
+            File tableFile = new File(stateFile.getParentFile(), "trans_table");
+            if (!tableFile.exists()) {
+                return TransTable.EMPTY;
+            }
+            if (mTransParser == null) {
+                mTransParser = new TransTableParser(new SysfsReader());
+            }
+            mTransParser.parse(tableFile);
+
+            long total = -1;
+            File totalFile = new File(stateFile.getParentFile(), "total_trans");
+            if (totalFile.exists()) {
+                SysfsReader reader = mTransParser.getReader();
+                reader.read(totalFile);
+                reader.skipWhitespace();
+                total = reader.nextLong();
+            }
+            return TransTable.fromParser(mTransParser, total, time);
+        }
+        return TransTable.EMPTY;
+    }
+
+    /**
+     * Read and parse the time_in_state file. If none of the candidate files
+     * exist (CPU offline, no stats) the parser is left empty
+     * @return the parser holding the states
+     */
+    TimeInStateParser read() throws IOException {
+        mParser.clear();
+        for (File stateFile : mStateFiles) {
+            if (stateFile.exists()) {
+                mParser.parse(stateFile);
+                break;
+            }
+        }
+        return mParser;
+    }
+}
@@ -0,0 +1,176 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+/**
+ * Immutable time-in-state snapshot for one CPU. Frequencies and durations are
+ * kept in parallel primitive arrays, sorted from highest to lowest frequency,
+ * and the total is worked out once when the snapshot is built. The only
+ * exception is the background sampler, which refills its own snapshots in
+ * place (see fill); those are never published
+ */
+public class CpuSnapshot {
+    /** snapshot used before anything has been read */
+    public static final CpuSnapshot EMPTY = new CpuSnapshot(new int[0], new long[0], 0);
+
+    private final int[] mFreqs;
+    private final long[] mDurations;
+    private int mCount;
+    private long mTotal;
+
+    /**
+     * @param freqs frequencies in kHz, 0 for deep sleep, highest first
+     * @param durations time in state in 10ms ticks
+     */
+    CpuSnapshot(int[] freqs, long[] durations, int count) {
+        mFreqs = freqs;
+        mDurations = durations;
+        mCount = count;
+        mTotal = sum(durations, count);
+    }
+
+    /**
+     * Copy the parsed states out of the parser, add the deep sleep state and
+     * sort everything from highest to lowest frequency
+     */
+    static CpuSnapshot fromParser(TimeInStateParser parser, long sleepTime) {
+        return fromParser(parser, sleepTime, EMPTY);
+    }
+
+    /**
+     * Like fromParser, but with a baseline's durations subtracted while
+     * copying, so the times count from when the baseline was taken
+     * @param baseline a snapshot since boot; states missing from it count
+     *                 from zero
+     * @return the snapshot, or null if a counter is below the baseline,
+     * meaning the kernel started counting over since it was taken
+     */
+    static CpuSnapshot fromParser(TimeInStateParser parser, long sleepTime, CpuSnapshot baseline) {
+        int count = parser.getCount();
+        int[] freqs = new int[count + 1];
+        long[] durations = new long[count + 1];
+        if (!copyStates(parser, sleepTime, baseline, freqs, durations)) {
+            return null;
+        }
+        return new CpuSnapshot(freqs, durations, count + 1);
+    }
+
+    /**
+     * Refill this snapshot from the parser, as fromParser does without a
+     * baseline, reusing its arrays. Only for snapshots that were never
+     * shared, such as the background sampler's
+     * @return false if the states do not fit, in which case the snapshot
+     * is left as it was
+     */
+    boolean fill(TimeInStateParser parser, long sleepTime) {
+        int count = parser.getCount() + 1;
+        if (count > mFreqs.length) {
+            return false;
+        }
+        copyStates(parser, sleepTime, EMPTY, mFreqs, mDurations);
+        mCount = count;
+        mTotal = sum(mDurations, count);
+        return true;
+    }
+
+    /**
+     * The body of fromParser and fill: copy the parser's states and deep
+     * sleep into the arrays, highest frequency first
+     * @return false if a counter is below the baseline
+     */
+    private static boolean copyStates(TimeInStateParser parser, long sleepTime,
+                                      CpuSnapshot baseline, int[] freqs, long[] durations) {
+        int count = parser.getCount();
+
+        // the kernel lists states lowest first, so copying backwards
+        // normally leaves nothing for the sort to do, and walks the
+        // baseline (highest first too) in step
+        int hint = 0;
+        for (int i = 0; i < count; i++) {
+            int freq = parser.getFreq(count - 1 - i);
+            long duration = parser.getTime(count - 1 - i);
+            int base = baseline.indexOf(freq, hint);
+            if (base >= 0) {
+                duration -= baseline.mDurations[base];
+                if (duration < 0) {
+                    return false;
+                }
+                hint = base + 1;
+            }
+            freqs[i] = freq;
+            durations[i] = duration;
+        }
+        int base = baseline.indexOf(0, hint);
+        freqs[count] = 0;
+        durations[count] = base >= 0 ? Math.max(0, sleepTime - baseline.mDurations[base]) : sleepTime;
+        sortDescending(freqs, durations, count + 1);
+        return true;
+    }
+
+    private static long sum(long[] durations, int count) {
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += durations[i];
+        }
+        return total;
+    }
+
+    /**
+     * @param hint where to look first
+     * @return the index of the state with the frequency, or -1
+     */
+    private int indexOf(int freq, int hint) {
+        if (hint < mCount && mFreqs[hint] == freq) {
+            return hint;
+        }
+        for (int i = 0; i < mCount; i++) {
+            if (mFreqs[i] == freq) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Insertion sort on the parallel arrays; the input is (almost) always
+     * sorted already, so this is linear in practice
+     */
+    private static void sortDescending(int[] freqs, long[] durations, int count) {
+        for (int i = 1; i < count; i++) {
+            int freq = freqs[i];
+            long duration = durations[i];
+            int j = i - 1;
+            while (j >= 0 && freqs[j] < freq) {
+                freqs[j + 1] = freqs[j];
+                durations[j + 1] = durations[j];
+                j--;
+            }
+            freqs[j + 1] = freq;
+            durations[j + 1] = duration;
+        }
+    }
+
+    /** @return the number of states, including deep sleep */
+    public int getCount() {
+        return mCount;
+    }
+
+    /** @return the frequency (kHz) of state i, 0 for deep sleep */
+    public int getFreq(int i) {
+        return mFreqs[i];
+    }
+
+    /** @return the duration (10ms ticks) of state i */
+    public long getDuration(int i) {
+        return mDurations[i];
+    }
+
+    /** @return the sum of all state durations, including deep sleep */
+    public long getTotalTime() {
+        return mTotal;
+    }
+}
@@ -8,45 +8,158 @@
 package com.tortel.cpuspy;
 
 // imports
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.app.Application;
 import android.util.Log;
 
 /** main application class */
-public class CpuSpyApp extends Application {
-
-    private static final String KERNEL_VERSION_PATH = "/proc/version";
+public class CpuSpyApp extends Application implements RefreshScheduler.Listener {
 
     private static final String TAG = "CpuSpyApp";
 
-    private static final String PREF_NAME = "CpuSpyPreferences";
-    private static final String PREF_OFFSETS = "offsets";
+    public static final String PREF_NAME = "CpuSpyPreferences";
+    public static final String PREF_SAMPLE_INTERVAL = "sample_interval";
+    public static final String PREF_SAMPLE_BUDGET = "sample_budget";
+    public static final String PREF_SAMPLE_SCREEN_OFF = "sample_screen_off";
+
+    /** the most memory the background samples may use */
+    private static final long SAMPLE_BUDGET = 1024 * 1024;
+    private static final String HISTORY_DIR = "history";
+    /** the "reset timers" offsets, see BaselineStore */
+    private static final String OFFSETS_FILE = "offsets.bin";
+    /** the device info and last state, see StartupCache */
+    private static final String STARTUP_CACHE_FILE = "startup.bin";
 
     /** the long-living object used to monitor the system frequency states */
-    private CpuStateMonitor mMonitor = new CpuStateMonitor();
+    private CpuStateMonitor mMonitor = new CpuStateMonitor(Sysfs.DEFAULT, AndroidClock.INSTANCE);
+
+    /** single-flight refreshes of mMonitor */
+    private RefreshScheduler mRefreshScheduler;
+
+    /** keeps mMonitor's online CPUs current while the UI is visible */
+    private HotplugWatcher mHotplugWatcher;
+
+    /** current frequency sampling for the live mode */
+    private LiveSampler mLiveSampler;
+
+    /** per-app frequency times; updates are serialized on the object */
+    private UidTimeInState mUidTimes = new UidTimeInState(Sysfs.DEFAULT);
+
+    /** samples recorded by the SamplerService */
+    private SampleRing mSampleRing = new SampleRing(SAMPLE_BUDGET);
+    private volatile boolean mSampling;
 
-    private String mKernelVersion = "";
+    /** the UI's occasional disk and sysfs work, one task at a time */
+    private final ExecutorService mBackgroundExecutor = Executors.newSingleThreadExecutor();
+
+    /** read and written on mCacheExecutor only */
+    private StartupCache mStartupCache;
+    /** loads and saves the startup cache and reads the device info, in order */
+    private final ExecutorService mCacheExecutor = Executors.newSingleThreadExecutor();
+    private volatile DeviceInfo mDeviceInfo;
+    /** a device info read was queued; main thread only */
+    private boolean mDeviceInfoQueued;
+
+    private final Runnable mLoadCacheRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mStartupCache.load()) {
+                return;
+            }
+            if (mStartupCache.getDeviceInfo() != null) {
+                mDeviceInfo = mStartupCache.getDeviceInfo();
+            }
+            MonitorState state = mStartupCache.getState();
+            if (state != null) {
+                mMonitor.publishCachedState(state);
+            }
+            mRefreshScheduler.notifyListeners();
+        }
+    };
+
+    private final Runnable mSaveCacheRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mMonitor.hasLiveState()) {
+                // nothing new to keep
+                return;
+            }
+            try {
+                mStartupCache.save(mDeviceInfo, mMonitor.getState());
+            } catch (IOException e) {
+                Log.e(TAG, "Problem saving the startup cache", e);
+            }
+        }
+    };
 
     /**
-     * On application start, load the saved offsets and stash the
-     * current kernel version string
+     * On application start, hand the cache files to their owners. Nothing
+     * is read here: the startup cache is loaded in the background, so the
+     * first frame is not held up by disk or sysfs reads
      */
     @Override
     public void onCreate(){
         super.onCreate();
-        updateKernelVersion();
+        // only opened by the first refresh, off the main thread
+        mMonitor.setOffsetsFile(new File(getFilesDir(), OFFSETS_FILE));
+        // the UI waits on refreshes; spread them over threads if they are slow
+        mMonitor.setAutoParallelReads(true);
+        mRefreshScheduler = new RefreshScheduler(mMonitor);
+        mHotplugWatcher = new HotplugWatcher(mMonitor, Sysfs.DEFAULT);
+        mLiveSampler = new LiveSampler(mMonitor, Sysfs.DEFAULT);
+        mStartupCache = new StartupCache(new File(getFilesDir(), STARTUP_CACHE_FILE), Sysfs.DEFAULT);
+        mRefreshScheduler.addListener(this);
+        mCacheExecutor.execute(mLoadCacheRunnable);
+    }
+
+    /**
+     * @return the kernel, SoC and governors, or null until they were
+     * loaded from the cache or read
+     */
+    public DeviceInfo getDeviceInfo() {
+        return mDeviceInfo;
     }
 
     /**
-     * @return the kernel version string
+     * Read the device info once the policies are known, unless the cache
+     * already had it for this boot
      */
-    public String getKernelVersion() {
-        return mKernelVersion;
+    @Override
+    public void onStatesUpdated(MonitorState state) {
+        if (mDeviceInfo != null || mDeviceInfoQueued || state.getPolicyCount() == 0) {
+            return;
+        }
+        mDeviceInfoQueued = true;
+        final CpuPolicy[] policies = state.getPolicies();
+        mCacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDeviceInfo = DeviceInfo.read(Sysfs.DEFAULT, policies);
+                mSaveCacheRunnable.run();
+                mRefreshScheduler.notifyListeners();
+            }
+        });
+    }
+
+    /**
+     * Keep the device info and the states on screen for the next start.
+     * Written in the background; call when the UI goes away
+     */
+    public void saveStartupCache() {
+        mCacheExecutor.execute(mSaveCacheRunnable);
+    }
+
+    /**
+     * @return the executor for work the UI starts from a tap, such as saving
+     * the offsets; taps queue up on its single thread instead of each
+     * starting one
+     */
+    public ExecutorService getBackgroundExecutor() {
+        return mBackgroundExecutor;
     }
 
     /** @return the internal CpuStateMonitor object */
@@ -54,24 +167,42 @@ public class CpuSpyApp extends Application {
         return mMonitor;
     }
 
-    /**
-     * Try to read the kernel version string from the proc fileystem
-     */
-    public void updateKernelVersion() {
-        try {
-            InputStream is = new FileInputStream(KERNEL_VERSION_PATH);
-            InputStreamReader ir = new InputStreamReader(is);
-            BufferedReader br = new BufferedReader(ir);
-
-            String line;
-            while ((line = br.readLine())!= null ) {
-                mKernelVersion = line;
-            }
+    /** @return the scheduler used to refresh the internal CpuStateMonitor */
+    public RefreshScheduler getRefreshScheduler() {
+        return mRefreshScheduler;
+    }
 
-            is.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Problem reading kernel version file");
-            mKernelVersion = getString(R.string.unknown);
-        }
+    /** @return the watcher that tracks CPUs going on and offline */
+    public HotplugWatcher getHotplugWatcher() {
+        return mHotplugWatcher;
+    }
+
+    /** @return the sampler behind the live current frequency mode */
+    public LiveSampler getLiveSampler() {
+        return mLiveSampler;
+    }
+
+    /** @return the per-app frequency times; synchronize on it while in use */
+    public UidTimeInState getUidTimes() {
+        return mUidTimes;
+    }
+
+    /** @return the ring buffer the background sampler records into */
+    public SampleRing getSampleRing() {
+        return mSampleRing;
+    }
+
+    /** @return the directory holding the on-disk HistoryLog */
+    public File getHistoryDir() {
+        return new File(getFilesDir(), HISTORY_DIR);
+    }
+
+    /** @return true while the SamplerService is recording */
+    public boolean isSampling() {
+        return mSampling;
+    }
+
+    void setSampling(boolean sampling) {
+        mSampling = sampling;
     }
 }
@@ -8,20 +8,15 @@
 package com.tortel.cpuspy;
 
 // imports
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
-import android.os.SystemClock;
 import android.support.annotation.NonNull;
-import android.util.Log;
 
 /**
  * CpuStateMonitor is a class responsible for querying the system and getting
@@ -29,16 +24,58 @@ import android.util.Log;
  * offsets to "restart" the state timers
  */
 public class CpuStateMonitor {
-    private static final String TAG = "CpuSpy";
     private static final String TIME_IN_STATE_PATHS[] = {
             "/sys/devices/system/cpu/cpu#/cpufreq/stats/time_in_state",
             "/sys/devices/system/cpu/cpufreq/stats/cpu#/time_in_state"
     };
-    private static final String CPU_INFO_PATH =
-            "/proc/cpuinfo";
+    static final String POLICY_DIR =
+            "/sys/devices/system/cpu/cpufreq";
+    private static final String POLICY_PREFIX = "policy";
 
+    /** show the time in state since boot, or since the offsets were set */
+    public static final int MODE_CUMULATIVE = 0;
+    /** show the time in state over the delta engine's interval */
+    public static final int MODE_INTERVAL = 1;
+
+    private final Sysfs mSysfs;
+    private final MonitorClock mClock;
+
+    /* only touched by updateCpuCount/updateStates, under the lock */
     private int mCpuCount;
-    private List<List<CpuState>> mStates = new ArrayList<>();
+    private CpuTopology mTopology = CpuTopology.EMPTY;
+    private final SysfsReader mTopologyReader = new SysfsReader(256);
+    private CpuPolicy[] mPolicies = new CpuPolicy[0];
+    /** index into mPolicies for each CPU */
+    private int[] mCpuPolicy = new int[0];
+    /** the policy directories found by discoverPolicies, sorted */
+    private String[] mPolicyNames = new String[0];
+    private final DeltaEngine mDeltaEngine = new DeltaEngine();
+    private final PolicyReader mReader = new PolicyReader();
+    private final CpuIdleMonitor mIdleMonitor;
+    /** the idle counters of the last refresh, for the idle deltas */
+    private IdleSnapshot[] mIdle = new IdleSnapshot[0];
+    /** the transition tables of the last refresh, for their deltas */
+    private TransTable[] mTrans = new TransTable[0];
+    private final ThrottleMonitor mThrottleMonitor;
+    /** where the offsets are kept, null to keep none */
+    private BaselineStore mBaselineStore;
+    /** the offsets ("reset timers") of each policy, null where none */
+    private volatile CpuSnapshot[] mBaselines = new CpuSnapshot[0];
+
+    /** the last published refresh; readers never lock */
+    private volatile MonitorState mState = MonitorState.EMPTY;
+    private volatile int mMode = MODE_CUMULATIVE;
+
+    /**
+     * @param sysfs where to find /sys and /proc
+     * @param clock the boot clocks, for the deep sleep time
+     */
+    public CpuStateMonitor(Sysfs sysfs, MonitorClock clock) {
+        mSysfs = sysfs;
+        mClock = clock;
+        mIdleMonitor = new CpuIdleMonitor(sysfs);
+        mThrottleMonitor = new ThrottleMonitor(sysfs);
+    }
 
     /** exception class */
     public class CpuStateMonitorException extends Exception {
@@ -50,7 +87,7 @@ public class CpuStateMonitor {
     /**
      * simple struct for states/time
      */
-    public class CpuState implements Comparable<CpuState> {
+    public static class CpuState implements Comparable<CpuState> {
         /** init with freq and duration */
         CpuState(int a, long b) { freq = a; duration = b; }
 
@@ -63,16 +100,237 @@ public class CpuStateMonitor {
         }
     }
 
+    /**
+     * @return the last published refresh. Grab it once and read everything
+     * from it to get a consistent view
+     */
+    public MonitorState getState() {
+        return mState;
+    }
+
+    /**
+     * Show a state restored from the StartupCache until the first refresh
+     * completes. Ignored if a refresh already published something
+     * @return true if the state was published
+     */
+    public synchronized boolean publishCachedState(MonitorState state) {
+        if (mState != MonitorState.EMPTY) {
+            return false;
+        }
+        mState = state;
+        return true;
+    }
+
+    /**
+     * @return true if the published state was read by a refresh, rather
+     * than restored from the cache or not there at all
+     */
+    public synchronized boolean hasLiveState() {
+        return mPolicies.length > 0 && isPublished(mPolicies);
+    }
+
     public int getCpuCount() {
-        return mCpuCount;
+        return mState.getCpuCount();
+    }
+
+    /** @return which CPUs exist and are online, as of the last refresh */
+    public CpuTopology getTopology() {
+        return mState.getTopology();
+    }
+
+    /** @return the number of cpufreq policies (clusters) */
+    public int getPolicyCount() {
+        return mState.getPolicyCount();
+    }
+
+    /** @return the i'th policy, ordered by their first CPU */
+    public CpuPolicy getPolicy(int i) {
+        return mState.getPolicy(i);
+    }
+
+    /** @return the policy the CPU belongs to */
+    public CpuPolicy getPolicyForCpu(int cpu) {
+        MonitorState state = mState;
+        return state.getPolicy(state.getPolicyIndex(cpu));
+    }
+
+    /** @return MODE_CUMULATIVE or MODE_INTERVAL */
+    public int getMode() {
+        return mMode;
+    }
+
+    /**
+     * Choose whether getSnapshot returns the time in state since boot or
+     * over the last interval
+     */
+    public void setMode(int mode) {
+        mMode = mode;
+    }
+
+    /**
+     * Set how far back the interval snapshots reach, see
+     * DeltaEngine.setWindow. Takes effect on the next refresh
+     */
+    public void setIntervalWindow(long window) {
+        mDeltaEngine.setWindow(window);
+    }
+
+    /** @return how far back (ms) the interval reaches, 0 for the last refresh */
+    public long getIntervalWindow() {
+        return mDeltaEngine.getWindow();
+    }
+
+    /**
+     * Read the policies on a small worker pool instead of one after the
+     * other. Helps on many-cluster devices with slow storage
+     */
+    public synchronized void setParallelReads(boolean parallel) {
+        mReader.setParallel(parallel);
+    }
+
+    public synchronized boolean isParallelReads() {
+        return mReader.isParallel();
+    }
+
+    /**
+     * Start reading the policies one after the other, and switch to the
+     * worker pool by itself if that proves slow on a device with three or
+     * more policies, see PolicyReader.setAuto
+     */
+    public synchronized void setAutoParallelReads(boolean auto) {
+        mReader.setAuto(auto);
+    }
+
+    /**
+     * Keep the offsets in the file, so a reset survives the app being
+     * killed. Offsets already in the file are used from the next refresh
+     * on, unless they were taken in another boot
+     */
+    public synchronized void setOffsetsFile(File file) {
+        mBaselineStore = new BaselineStore(file, mSysfs);
+        if (mPolicies.length > 0) {
+            mBaselines = mBaselineStore.load(mPolicies);
+        }
+    }
+
+    /**
+     * @return true if the times count from a reset instead of from boot.
+     * Does not wait for a refresh, so it is safe on the main thread
+     */
+    public boolean hasOffsets() {
+        for (CpuSnapshot baseline : mBaselines) {
+            if (baseline != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * "Reset the timers": take the current time in state of every policy
+     * as its offset, so the times since boot count from now on. Takes
+     * effect on the next refresh
+     */
+    public synchronized void setOffsets() throws CpuStateMonitorException {
+        if (mCpuCount == 0) {
+            updateCpuCount();
+        }
+        try {
+            readInStates();
+        } catch (IOException e) {
+            throw new CpuStateMonitorException(
+                    "Problem opening time-in-states file");
+        }
+        long sleepTime = (mClock.elapsedRealtime() - mClock.uptimeMillis()) / 10;
+        CpuSnapshot[] baselines = new CpuSnapshot[mPolicies.length];
+        for (int p = 0; p < mPolicies.length; p++) {
+            baselines[p] = CpuSnapshot.fromParser(mPolicies[p].getParser(), sleepTime);
+        }
+        mBaselines = baselines;
+        mDeltaEngine.reset(mPolicies.length);
+        saveOffsets();
+    }
+
+    /**
+     * "Restore the timers": drop the offsets, back to the times since boot.
+     * Takes effect on the next refresh
+     */
+    public synchronized void removeOffsets() {
+        mBaselines = new CpuSnapshot[mPolicies.length];
+        mDeltaEngine.reset(mPolicies.length);
+        if (mBaselineStore != null) {
+            mBaselineStore.delete();
+        }
+    }
+
+    private void saveOffsets() {
+        if (mBaselineStore == null) {
+            return;
+        }
+        try {
+            mBaselineStore.save(mPolicies, mBaselines);
+        } catch (IOException e) {
+            // the offsets still apply until the app is killed
+        }
+    }
+
+    /**
+     * Build a policy's snapshot from its parser with the offset applied. If
+     * the counters went below the offset the kernel started over (reboot,
+     * stats reset), so the offset is dropped and the interval marked reset
+     */
+    private CpuSnapshot toSnapshot(int policy, TimeInStateParser parser, long sleepTime) {
+        CpuSnapshot baseline = mBaselines[policy];
+        if (baseline != null) {
+            CpuSnapshot snapshot = CpuSnapshot.fromParser(parser, sleepTime, baseline);
+            if (snapshot != null) {
+                return snapshot;
+            }
+            mBaselines[policy] = null;
+            saveOffsets();
+            // the times jump back up to the raw counters
+            mDeltaEngine.restart(policy);
+        }
+        return CpuSnapshot.fromParser(parser, sleepTime);
+    }
+
+    /**
+     * @param cpu the CPU number
+     * @return the latest time-in-state snapshot for the CPU, in the current
+     * mode
+     */
+    public CpuSnapshot getSnapshot(int cpu) {
+        return mState.getSnapshot(cpu, mMode);
     }
 
     /**
+     * @param cpu the CPU number
+     * @return the latest time-in-state snapshot since boot for the CPU
+     */
+    public CpuSnapshot getCumulativeSnapshot(int cpu) {
+        return mState.getSnapshot(cpu, MODE_CUMULATIVE);
+    }
+
+    /**
+     * @param policy the policy index, see getPolicy
+     * @return the latest time-in-state snapshot since boot for the policy
+     */
+    public CpuSnapshot getPolicySnapshot(int policy) {
+        return mState.getPolicySnapshot(policy);
+    }
+
+    /**
+     * Adapter for callers that still want objects; prefer getSnapshot
      * @param cpu the CPU number
      * @return List of CpuState with the offsets applied
      */
     public List<CpuState> getStates(int cpu) {
-        return mStates.get(cpu);
+        CpuSnapshot snapshot = getSnapshot(cpu);
+        List<CpuState> states = new ArrayList<>(snapshot.getCount());
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            states.add(new CpuState(snapshot.getFreq(i), snapshot.getDuration(i)));
+        }
+        return states;
     }
 
     /**
@@ -80,100 +338,348 @@ public class CpuStateMonitor {
      * for offsets
      */
     public long getTotalStateTime(int cpu) {
-        long sum = 0;
+        return getSnapshot(cpu).getTotalTime();
+    }
 
-        for (CpuState state : mStates.get(cpu)) {
-            sum += state.duration;
+    /**
+     * Discover the CPUs from the sysfs range lists and group them into
+     * policies. The result is kept until this is called again; refreshes
+     * only re-read the online list
+     */
+    public synchronized void updateCpuCount() throws CpuStateMonitorException {
+        try {
+            mTopology = CpuTopology.read(mSysfs, mTopologyReader);
+        } catch (IOException e) {
+            throw new CpuStateMonitorException("Problem getting CPU count");
         }
-
-        return sum;
+        mCpuCount = mTopology.getCpuCount();
+        if (mCpuCount == 0) {
+            throw new CpuStateMonitorException("Problem getting CPU count");
+        }
+        discoverPolicies();
+        mIdleMonitor.discover(mCpuCount);
+        mIdle = new IdleSnapshot[mCpuCount];
+        Arrays.fill(mIdle, IdleSnapshot.EMPTY);
     }
 
-    public void updateCpuCount() {
-        try{
-            BufferedReader reader = new BufferedReader(new FileReader(CPU_INFO_PATH));
-            String line = null;
-            int count = 0;
-            while((line = reader.readLine()) != null){
-                // Log.d(TAG, "CPU info line: "+line);
-                if(line.contains("processor")) {
-                    count++;
+    /**
+     * Group the CPUs by the cpufreq policy they share, so every time_in_state
+     * file is only read once. CPUs not covered by a policy directory fall
+     * back to the per-CPU stats paths
+     */
+    private void discoverPolicies() {
+        List<CpuPolicy> policies = new ArrayList<>();
+        boolean[] covered = new boolean[mCpuCount];
+        SysfsReader reader = new SysfsReader(256);
+
+        File policyDir = mSysfs.file(POLICY_DIR);
+        String[] names = listPolicyNames();
+        mPolicyNames = names;
+        if (names != null) {
+            for (String name : names) {
+                if (!name.startsWith(POLICY_PREFIX)) {
+                    continue;
+                }
+                try {
+                    int id = Integer.parseInt(name.substring(POLICY_PREFIX.length()));
+                    File dir = new File(policyDir, name);
+                    int[] cpus = readCpuList(reader, new File(dir, "related_cpus"));
+                    if (cpus.length == 0 || cpus[cpus.length - 1] >= mCpuCount) {
+                        continue;
+                    }
+                    for (int cpu : cpus) {
+                        covered[cpu] = true;
+                    }
+                    policies.add(new CpuPolicy(id, cpus, new File[] {
+                            new File(dir, "stats/time_in_state") }));
+                } catch (NumberFormatException | IOException e) {
+                    // unreadable policy; its CPUs use the per-CPU paths
+                }
+            }
+        }
+
+        for (int cpu = 0; cpu < mCpuCount; cpu++) {
+            if (!covered[cpu]) {
+                File[] files = new File[TIME_IN_STATE_PATHS.length];
+                for (int i = 0; i < files.length; i++) {
+                    files[i] = mSysfs.file(TIME_IN_STATE_PATHS[i].replace("#", String.valueOf(cpu)));
                 }
+                policies.add(new CpuPolicy(cpu, new int[] { cpu }, files));
             }
-            mCpuCount = count;
-            // Log.d(TAG, "CPU count "+ mCpuCount);
+        }
 
-            mStates.clear();
+        Collections.sort(policies, new Comparator<CpuPolicy>() {
+            @Override
+            public int compare(CpuPolicy a, CpuPolicy b) {
+                return Integer.compare(a.getFirstCpu(), b.getFirstCpu());
+            }
+        });
 
-            for(int i =0; i < mCpuCount; i++){
-                mStates.add(new ArrayList<CpuState>());
+        mPolicies = policies.toArray(new CpuPolicy[policies.size()]);
+        mCpuPolicy = new int[mCpuCount];
+        for (int i = 0; i < mPolicies.length; i++) {
+            for (int j = 0; j < mPolicies[i].getCpuCount(); j++) {
+                mCpuPolicy[mPolicies[i].getCpu(j)] = i;
             }
-        } catch (Exception e){
-            Log.e(TAG, "Exception gettting CPU count", e);
         }
+
+        mDeltaEngine.reset(mPolicies.length);
+        mThrottleMonitor.setPolicies(mPolicies);
+        mBaselines = mBaselineStore != null ? mBaselineStore.load(mPolicies)
+                : new CpuSnapshot[mPolicies.length];
+    }
+
+    /** @return the policyN directory names, sorted, or null */
+    private String[] listPolicyNames() {
+        String[] names = mSysfs.file(POLICY_DIR).list();
+        if (names != null) {
+            Arrays.sort(names);
+        }
+        return names;
     }
 
     /**
+     * Bring the topology up to date after a possible hotplug event, without
+     * a full refresh: only the policies of CPUs that went on or offline are
+     * re-read, every other snapshot is carried over from the current state.
+     * If the set of policy directories changed the policies are rediscovered
+     * and everything is read
+     * @param checkPolicies also list the policy directories; only needed
+     *                      when something under cpufreq was seen changing
+     * @return the CPUs whose online state changed, empty if none (or if
+     * nothing was refreshed yet), or null if the policies were rediscovered
      */
-    public void updateStates()
-        throws CpuStateMonitorException {
-        if(mCpuCount == 0){
+    public synchronized int[] updateTopology(boolean checkPolicies)
+            throws CpuStateMonitorException {
+        if (mCpuCount == 0 || !isPublished(mPolicies)) {
+            // the next refresh publishes everything anyway
+            return new int[0];
+        }
+        if (checkPolicies && !Arrays.equals(listPolicyNames(), mPolicyNames)) {
             updateCpuCount();
+            updateStates();
+            return null;
         }
 
-        for(int cpu=0; cpu < mCpuCount; cpu++){
-            List<CpuState> states = mStates.get(cpu);
+        CpuTopology old = mTopology;
+        try {
+            mTopology = old.withOnline(mSysfs, mTopologyReader);
+        } catch (IOException e) {
+            return new int[0];
+        }
+        if (mTopology == old) {
+            return new int[0];
+        }
 
-            /* attempt to create a buffered reader to the time in state
-             * file and read in the states to the class */
-            try {
-                File stateFile = null;
-                for (String path : TIME_IN_STATE_PATHS) {
-                    stateFile = new File(path.replace('#', Character.forDigit(cpu, 10)));
-                    if (stateFile.exists()) {
-                        // Log.d(TAG, "CPU state file path: "+ path);
-                        InputStream is = new FileInputStream(stateFile);
-                        InputStreamReader ir = new InputStreamReader(is);
-                        BufferedReader br = new BufferedReader(ir);
-                        states.clear();
-                        readInStates(br, cpu, states);
-                        is.close();
-                        break;
-                    }
+        int[] changed = new int[mCpuCount];
+        int count = 0;
+        boolean[] stale = new boolean[mPolicies.length];
+        for (int cpu = 0; cpu < mCpuCount; cpu++) {
+            if (old.isOnline(cpu) != mTopology.isOnline(cpu)) {
+                changed[count++] = cpu;
+                stale[mCpuPolicy[cpu]] = true;
+            }
+        }
+
+        MonitorState state = mState;
+        long sleepTime = (mClock.elapsedRealtime() - mClock.uptimeMillis()) / 10;
+        CpuSnapshot[] cumulative = new CpuSnapshot[mPolicies.length];
+        for (int p = 0; p < mPolicies.length; p++) {
+            cumulative[p] = state.getPolicySnapshot(p);
+            if (stale[p]) {
+                try {
+                    cumulative[p] = toSnapshot(p, mPolicies[p].read(), sleepTime);
+                } catch (IOException e) {
+                    // keep the last snapshot until the next full refresh
                 }
-            } catch (IOException e) {
-                throw new CpuStateMonitorException(
-                        "Problem opening time-in-states file");
             }
+        }
+        mState = state.withTopology(mTopology, cumulative, stale);
+        return Arrays.copyOf(changed, count);
+    }
 
-            /* deep sleep time determined by difference between elapsed
-             * (total) boot time and the system uptime (awake) */
-            long sleepTime = (SystemClock.elapsedRealtime()
-                    - SystemClock.uptimeMillis()) / 10;
-            states.add(new CpuState(0, sleepTime));
+    /** @return true if the published state was built from these policies */
+    private boolean isPublished(CpuPolicy[] policies) {
+        MonitorState state = mState;
+        if (state.getPolicyCount() != policies.length) {
+            return false;
+        }
+        for (int p = 0; p < policies.length; p++) {
+            if (state.getPolicy(p) != policies[p]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            Collections.sort(states, Collections.reverseOrder());
+    /**
+     * Read a space separated CPU list such as related_cpus ("0 1 2 3")
+     */
+    private static int[] readCpuList(SysfsReader reader, File file) throws IOException {
+        reader.read(file);
+        int[] cpus = new int[8];
+        int count = 0;
+        while (true) {
+            reader.skipWhitespace();
+            long cpu = reader.nextLong();
+            if (cpu < 0) {
+                break;
+            }
+            if (count == cpus.length) {
+                cpus = Arrays.copyOf(cpus, count * 2);
+            }
+            cpus[count++] = (int) cpu;
         }
+        cpus = Arrays.copyOf(cpus, count);
+        Arrays.sort(cpus);
+        return cpus;
     }
 
     /**
-     * read from a provided BufferedReader the state lines into the
-     * States member field
+     * Read every policy and publish the result as a new MonitorState.
+     * Concurrent calls are serialized; readers keep seeing the previous
+     * state until the new one is complete
      */
-    private void readInStates(BufferedReader br, int cpu, List<CpuState> states)
+    public synchronized void updateStates()
         throws CpuStateMonitorException {
+        MonitorMetrics metrics = MonitorMetrics.INSTANCE;
+        long start = metrics.begin(MonitorMetrics.STAGE_REFRESH);
         try {
-            String line;
-            while ((line = br.readLine()) != null) {
-                // split open line and convert to Integers
-                String[] nums = line.split(" ");
-                states.add(new CpuState(
-                        Integer.parseInt(nums[0]),
-                        Long.parseLong(nums[1])));
+            readStates(metrics);
+        } finally {
+            metrics.end(MonitorMetrics.STAGE_REFRESH, start);
+        }
+    }
+
+    /** the body of updateStates, timed by it */
+    private void readStates(MonitorMetrics metrics) throws CpuStateMonitorException {
+        if(mCpuCount == 0){
+            updateCpuCount();
+        } else {
+            try {
+                mTopology = mTopology.withOnline(mSysfs, mTopologyReader);
+            } catch (IOException e) {
+                // keep the last known online CPUs
             }
+        }
+
+        /* deep sleep time determined by difference between elapsed
+         * (total) boot time and the system uptime (awake) */
+        long now = mClock.elapsedRealtime();
+        long sleepTime = (now - mClock.uptimeMillis()) / 10;
+
+        /* read every policy's time in state file once and share the
+         * snapshot with every CPU in it */
+        long start = metrics.begin(MonitorMetrics.STAGE_PARSE);
+        try {
+            readInStates();
         } catch (IOException e) {
             throw new CpuStateMonitorException(
-                    "Problem processing time-in-states file");
+                    "Problem opening time-in-states file");
+        } finally {
+            metrics.end(MonitorMetrics.STAGE_PARSE, start);
+        }
+
+        CpuSnapshot[] cumulative = new CpuSnapshot[mPolicies.length];
+        CpuSnapshot[] deltas = new CpuSnapshot[mPolicies.length];
+        for (int p = 0; p < mPolicies.length; p++) {
+            cumulative[p] = toSnapshot(p, mPolicies[p].getParser(), sleepTime);
+        }
+
+        mDeltaEngine.update(cumulative, now, deltas);
+        boolean[] resets = new boolean[mPolicies.length];
+        for (int p = 0; p < mPolicies.length; p++) {
+            resets[p] = mDeltaEngine.wasReset(p);
         }
+
+        /* per-core idle states, against the previous refresh */
+        IdleSnapshot[] idle = new IdleSnapshot[mCpuCount];
+        IdleSnapshot[] idleDeltas = new IdleSnapshot[mCpuCount];
+        mIdleMonitor.read(now * 1000, idle);
+        for (int cpu = 0; cpu < mCpuCount; cpu++) {
+            idleDeltas[cpu] = idle[cpu].since(mIdle[cpu]);
+        }
+        mIdle = idle;
+
+        /* frequency transitions, against the previous refresh */
+        TransTable[] trans = new TransTable[mPolicies.length];
+        TransTable[] transDeltas = new TransTable[mPolicies.length];
+        start = metrics.begin(MonitorMetrics.STAGE_TRANSITIONS);
+        for (int p = 0; p < mPolicies.length; p++) {
+            trans[p] = TransTable.EMPTY;
+            try {
+                trans[p] = mPolicies[p].readTransTable(now);
+            } catch (IOException e) {
+                // no table this time
+            }
+            transDeltas[p] = p < mTrans.length ? trans[p].since(mTrans[p]) : trans[p];
+        }
+        metrics.end(MonitorMetrics.STAGE_TRANSITIONS, start);
+        mTrans = trans;
+
+        /* frequency caps and CPU temperature */
+        ThrottleState[] throttle = new ThrottleState[mPolicies.length];
+        mThrottleMonitor.sample(now, throttle);
+
+        mState = new MonitorState(mTopology, mPolicies, mCpuPolicy, cumulative, deltas, resets,
+                idle, idleDeltas, trans, transDeltas, throttle, now,
+                mDeltaEngine.getIntervalMillis());
+    }
+
+    /**
+     * The background sampler's refresh: read only the time in state files,
+     * straight into the caller's snapshots, which are refilled in place.
+     * No idle states, caps or transitions are read, no offsets applied and
+     * no MonitorState published, so in the steady state nothing is
+     * allocated beyond opening the files
+     * @param snapshots the last sample's snapshots, never published; they
+     *                  are refilled where the states still fit
+     * @return the snapshots since boot, one per policy; a new array only
+     * when the number of policies changed
+     */
+    public synchronized CpuSnapshot[] sampleStates(CpuSnapshot[] snapshots)
+            throws CpuStateMonitorException {
+        MonitorMetrics metrics = MonitorMetrics.INSTANCE;
+        long start = metrics.begin(MonitorMetrics.STAGE_REFRESH);
+        try {
+            if (mCpuCount == 0) {
+                updateCpuCount();
+            }
+            long sleepTime = (mClock.elapsedRealtime() - mClock.uptimeMillis()) / 10;
+            long parseStart = metrics.begin(MonitorMetrics.STAGE_PARSE);
+            try {
+                readInStates();
+            } catch (IOException e) {
+                throw new CpuStateMonitorException(
+                        "Problem opening time-in-states file");
+            } finally {
+                metrics.end(MonitorMetrics.STAGE_PARSE, parseStart);
+            }
+            if (snapshots.length != mPolicies.length) {
+                snapshots = new CpuSnapshot[mPolicies.length];
+            }
+            for (int p = 0; p < mPolicies.length; p++) {
+                TimeInStateParser parser = mPolicies[p].getParser();
+                if (snapshots[p] == null || !snapshots[p].fill(parser, sleepTime)) {
+                    snapshots[p] = CpuSnapshot.fromParser(parser, sleepTime);
+                }
+            }
+            return snapshots;
+        } finally {
+            metrics.end(MonitorMetrics.STAGE_REFRESH, start);
+        }
+    }
+
+    /** @return the policies sampleStates reads; shared, never modify */
+    synchronized CpuPolicy[] getPolicies() {
+        return mPolicies;
+    }
+
+    /**
+     * parse every policy's time in state file into its parser's primitive
+     * arrays
+     */
+    private void readInStates() throws IOException {
+        mReader.read(mPolicies);
     }
 }
@@ -0,0 +1,178 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Which CPUs exist and which of them are online, read from the kernel's
+ * possible/present/online range lists ("0-3,6-7"). Those files are a few
+ * bytes each, unlike /proc/cpuinfo, and list offline CPUs too. Instances are
+ * immutable; hotplug produces a new one through withOnline
+ */
+public class CpuTopology {
+    static final String POSSIBLE_PATH = "/sys/devices/system/cpu/possible";
+    static final String PRESENT_PATH = "/sys/devices/system/cpu/present";
+    static final String ONLINE_PATH = "/sys/devices/system/cpu/online";
+    private static final String CPU_DIR = "/sys/devices/system/cpu";
+    /** the kernel's own NR_CPUS limit; anything above is garbage */
+    private static final int MAX_CPUS = 8192;
+
+    /** topology published before the first discovery */
+    static final CpuTopology EMPTY = new CpuTopology(new boolean[0], new boolean[0], new boolean[0]);
+
+    private final boolean[] mPossible;
+    private final boolean[] mPresent;
+    private final boolean[] mOnline;
+    private final int mOnlineCount;
+
+    CpuTopology(boolean[] possible, boolean[] present, boolean[] online) {
+        mPossible = possible;
+        mPresent = present;
+        mOnline = online;
+        int count = 0;
+        for (boolean cpu : online) {
+            if (cpu) {
+                count++;
+            }
+        }
+        mOnlineCount = count;
+    }
+
+    /**
+     * Read the topology. Kernels without the possible list fall back to
+     * present, then to the cpuN directories; without an online list every
+     * present CPU is taken to be online
+     */
+    static CpuTopology read(Sysfs sysfs, SysfsReader reader) throws IOException {
+        boolean[] possible = readIfExists(sysfs, reader, POSSIBLE_PATH, 0);
+        boolean[] present = readIfExists(sysfs, reader, PRESENT_PATH, 0);
+        if (possible == null) {
+            possible = present != null ? present : listCpuDirs(sysfs);
+        }
+        if (present == null) {
+            present = possible;
+        }
+        present = Arrays.copyOf(present, possible.length);
+
+        boolean[] online = readIfExists(sysfs, reader, ONLINE_PATH, possible.length);
+        if (online == null) {
+            online = present;
+        }
+        return new CpuTopology(possible, present, online);
+    }
+
+    /**
+     * Re-read only the online list; possible and present CPUs do not change
+     * on hotplug
+     * @return this if nothing changed, otherwise the updated topology
+     */
+    CpuTopology withOnline(Sysfs sysfs, SysfsReader reader) throws IOException {
+        boolean[] online = readIfExists(sysfs, reader, ONLINE_PATH, mPossible.length);
+        if (online == null || Arrays.equals(online, mOnline)) {
+            return this;
+        }
+        return new CpuTopology(mPossible, mPresent, online);
+    }
+
+    /** @return one more than the highest possible CPU number */
+    public int getCpuCount() {
+        return mPossible.length;
+    }
+
+    public int getOnlineCount() {
+        return mOnlineCount;
+    }
+
+    public boolean isPossible(int cpu) {
+        return cpu >= 0 && cpu < mPossible.length && mPossible[cpu];
+    }
+
+    public boolean isPresent(int cpu) {
+        return cpu >= 0 && cpu < mPresent.length && mPresent[cpu];
+    }
+
+    public boolean isOnline(int cpu) {
+        return cpu >= 0 && cpu < mOnline.length && mOnline[cpu];
+    }
+
+    private static boolean[] readIfExists(Sysfs sysfs, SysfsReader reader, String path,
+                                          int size) throws IOException {
+        File file = sysfs.file(path);
+        if (!file.exists()) {
+            return null;
+        }
+        reader.read(file);
+        return parseRangeList(reader, size);
+    }
+
+    /**
+     * Parse a kernel CPU range list such as "0-3,6-7" from the reader's
+     * buffer. An empty list (no CPUs online) is valid
+     * @param size the minimum length of the result; it grows to fit the
+     *             highest CPU listed
+     */
+    static boolean[] parseRangeList(SysfsReader reader, int size) {
+        boolean[] cpus = new boolean[size];
+        reader.rewind();
+        while (true) {
+            reader.skipWhitespace();
+            long first = reader.nextLong();
+            if (first < 0 || first >= MAX_CPUS) {
+                break;
+            }
+            long last = first;
+            if (reader.skip('-')) {
+                last = reader.nextLong();
+                if (last < first || last >= MAX_CPUS) {
+                    break;
+                }
+            }
+            if (last >= cpus.length) {
+                cpus = Arrays.copyOf(cpus, (int) last + 1);
+            }
+            Arrays.fill(cpus, (int) first, (int) last + 1, true);
+            if (!reader.skip(',')) {
+                break;
+            }
+        }
+        return cpus;
+    }
+
+    /**
+     * Last resort for kernels without the range lists: every cpuN directory
+     * is a possible CPU
+     */
+    private static boolean[] listCpuDirs(Sysfs sysfs) {
+        boolean[] cpus = new boolean[0];
+        String[] names = sysfs.file(CPU_DIR).list();
+        if (names == null) {
+            return cpus;
+        }
+        for (String name : names) {
+            if (name.length() < 4 || !name.startsWith("cpu")) {
+                continue;
+            }
+            int cpu = 0;
+            for (int i = 3; i < name.length() && cpu >= 0; i++) {
+                char c = name.charAt(i);
+                cpu = c >= '0' && c <= '9' && cpu < MAX_CPUS ? cpu * 10 + (c - '0') : -1;
+            }
+            if (cpu < 0) {
+                continue;
+            }
+            if (cpu >= cpus.length) {
+                cpus = Arrays.copyOf(cpus, cpu + 1);
+            }
+            cpus[cpu] = true;
+        }
+        return cpus;
+    }
+}
@@ -0,0 +1,106 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * A small binary file followed by a crc32 of its contents, read whole with
+ * one read and replaced atomically: saving writes a temporary file, syncs it
+ * and renames it over the old one, so a crash leaves either the old or the
+ * new contents, never a torn file. The file behind the BaselineStore and the
+ * StartupCache
+ */
+class CrcFile {
+    /** sanity limit on the file, far more than any device needs */
+    private static final int MAX_SIZE = 1024 * 1024;
+
+    private final File mFile;
+
+    CrcFile(File file) {
+        mFile = file;
+    }
+
+    /**
+     * @param minSize the smallest valid file, crc included
+     * @return the contents without the crc, the buffer's limit set before
+     * it; null if the file is missing, cannot be read or has the wrong size.
+     * A file whose crc does not match is deleted
+     */
+    ByteBuffer read(int minSize) {
+        long length = mFile.length();
+        if (length < Math.max(minSize, 4) || length > MAX_SIZE) {
+            return null;
+        }
+        byte[] data = new byte[(int) length];
+        try {
+            FileInputStream in = new FileInputStream(mFile);
+            try {
+                int read = 0;
+                while (read < data.length) {
+                    int n = in.read(data, read, data.length - read);
+                    if (n < 0) {
+                        return null;
+                    }
+                    read += n;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt(data.length - 4) != (int) crc.getValue()) {
+            delete();
+            return null;
+        }
+        buffer.limit(data.length - 4);
+        return buffer;
+    }
+
+    /**
+     * Atomically replace the file with the first length bytes of data and
+     * their crc
+     */
+    void write(byte[] data, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        byte[] trailer = ByteBuffer.allocate(4).putInt((int) crc.getValue()).array();
+
+        File dir = mFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data, 0, length);
+            out.write(trailer);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + mFile);
+        }
+    }
+
+    void delete() {
+        mFile.delete();
+    }
+}
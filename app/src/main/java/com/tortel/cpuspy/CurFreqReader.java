@@ -0,0 +1,76 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+/**
+ * Reads the current frequency of every policy, fast enough to be called
+ * many times a second. Each policy's scaling_cur_freq (or cpuinfo_cur_freq)
+ * is opened once and re-read in place with a positional read at offset 0,
+ * which makes sysfs regenerate the value without a new open/close. Not
+ * thread safe; use it from a single sampling thread
+ */
+public class CurFreqReader {
+    private static final String[] CUR_FREQ_PATHS = {
+            "/sys/devices/system/cpu/cpu#/cpufreq/scaling_cur_freq",
+            "/sys/devices/system/cpu/cpu#/cpufreq/cpuinfo_cur_freq"
+    };
+
+    private final Sysfs mSysfs;
+    private CpuPolicy[] mPolicies = new CpuPolicy[0];
+    private SysfsValueFile[] mFiles = new SysfsValueFile[0];
+
+    public CurFreqReader(Sysfs sysfs) {
+        mSysfs = sysfs;
+    }
+
+    /**
+     * Switch to a new set of policies, closing the files of the old ones
+     */
+    public void setPolicies(CpuPolicy[] policies) {
+        if (policies == mPolicies) {
+            return;
+        }
+        close();
+        mPolicies = policies;
+        mFiles = new SysfsValueFile[policies.length];
+        for (int p = 0; p < policies.length; p++) {
+            mFiles[p] = SysfsValueFile.forPolicy(mSysfs, policies[p], CUR_FREQ_PATHS);
+        }
+    }
+
+    /** @return the number of policies read */
+    public int getPolicyCount() {
+        return mPolicies.length;
+    }
+
+    /**
+     * Read the current frequency of every policy
+     * @param freqs receives one frequency (kHz) per policy, 0 where none
+     *              could be read (policy offline)
+     */
+    public void read(int[] freqs) {
+        for (int p = 0; p < mPolicies.length; p++) {
+            freqs[p] = read(p);
+        }
+    }
+
+    /**
+     * @return the policy's current frequency (kHz), or 0 if it cannot be
+     * read right now; the file is reopened on the next call
+     */
+    public int read(int policy) {
+        long freq = mFiles[policy].read();
+        return freq > 0 && freq <= Integer.MAX_VALUE ? (int) freq : 0;
+    }
+
+    /** close every open file */
+    public void close() {
+        for (SysfsValueFile file : mFiles) {
+            file.close();
+        }
+    }
+}
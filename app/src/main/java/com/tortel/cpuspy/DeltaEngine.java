@@ -0,0 +1,184 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+/**
+ * DeltaEngine turns the cumulative (since boot) policy snapshots into
+ * per-interval ones. It keeps the last few cumulative snapshots as baselines,
+ * so the interval can either be "since the last refresh" or "over the last N
+ * milliseconds", and notices when the kernel counters went backwards
+ * (hotplug, stats reset) so it never reports negative time
+ */
+public class DeltaEngine {
+    private static final int HISTORY = 64;
+
+    /** baselines, [slot][policy] */
+    private CpuSnapshot[][] mHistory = new CpuSnapshot[HISTORY][];
+    private final long[] mTimes = new long[HISTORY];
+    private int mHead;
+    private int mSize;
+
+    private int mPolicyCount;
+    private boolean[] mReset = new boolean[0];
+    /** policies whose counters jumped for a reason only the caller knows */
+    private boolean[] mRestart = new boolean[0];
+    /** set from any thread */
+    private volatile long mWindow;
+    private long mIntervalMillis;
+
+    /**
+     * Drop all baselines and size the engine for a new set of policies
+     */
+    public void reset(int policyCount) {
+        mPolicyCount = policyCount;
+        for (int i = 0; i < HISTORY; i++) {
+            mHistory[i] = new CpuSnapshot[policyCount];
+        }
+        mReset = new boolean[policyCount];
+        mRestart = new boolean[policyCount];
+        mHead = 0;
+        mSize = 0;
+        mIntervalMillis = 0;
+    }
+
+    /**
+     * @param window how far back (ms) the interval should reach; 0 means
+     *               since the previous refresh
+     */
+    public void setWindow(long window) {
+        mWindow = window;
+    }
+
+    public long getWindow() {
+        return mWindow;
+    }
+
+    /** @return the length (ms) of the interval behind the last deltas */
+    public long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    /** @return true if the counters of the policy went backwards last update */
+    public boolean wasReset(int policy) {
+        return mReset[policy];
+    }
+
+    /**
+     * Treat the policy's next update as a reset even if its counters went
+     * up, e.g. because its offset was dropped and the cumulative times
+     * jumped to the raw counters
+     */
+    public void restart(int policy) {
+        mRestart[policy] = true;
+    }
+
+    /**
+     * Record a new set of cumulative snapshots and work out the deltas
+     * against the chosen baseline
+     * @param cumulative cumulative snapshots, indexed by policy
+     * @param now timestamp (ms) of the snapshots
+     * @param deltas filled with the interval snapshots, indexed by policy
+     */
+    public void update(CpuSnapshot[] cumulative, long now, CpuSnapshot[] deltas) {
+        int base = findBaseline(now);
+        mIntervalMillis = base < 0 ? 0 : now - mTimes[base];
+        for (int p = 0; p < mPolicyCount; p++) {
+            CpuSnapshot current = cumulative[p];
+            if (base < 0) {
+                mReset[p] = false;
+                mRestart[p] = false;
+                deltas[p] = zero(current);
+                continue;
+            }
+            CpuSnapshot delta = mRestart[p] ? null : delta(mHistory[base][p], current);
+            mReset[p] = delta == null;
+            mRestart[p] = false;
+            if (delta == null) {
+                // after a reset the counters may have started over at any
+                // point, so there is no telling what part of them falls in
+                // the interval; report an empty one and count from here on,
+                // also in the intervals that reach back past the reset
+                deltas[p] = zero(current);
+                for (int i = 0; i < mSize; i++) {
+                    mHistory[i][p] = current;
+                }
+            } else {
+                deltas[p] = delta;
+            }
+        }
+
+        System.arraycopy(cumulative, 0, mHistory[mHead], 0, mPolicyCount);
+        mTimes[mHead] = now;
+        mHead = (mHead + 1) % HISTORY;
+        if (mSize < HISTORY) {
+            mSize++;
+        }
+    }
+
+    /**
+     * @return the slot to use as baseline, or -1 if there is none yet
+     */
+    private int findBaseline(long now) {
+        if (mSize == 0) {
+            return -1;
+        }
+        int newest = (mHead - 1 + HISTORY) % HISTORY;
+        if (mWindow <= 0) {
+            return newest;
+        }
+        // walk back from the newest to the first baseline old enough
+        int slot = newest;
+        for (int i = 0; i < mSize; i++) {
+            slot = (mHead - 1 - i + HISTORY) % HISTORY;
+            if (now - mTimes[slot] >= mWindow) {
+                return slot;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * @return current - base per frequency, or null if a state is new or a
+     * counter went backwards
+     */
+    static CpuSnapshot delta(CpuSnapshot base, CpuSnapshot current) {
+        int count = current.getCount();
+        int[] freqs = new int[count];
+        long[] durations = new long[count];
+
+        // both are sorted highest frequency first, so walk them together
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            int freq = current.getFreq(i);
+            while (j < base.getCount() && base.getFreq(j) > freq) {
+                j++;
+            }
+            if (j == base.getCount() || base.getFreq(j) != freq) {
+                return null;
+            }
+            long duration = current.getDuration(i) - base.getDuration(j);
+            if (duration < 0) {
+                return null;
+            }
+            freqs[i] = freq;
+            durations[i] = duration;
+        }
+        return new CpuSnapshot(freqs, durations, count);
+    }
+
+    /**
+     * @return a snapshot with the same states, all at zero
+     */
+    private static CpuSnapshot zero(CpuSnapshot current) {
+        int count = current.getCount();
+        int[] freqs = new int[count];
+        for (int i = 0; i < count; i++) {
+            freqs[i] = current.getFreq(i);
+        }
+        return new CpuSnapshot(freqs, new long[count], count);
+    }
+}
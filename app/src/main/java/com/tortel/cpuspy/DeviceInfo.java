@@ -0,0 +1,206 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * What the device is: kernel version, SoC name, and the governor and
+ * available frequencies of each policy. None of it changes within a boot
+ * (short of someone switching governors by hand), so it is read once per
+ * boot, off the main thread, and kept in the StartupCache keyed by boot id
+ */
+public class DeviceInfo {
+    static final String KERNEL_VERSION_PATH = "/proc/version";
+    private static final String[] SOC_PATHS = {
+            "/sys/devices/soc0/machine",
+            "/proc/device-tree/model"
+    };
+    private static final String CPUINFO_PATH = "/proc/cpuinfo";
+    private static final String GOVERNOR_PATH = "/sys/devices/system/cpu/cpu#/cpufreq/scaling_governor";
+    private static final String AVAILABLE_FREQS_PATH =
+            "/sys/devices/system/cpu/cpu#/cpufreq/scaling_available_frequencies";
+
+    private final String mBootId;
+    private final String mKernelVersion;
+    private final String mSocName;
+    private final int[] mFirstCpus;
+    private final String[] mGovernors;
+    private final int[][] mAvailableFreqs;
+
+    /**
+     * @param firstCpus the first CPU of each policy
+     * @param governors each policy's governor, "" if unknown
+     * @param availableFreqs each policy's frequencies (kHz), lowest first
+     */
+    DeviceInfo(String bootId, String kernelVersion, String socName, int[] firstCpus,
+               String[] governors, int[][] availableFreqs) {
+        mBootId = bootId;
+        mKernelVersion = kernelVersion;
+        mSocName = socName;
+        mFirstCpus = firstCpus;
+        mGovernors = governors;
+        mAvailableFreqs = availableFreqs;
+    }
+
+    /**
+     * Read everything from sysfs and proc. Does a dozen or so small reads;
+     * never call it on the main thread
+     * @param policies the policies to read the governor and frequencies of
+     */
+    static DeviceInfo read(Sysfs sysfs, CpuPolicy[] policies) {
+        SysfsReader reader = new SysfsReader(256);
+        int[] firstCpus = new int[policies.length];
+        String[] governors = new String[policies.length];
+        int[][] availableFreqs = new int[policies.length][];
+        for (int p = 0; p < policies.length; p++) {
+            String cpu = String.valueOf(policies[p].getFirstCpu());
+            firstCpus[p] = policies[p].getFirstCpu();
+            governors[p] = readLine(sysfs, reader, GOVERNOR_PATH.replace("#", cpu));
+            availableFreqs[p] = readFreqs(sysfs, reader, AVAILABLE_FREQS_PATH.replace("#", cpu));
+        }
+        return new DeviceInfo(readBootId(sysfs), readLine(sysfs, reader, KERNEL_VERSION_PATH),
+                readSocName(sysfs, reader), firstCpus, governors, availableFreqs);
+    }
+
+    /**
+     * @return this boot's id, or "" where the kernel has none; then only
+     * counters going backwards reveal a reboot
+     */
+    static String readBootId(Sysfs sysfs) {
+        return readLine(sysfs, new SysfsReader(64), BaselineStore.BOOT_ID_PATH);
+    }
+
+    /** @return the boot the info was read in */
+    public String getBootId() {
+        return mBootId;
+    }
+
+    /** @return the kernel version string, "" if unknown */
+    public String getKernelVersion() {
+        return mKernelVersion;
+    }
+
+    /** @return the SoC (or board) name, "" if unknown */
+    public String getSocName() {
+        return mSocName;
+    }
+
+    /** @return the number of policies described */
+    public int getPolicyCount() {
+        return mFirstCpus.length;
+    }
+
+    /** @return the first CPU of the i'th policy */
+    public int getFirstCpu(int i) {
+        return mFirstCpus[i];
+    }
+
+    /** @return the index of the policy starting at the CPU, or -1 */
+    public int indexOf(int firstCpu) {
+        for (int i = 0; i < mFirstCpus.length; i++) {
+            if (mFirstCpus[i] == firstCpu) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** @return the i'th policy's governor, "" if unknown */
+    public String getGovernor(int i) {
+        return mGovernors[i];
+    }
+
+    /** @return the i'th policy's frequencies (kHz), lowest first; shared, never modify */
+    public int[] getAvailableFreqs(int i) {
+        return mAvailableFreqs[i];
+    }
+
+    /**
+     * @return true if the info covers exactly these policies
+     */
+    boolean matches(CpuPolicy[] policies) {
+        if (policies.length != mFirstCpus.length) {
+            return false;
+        }
+        for (int p = 0; p < policies.length; p++) {
+            if (policies[p].getFirstCpu() != mFirstCpus[p]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * SoCs name themselves in different places: the soc0 driver on
+     * Qualcomm, the device tree on most others, the cpuinfo Hardware line
+     * on older kernels
+     */
+    private static String readSocName(Sysfs sysfs, SysfsReader reader) {
+        for (String path : SOC_PATHS) {
+            String name = readLine(sysfs, reader, path);
+            if (name.length() > 0) {
+                return name;
+            }
+        }
+        try {
+            reader.read(sysfs.file(CPUINFO_PATH));
+        } catch (IOException e) {
+            return "";
+        }
+        while (!reader.atEnd()) {
+            String line = reader.nextLineString();
+            if (line.startsWith("Hardware")) {
+                int colon = line.indexOf(':');
+                return colon < 0 ? "" : line.substring(colon + 1).trim();
+            }
+        }
+        return "";
+    }
+
+    /** @return the first line of the file without trailing NULs, or "" */
+    private static String readLine(Sysfs sysfs, SysfsReader reader, String path) {
+        try {
+            reader.read(sysfs.file(path));
+        } catch (IOException e) {
+            return "";
+        }
+        String line = reader.nextLineString();
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == 0) {
+            end--;
+        }
+        return line.substring(0, end).trim();
+    }
+
+    /** @return the space separated frequencies in the file, sorted */
+    private static int[] readFreqs(Sysfs sysfs, SysfsReader reader, String path) {
+        try {
+            reader.read(sysfs.file(path));
+        } catch (IOException e) {
+            return new int[0];
+        }
+        int[] freqs = new int[16];
+        int count = 0;
+        while (true) {
+            reader.skipWhitespace();
+            long freq = reader.nextLong();
+            if (freq < 0) {
+                break;
+            }
+            if (count == freqs.length) {
+                freqs = Arrays.copyOf(freqs, count * 2);
+            }
+            freqs[count++] = (int) Math.min(freq, Integer.MAX_VALUE);
+        }
+        freqs = Arrays.copyOf(freqs, count);
+        Arrays.sort(freqs);
+        return freqs;
+    }
+}
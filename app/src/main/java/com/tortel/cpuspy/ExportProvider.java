@@ -0,0 +1,156 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * Serves exports as streams, so they can be shared from the UI or pulled
+ * without opening the app:
+ *
+ *   adb shell content read --uri content://com.tortel.cpuspy.export/history.csv
+ *
+ * Paths are "current" (one refresh of every policy), "history" (the
+ * background sampler's log) or "metrics" (what the app itself costs), with
+ * the extension choosing the Exporter format. The data is written into a
+ * pipe while it is read, so nothing is built up in memory or on disk
+ */
+public class ExportProvider extends ContentProvider
+        implements ContentProvider.PipeDataWriter<Integer> {
+    public static final String AUTHORITY = "com.tortel.cpuspy.export";
+    public static final String PATH_CURRENT = "current";
+    public static final String PATH_HISTORY = "history";
+    /** the app's own costs, see MonitorMetrics; csv and ndjson only */
+    public static final String PATH_METRICS = "metrics";
+
+    private static final String TAG = "ExportProvider";
+
+    /** @return the URI to export the path in the format */
+    public static Uri getUri(String path, int format) {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY)
+                .appendPath(path + "." + Exporter.getExtension(format)).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    /** @return the format the URI asks for, or -1 */
+    private static int getFormat(Uri uri) {
+        String name = uri.getLastPathSegment();
+        int dot = name != null ? name.lastIndexOf('.') : -1;
+        if (dot < 0) {
+            return -1;
+        }
+        String path = name.substring(0, dot);
+        int format = Exporter.formatOf(name.substring(dot + 1));
+        if (PATH_METRICS.equals(path)) {
+            return format == Exporter.FORMAT_BINARY ? -1 : format;
+        }
+        if (!PATH_CURRENT.equals(path) && !PATH_HISTORY.equals(path)) {
+            return -1;
+        }
+        return format;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        int format = getFormat(uri);
+        return format < 0 ? null : Exporter.getMimeType(format);
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        int format = getFormat(uri);
+        if (format < 0 || !"r".equals(mode)) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        return openPipeHelper(uri, Exporter.getMimeType(format), null, format, this);
+    }
+
+    /**
+     * Called on a worker thread; writes the export into the pipe
+     */
+    @Override
+    public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri,
+                                @NonNull String mimeType, @Nullable Bundle opts,
+                                @Nullable Integer format) {
+        CpuSpyApp app = (CpuSpyApp) getContext().getApplicationContext();
+        FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+        try {
+            Exporter exporter = new Exporter(format, out);
+            String name = uri.getLastPathSegment();
+            if (name.startsWith(PATH_HISTORY)) {
+                exporter.writeHistory(new HistoryReader(app.getHistoryDir()));
+            } else if (name.startsWith(PATH_METRICS)) {
+                exporter.writeMetrics(MonitorMetrics.INSTANCE);
+            } else {
+                CpuStateMonitor monitor = app.getCpuStateMonitor();
+                if (!monitor.hasLiveState()) {
+                    monitor.updateStates();
+                }
+                MonitorState state = monitor.getState();
+                CpuSnapshot[] snapshots = new CpuSnapshot[state.getPolicyCount()];
+                for (int p = 0; p < snapshots.length; p++) {
+                    snapshots[p] = state.getPolicySnapshot(p);
+                }
+                exporter.writeSample(System.currentTimeMillis(), snapshots);
+            }
+            exporter.finish();
+        } catch (IOException | CpuStateMonitor.CpuStateMonitorException e) {
+            // the reader went away, or nothing could be read
+            Log.e(TAG, "Problem exporting " + uri, e);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // already closed by the reader
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        return 0;
+    }
+}
@@ -0,0 +1,244 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams time-in-state samples out for offline analysis, one sample at a
+ * time through a fixed size buffer, so exporting days of history takes as
+ * little memory as exporting one refresh. Formats:
+ *
+ *   CSV     time,policy,freq,ticks with one row per policy and frequency
+ *   NDJSON  one line per sample:
+ *           {"time":T,"freqs":[[...],...],"ticks":[[...],...]}
+ *   binary  a single HistoryLog segment (varint deltas, checksummed)
+ *
+ * Times are wall clock milliseconds, ticks are 10 ms, frequencies kHz
+ * with 0 for deep sleep. The app's own costs (MonitorMetrics) export as
+ * metric,value rows in CSV or one flat object in NDJSON
+ */
+public class Exporter {
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_NDJSON = 1;
+    public static final int FORMAT_BINARY = 2;
+
+    private static final String[] EXTENSIONS = { "csv", "ndjson", "bin" };
+    private static final String[] MIME_TYPES = {
+            "text/csv", "application/x-ndjson", "application/octet-stream"
+    };
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int mFormat;
+    private final OutputStream mOut;
+    private final HistoryLog mBinary;
+    /** digits of the number being written, backwards */
+    private final byte[] mDigits = new byte[20];
+    private boolean mStarted;
+
+    /**
+     * @param out left open by finish
+     */
+    public Exporter(int format, OutputStream out) {
+        mFormat = format;
+        mOut = new BufferedOutputStream(out, BUFFER_SIZE);
+        mBinary = format == FORMAT_BINARY ? new HistoryLog(mOut) : null;
+    }
+
+    /** @return the format for a file extension, or -1 */
+    public static int formatOf(String extension) {
+        for (int i = 0; i < EXTENSIONS.length; i++) {
+            if (EXTENSIONS[i].equals(extension)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static String getExtension(int format) {
+        return EXTENSIONS[format];
+    }
+
+    public static String getMimeType(int format) {
+        return MIME_TYPES[format];
+    }
+
+    /**
+     * Export one sample of policy snapshots
+     * @param time wall clock time (ms)
+     */
+    public void writeSample(long time, CpuSnapshot[] snapshots) throws IOException {
+        if (!mStarted) {
+            mStarted = true;
+            if (mFormat == FORMAT_CSV) {
+                writeAscii("time,policy,freq,ticks\n");
+            }
+        }
+        switch (mFormat) {
+        case FORMAT_CSV:
+            for (int p = 0; p < snapshots.length; p++) {
+                CpuSnapshot snapshot = snapshots[p];
+                for (int i = 0; i < snapshot.getCount(); i++) {
+                    writeLong(time);
+                    mOut.write(',');
+                    writeLong(p);
+                    mOut.write(',');
+                    writeLong(snapshot.getFreq(i));
+                    mOut.write(',');
+                    writeLong(snapshot.getDuration(i));
+                    mOut.write('\n');
+                }
+            }
+            break;
+        case FORMAT_NDJSON:
+            writeAscii("{\"time\":");
+            writeLong(time);
+            writeAscii(",\"freqs\":[");
+            for (int p = 0; p < snapshots.length; p++) {
+                writeJsonArray(snapshots[p], p > 0, true);
+            }
+            writeAscii("],\"ticks\":[");
+            for (int p = 0; p < snapshots.length; p++) {
+                writeJsonArray(snapshots[p], p > 0, false);
+            }
+            writeAscii("]}\n");
+            break;
+        case FORMAT_BINARY:
+            mBinary.append(time, snapshots);
+            break;
+        }
+    }
+
+    /**
+     * Export every sample of a recorded history, oldest first
+     * @return the number of samples exported
+     */
+    public long writeHistory(HistoryReader reader) throws IOException {
+        long count = 0;
+        CpuSnapshot[] snapshots = new CpuSnapshot[0];
+        while (reader.next()) {
+            if (snapshots.length != reader.getPolicyCount()) {
+                snapshots = new CpuSnapshot[reader.getPolicyCount()];
+            }
+            for (int p = 0; p < snapshots.length; p++) {
+                snapshots[p] = reader.getSnapshot(p);
+            }
+            writeSample(reader.getTime(), snapshots);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Export what the monitor itself costs: the counters, then for every
+     * stage its sample count, mean, percentiles and maximum (us) and the
+     * estimated bytes allocated per run. Not available in binary
+     */
+    public void writeMetrics(MonitorMetrics metrics) throws IOException {
+        if (mFormat == FORMAT_BINARY) {
+            throw new IllegalStateException("Metrics have no binary format");
+        }
+        if (mFormat == FORMAT_CSV) {
+            writeAscii("metric,value\n");
+        } else {
+            mOut.write('{');
+        }
+        writeMetric("elapsed_ms", metrics.getElapsedMillis(), true);
+        writeMetric("busy_ppm", metrics.getBusyPpm(), false);
+        writeMetric("files_opened", metrics.getFilesOpened(), false);
+        writeMetric("bytes_read", metrics.getBytesRead(), false);
+        writeMetric("cpu_ppm", metrics.getCpuPpm(), false);
+        writeMetric("sampler_interval_ms", metrics.getSamplerInterval(), false);
+        for (int stage = 0; stage < MonitorMetrics.STAGE_COUNT; stage++) {
+            String name = MonitorMetrics.getStageName(stage);
+            LatencyHistogram histogram = metrics.getHistogram(stage);
+            writeMetric(name + ".count", histogram.getCount(), false);
+            writeMetric(name + ".mean_us", histogram.getMeanMicros(), false);
+            writeMetric(name + ".p50_us", histogram.getPercentileMicros(50), false);
+            writeMetric(name + ".p90_us", histogram.getPercentileMicros(90), false);
+            writeMetric(name + ".p99_us", histogram.getPercentileMicros(99), false);
+            writeMetric(name + ".max_us", histogram.getMaxMicros(), false);
+            if (metrics.tracksAllocations(stage)) {
+                writeMetric(name + ".alloc_bytes", metrics.getAllocatedPerRun(stage), false);
+            }
+        }
+        if (mFormat == FORMAT_NDJSON) {
+            writeAscii("}\n");
+        }
+    }
+
+    /** flush what is buffered; the stream is left open */
+    public void finish() throws IOException {
+        if (mBinary != null) {
+            mBinary.close();
+        }
+        mOut.flush();
+    }
+
+    /** write the snapshot's frequencies or ticks as a JSON array */
+    private void writeJsonArray(CpuSnapshot snapshot, boolean comma, boolean freqs)
+            throws IOException {
+        if (comma) {
+            mOut.write(',');
+        }
+        mOut.write('[');
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            if (i > 0) {
+                mOut.write(',');
+            }
+            writeLong(freqs ? snapshot.getFreq(i) : snapshot.getDuration(i));
+        }
+        mOut.write(']');
+    }
+
+    /** write one metric as a CSV row or a JSON member */
+    private void writeMetric(String name, long value, boolean first) throws IOException {
+        if (mFormat == FORMAT_CSV) {
+            writeAscii(name);
+            mOut.write(',');
+            writeLong(value);
+            mOut.write('\n');
+            return;
+        }
+        if (!first) {
+            mOut.write(',');
+        }
+        mOut.write('"');
+        writeAscii(name);
+        writeAscii("\":");
+        writeLong(value);
+    }
+
+    private void writeAscii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            mOut.write(text.charAt(i));
+        }
+    }
+
+    /** write a number in decimal without going through a String */
+    private void writeLong(long value) throws IOException {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                writeAscii(Long.toString(value));
+                return;
+            }
+            mOut.write('-');
+            value = -value;
+        }
+        int length = 0;
+        do {
+            mDigits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (length > 0) {
+            mOut.write(mDigits[--length]);
+        }
+    }
+}
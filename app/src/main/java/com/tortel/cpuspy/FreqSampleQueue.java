@@ -0,0 +1,90 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer queue of current frequency
+ * samples: a time plus one frequency per policy. The sampling thread offers,
+ * the UI thread drains; each side only writes its own counter, published
+ * with an ordered store, so neither ever blocks. When the consumer falls
+ * behind new samples are dropped rather than overwriting unread ones
+ */
+public class FreqSampleQueue {
+    private final int mMask;
+    private final int mPolicyCount;
+    private final long[] mTimes;
+    private final int[] mFreqs;
+
+    /** next slot to write, only advanced by the producer */
+    private final AtomicLong mHead = new AtomicLong();
+    /** next slot to read, only advanced by the consumer */
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of two
+     * @param policyCount frequencies per sample
+     */
+    public FreqSampleQueue(int capacity, int policyCount) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mMask = size - 1;
+        mPolicyCount = policyCount;
+        mTimes = new long[size];
+        mFreqs = new int[size * policyCount];
+    }
+
+    public int getPolicyCount() {
+        return mPolicyCount;
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * Producer side
+     * @return false if the queue was full and the sample was dropped
+     */
+    public boolean offer(long time, int[] freqs) {
+        long head = mHead.get();
+        if (head - mTail.get() > mMask) {
+            mDropped.incrementAndGet();
+            return false;
+        }
+        int slot = (int) head & mMask;
+        mTimes[slot] = time;
+        System.arraycopy(freqs, 0, mFreqs, slot * mPolicyCount, mPolicyCount);
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side: move up to max samples out of the queue, oldest first
+     * @param times receives the sample times
+     * @param freqs receives policyCount frequencies per sample
+     * @return the number of samples moved
+     */
+    public int drain(long[] times, int[] freqs, int max) {
+        long tail = mTail.get();
+        int count = (int) Math.min(max, mHead.get() - tail);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (tail + i) & mMask;
+            times[i] = mTimes[slot];
+            System.arraycopy(mFreqs, slot * mPolicyCount, freqs, i * mPolicyCount, mPolicyCount);
+        }
+        mTail.lazySet(tail + count);
+        return count;
+    }
+
+    /** @return how many samples were dropped because the queue was full */
+    public long getDropped() {
+        return mDropped.get();
+    }
+}
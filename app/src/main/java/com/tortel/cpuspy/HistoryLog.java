@@ -0,0 +1,341 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only on-disk history of cumulative time-in-state snapshots.
+ *
+ * The log is a directory of fixed size segments. Each segment starts with
+ * a magic number and a dictionary record listing every policy's
+ * frequencies; the sample records that follow only carry a varint time
+ * delta and one varint tick delta per frequency (both zigzag encoded), so
+ * a sample of an idle policy costs a byte per state. Every record is framed as
+ * [varint length][payload][crc32], which lets a torn write at the end of
+ * the last segment be found and cut off when the log is reopened.
+ *
+ * Segments are read back with HistoryReader
+ */
+public class HistoryLog {
+    static final int MAGIC = 0x43505548; // "CPUH"
+    static final String SUFFIX = ".seg";
+    static final int TYPE_DICTIONARY = 1;
+    static final int TYPE_SAMPLE = 2;
+    /** a varint length, one type byte and a crc */
+    private static final int MAX_FRAMING = 5 + 1 + 4;
+
+    private final File mDir;
+    private final long mSegmentSize;
+    private final long mRetention;
+
+    /** the export stream in stream mode, else null */
+    private final OutputStream mStream;
+    private OutputStream mOut;
+    private long mSegmentLength;
+    private long mSequence;
+
+    /** dictionary of the open segment */
+    private int[] mOffsets = new int[1];
+    private int[] mFreqs = new int[0];
+    /** previous sample in the open segment, for the deltas */
+    private long mLastTime;
+    private long[] mLastTicks = new long[0];
+    private boolean mHasSample;
+
+    private byte[] mBuffer = new byte[1024];
+    private int mLength;
+    private final CRC32 mCrc = new CRC32();
+
+    /**
+     * Open the log, cutting a truncated record off the last segment. New
+     * samples always go into a fresh segment
+     * @param segmentSize roll to a new segment once one reaches this size
+     * @param retention delete the oldest segments once all of them together
+     *                  go over this size
+     */
+    public HistoryLog(File dir, long segmentSize, long retention) throws IOException {
+        mDir = dir;
+        mSegmentSize = segmentSize;
+        mRetention = retention;
+        mStream = null;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+
+        File[] segments = listSegments(dir);
+        if (segments.length > 0) {
+            File last = segments[segments.length - 1];
+            recover(last);
+            mSequence = sequenceOf(last) + 1;
+        }
+    }
+
+    /**
+     * Write one unbounded segment to a stream instead of a directory: the
+     * compact export format. Save it with the segment suffix to read it
+     * back with HistoryReader. A change of frequencies starts a new
+     * dictionary in the same segment. The stream is not closed
+     */
+    HistoryLog(OutputStream out) {
+        mDir = null;
+        mSegmentSize = Long.MAX_VALUE;
+        mRetention = Long.MAX_VALUE;
+        mStream = out;
+    }
+
+    /**
+     * @return the segment files in the directory, oldest first
+     */
+    public static File[] listSegments(File dir) {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(sequenceOf(a), sequenceOf(b));
+            }
+        });
+        return files;
+    }
+
+    private static long sequenceOf(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Truncate the segment after its last complete, checksummed record
+     */
+    static long recover(File segment) throws IOException {
+        long valid = HistoryReader.validLength(segment);
+        if (valid < segment.length()) {
+            RandomAccessFile file = new RandomAccessFile(segment, "rw");
+            try {
+                file.setLength(valid);
+            } finally {
+                file.close();
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Append a sample of cumulative policy snapshots taken at the given wall
+     * clock time (ms). Rolls to a new segment when the segment is full or
+     * the set of frequencies changed
+     */
+    public synchronized void append(long time, CpuSnapshot[] snapshots) throws IOException {
+        if (mOut == null || !matchesDictionary(snapshots)) {
+            roll(snapshots);
+        }
+
+        // sample record: time delta and a tick delta per slot
+        boolean first = !mHasSample;
+        mLength = 0;
+        putByte(TYPE_SAMPLE);
+        putZigZag(mHasSample ? time - mLastTime : time);
+        for (int p = 0; p < snapshots.length; p++) {
+            CpuSnapshot snapshot = snapshots[p];
+            int offset = mOffsets[p];
+            for (int i = 0; i < snapshot.getCount(); i++) {
+                long ticks = snapshot.getDuration(i);
+                long delta = mHasSample ? ticks - mLastTicks[offset + i] : ticks;
+                putZigZag(delta);
+                mLastTicks[offset + i] = ticks;
+            }
+        }
+        mLastTime = time;
+        mHasSample = true;
+
+        if (!first && mSegmentLength + mLength + MAX_FRAMING > mSegmentSize) {
+            // full; start over in a new segment with absolute values
+            roll(snapshots);
+            append(time, snapshots);
+            return;
+        }
+        writeRecord();
+    }
+
+    /** flush and close the open segment; in stream mode only flush */
+    public synchronized void close() throws IOException {
+        if (mStream != null) {
+            mStream.flush();
+        } else if (mOut != null) {
+            mOut.close();
+            mOut = null;
+        }
+    }
+
+    private boolean matchesDictionary(CpuSnapshot[] snapshots) {
+        if (snapshots.length != mOffsets.length - 1) {
+            return false;
+        }
+        for (int p = 0; p < snapshots.length; p++) {
+            if (snapshots[p].getCount() != mOffsets[p + 1] - mOffsets[p]) {
+                return false;
+            }
+            for (int i = 0; i < snapshots[p].getCount(); i++) {
+                if (snapshots[p].getFreq(i) != mFreqs[mOffsets[p] + i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Close the current segment, apply the retention policy and start a new
+     * segment with a dictionary for the snapshots. In stream mode only the
+     * first call starts the segment; later ones just add a dictionary
+     */
+    private void roll(CpuSnapshot[] snapshots) throws IOException {
+        boolean header = mStream == null || mOut == null;
+        if (mStream == null) {
+            close();
+            enforceRetention();
+        }
+
+        mOffsets = new int[snapshots.length + 1];
+        int slots = 0;
+        for (int p = 0; p < snapshots.length; p++) {
+            mOffsets[p] = slots;
+            slots += snapshots[p].getCount();
+        }
+        mOffsets[snapshots.length] = slots;
+        mFreqs = new int[slots];
+        mLastTicks = new long[slots];
+        mHasSample = false;
+
+        if (mStream == null) {
+            File segment = new File(mDir, String.format("%012d", mSequence++) + SUFFIX);
+            mOut = new FileOutputStream(segment);
+            mSegmentLength = 0;
+        } else {
+            mOut = mStream;
+        }
+
+        if (header) {
+            mLength = 0;
+            putInt(MAGIC);
+            mOut.write(mBuffer, 0, mLength);
+            mSegmentLength += mLength;
+        }
+
+        // dictionary record: the frequencies of every policy
+        mLength = 0;
+        putByte(TYPE_DICTIONARY);
+        putVarLong(snapshots.length);
+        for (int p = 0; p < snapshots.length; p++) {
+            putVarLong(snapshots[p].getCount());
+            for (int i = 0; i < snapshots[p].getCount(); i++) {
+                mFreqs[mOffsets[p] + i] = snapshots[p].getFreq(i);
+                putVarLong(snapshots[p].getFreq(i));
+            }
+        }
+        writeRecord();
+    }
+
+    /**
+     * Delete the oldest segments until the log fits the retention size
+     */
+    private void enforceRetention() {
+        File[] segments = listSegments(mDir);
+        long total = 0;
+        for (File segment : segments) {
+            total += segment.length();
+        }
+        for (int i = 0; i < segments.length && total > mRetention; i++) {
+            total -= segments[i].length();
+            segments[i].delete();
+        }
+    }
+
+    /**
+     * Frame the payload in mBuffer with its length and checksum and write
+     * it out in one go
+     */
+    private void writeRecord() throws IOException {
+        int payload = mLength;
+        mCrc.reset();
+        mCrc.update(mBuffer, 0, payload);
+        int crc = (int) mCrc.getValue();
+
+        // shift the payload right to make room for the length prefix
+        int prefix = varLongSize(payload);
+        ensureCapacity(prefix + payload + 4);
+        System.arraycopy(mBuffer, 0, mBuffer, prefix, payload);
+        mLength = 0;
+        putVarLong(payload);
+        mLength = prefix + payload;
+        putInt(crc);
+
+        mOut.write(mBuffer, 0, mLength);
+        mSegmentLength += mLength;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(size, mBuffer.length * 2));
+        }
+    }
+
+    private void putByte(int b) {
+        ensureCapacity(mLength + 1);
+        mBuffer[mLength++] = (byte) b;
+    }
+
+    private void putInt(int value) {
+        ensureCapacity(mLength + 4);
+        mBuffer[mLength++] = (byte) (value >>> 24);
+        mBuffer[mLength++] = (byte) (value >>> 16);
+        mBuffer[mLength++] = (byte) (value >>> 8);
+        mBuffer[mLength++] = (byte) value;
+    }
+
+    private void putVarLong(long value) {
+        ensureCapacity(mLength + 10);
+        while ((value & ~0x7FL) != 0) {
+            mBuffer[mLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mLength++] = (byte) value;
+    }
+
+    private void putZigZag(long value) {
+        putVarLong((value << 1) ^ (value >> 63));
+    }
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
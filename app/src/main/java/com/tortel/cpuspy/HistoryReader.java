@@ -0,0 +1,264 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Forward-only cursor over the samples in a HistoryLog directory. Segments
+ * are memory mapped one at a time, so scanning weeks of history only keeps
+ * the decoded current sample on the heap. A record that fails its checksum
+ * ends the segment it is in
+ */
+public class HistoryReader {
+    private final File[] mSegments;
+    private int mSegment = -1;
+    private MappedByteBuffer mMap;
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mScratch = new byte[256];
+
+    private int[] mOffsets = new int[1];
+    private int[] mFreqs = new int[0];
+    private long[] mTicks = new long[0];
+    private long mTime;
+    private boolean mHasSample;
+
+    public HistoryReader(File dir) {
+        mSegments = HistoryLog.listSegments(dir);
+    }
+
+    /**
+     * Move to the next sample, crossing into later segments as needed
+     * @return false once there are no more samples
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (mMap == null && !openNextSegment()) {
+                return false;
+            }
+            int type = nextRecord();
+            if (type == HistoryLog.TYPE_SAMPLE) {
+                return true;
+            }
+            if (type < 0) {
+                mMap = null;
+            }
+        }
+    }
+
+    /** @return the wall clock time (ms) of the current sample */
+    public long getTime() {
+        return mTime;
+    }
+
+    /** @return the number of policies in the current sample */
+    public int getPolicyCount() {
+        return mOffsets.length - 1;
+    }
+
+    /** @return the number of frequencies of the policy */
+    public int getStateCount(int policy) {
+        return mOffsets[policy + 1] - mOffsets[policy];
+    }
+
+    /** @return the frequency (kHz) of the policy's i'th state */
+    public int getFreq(int policy, int i) {
+        return mFreqs[mOffsets[policy] + i];
+    }
+
+    /** @return the cumulative ticks of the policy's i'th state */
+    public long getTicks(int policy, int i) {
+        return mTicks[mOffsets[policy] + i];
+    }
+
+    /**
+     * @return the current sample as a snapshot of the policy; allocates
+     */
+    public CpuSnapshot getSnapshot(int policy) {
+        int from = mOffsets[policy];
+        int to = mOffsets[policy + 1];
+        return new CpuSnapshot(Arrays.copyOfRange(mFreqs, from, to),
+                Arrays.copyOfRange(mTicks, from, to), to - from);
+    }
+
+    private boolean openNextSegment() throws IOException {
+        while (++mSegment < mSegments.length) {
+            MappedByteBuffer map = map(mSegments[mSegment]);
+            if (map.remaining() >= 4 && map.getInt() == HistoryLog.MAGIC) {
+                mMap = map;
+                mHasSample = false;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MappedByteBuffer map(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // the mapping stays valid after the file is closed
+            file.close();
+        }
+    }
+
+    /**
+     * Decode the next record of the mapped segment
+     * @return the record type, or -1 at the end of the segment or on a
+     * damaged record
+     */
+    private int nextRecord() {
+        MappedByteBuffer map = mMap;
+        int start = map.position();
+        int length = checkRecord(map, mCrc, mScratch);
+        if (length < 0) {
+            return -1;
+        }
+
+        // checkRecord left the position at the start of the payload
+        int type = map.get();
+        if (type == HistoryLog.TYPE_DICTIONARY) {
+            readDictionary(map);
+        } else if (type == HistoryLog.TYPE_SAMPLE) {
+            readSample(map);
+        }
+        map.position(start);
+        skipRecord(map);
+        return type;
+    }
+
+    private void readDictionary(MappedByteBuffer map) {
+        int policies = (int) getVarLong(map);
+        mOffsets = new int[policies + 1];
+        int[] freqs = new int[64];
+        int slots = 0;
+        for (int p = 0; p < policies; p++) {
+            mOffsets[p] = slots;
+            int count = (int) getVarLong(map);
+            for (int i = 0; i < count; i++) {
+                if (slots == freqs.length) {
+                    freqs = Arrays.copyOf(freqs, slots * 2);
+                }
+                freqs[slots++] = (int) getVarLong(map);
+            }
+        }
+        mOffsets[policies] = slots;
+        mFreqs = Arrays.copyOf(freqs, slots);
+        mTicks = new long[slots];
+        mHasSample = false;
+    }
+
+    private void readSample(MappedByteBuffer map) {
+        long time = getZigZag(map);
+        mTime = mHasSample ? mTime + time : time;
+        for (int i = 0; i < mTicks.length; i++) {
+            long delta = getZigZag(map);
+            mTicks[i] = mHasSample ? mTicks[i] + delta : delta;
+        }
+        mHasSample = true;
+    }
+
+    /**
+     * @return the length of the segment up to the end of its last intact
+     * record
+     */
+    static long validLength(File segment) throws IOException {
+        MappedByteBuffer map = map(segment);
+        if (map.remaining() < 4 || map.getInt() != HistoryLog.MAGIC) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        byte[] scratch = new byte[256];
+        while (true) {
+            int end = map.position();
+            if (checkRecord(map, crc, scratch) < 0) {
+                return end;
+            }
+            map.position(end);
+            skipRecord(map);
+        }
+    }
+
+    /**
+     * Check the framing and checksum of the record at the buffer position
+     * @return the payload length with the position at the payload start, or
+     * -1 if the record is incomplete or damaged
+     */
+    private static int checkRecord(MappedByteBuffer map, CRC32 crc, byte[] scratch) {
+        if (!map.hasRemaining()) {
+            return -1;
+        }
+        long length = getVarLongChecked(map);
+        if (length < 1 || length > map.remaining() - 4) {
+            return -1;
+        }
+        int payload = map.position();
+        crc.reset();
+        int left = (int) length;
+        while (left > 0) {
+            int n = Math.min(left, scratch.length);
+            map.get(scratch, 0, n);
+            crc.update(scratch, 0, n);
+            left -= n;
+        }
+        int expected = map.getInt();
+        if ((int) crc.getValue() != expected) {
+            return -1;
+        }
+        map.position(payload);
+        return (int) length;
+    }
+
+    /** move the position past a record already known to be intact */
+    private static void skipRecord(MappedByteBuffer map) {
+        long length = getVarLong(map);
+        map.position(map.position() + (int) length + 4);
+    }
+
+    private static long getVarLong(MappedByteBuffer map) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = map.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static long getZigZag(MappedByteBuffer map) {
+        long zigzag = getVarLong(map);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * @return the varint at the position, or -1 if it runs off the end of
+     * the buffer or is too long
+     */
+    private static long getVarLongChecked(MappedByteBuffer map) {
+        long value = 0;
+        for (int shift = 0; shift < 64 && map.hasRemaining(); shift += 7) {
+            byte b = map.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,163 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.tortel.cpuspy.CpuStateMonitor.CpuStateMonitorException;
+
+/**
+ * Watches for CPUs going on and offline and updates only the affected
+ * policies of the CpuStateMonitor. inotify is used where the kernel raises
+ * it for the online list or the cpufreq policy directories; since most
+ * kernels do not notify sysfs attribute changes, the online list is also
+ * polled, quickly until inotify has proven to work and slowly after that
+ */
+public class HotplugWatcher {
+    private static final String TAG = "CpuSpy";
+
+    /** poll interval (ms) while inotify has not delivered anything */
+    private static final long POLL_INTERVAL = 1000;
+    /** poll interval (ms) once inotify is known to work, as a safety net */
+    private static final long SLOW_POLL_INTERVAL = 10 * 1000;
+    private static final String CPU_DIR = "/sys/devices/system/cpu";
+    private static final String ONLINE_NAME = "online";
+
+    /** called on the main thread after CPUs went on or offline */
+    public interface Listener {
+        /**
+         * @param cpus the CPUs whose online state changed, or null if the
+         *             policies were rediscovered and every page is stale
+         */
+        void onCpusChanged(MonitorState state, int[] cpus);
+    }
+
+    private final CpuStateMonitor mMonitor;
+    private final Sysfs mSysfs;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    private HandlerThread mThread;
+    private volatile Handler mHandler;
+    private FileObserver mOnlineObserver;
+    private FileObserver mPolicyObserver;
+    private volatile boolean mInotifyWorks;
+
+    private final Runnable mPollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            check(false);
+            Handler handler = mHandler;
+            if (handler != null) {
+                handler.postDelayed(this, mInotifyWorks ? SLOW_POLL_INTERVAL : POLL_INTERVAL);
+            }
+        }
+    };
+
+    private final Runnable mPolicyCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            check(true);
+        }
+    };
+
+    public HotplugWatcher(CpuStateMonitor monitor, Sysfs sysfs) {
+        mMonitor = monitor;
+        mSysfs = sysfs;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /** start watching; call while the states are on screen */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread("CpuSpyHotplug", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        final Handler handler = new Handler(mThread.getLooper());
+        mHandler = handler;
+
+        mOnlineObserver = new FileObserver(mSysfs.file(CPU_DIR).getPath(),
+                FileObserver.MODIFY | FileObserver.ATTRIB) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (ONLINE_NAME.equals(path)) {
+                    mInotifyWorks = true;
+                    // check now; the poll reschedules itself from here
+                    handler.removeCallbacks(mPollRunnable);
+                    handler.post(mPollRunnable);
+                }
+            }
+        };
+        mPolicyObserver = new FileObserver(mSysfs.file(CpuStateMonitor.POLICY_DIR).getPath(),
+                FileObserver.CREATE | FileObserver.DELETE) {
+            @Override
+            public void onEvent(int event, String path) {
+                handler.removeCallbacks(mPolicyCheckRunnable);
+                handler.post(mPolicyCheckRunnable);
+            }
+        };
+        mOnlineObserver.startWatching();
+        mPolicyObserver.startWatching();
+        handler.post(mPollRunnable);
+    }
+
+    /** stop watching and let the thread go */
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mOnlineObserver.stopWatching();
+        mPolicyObserver.stopWatching();
+        mOnlineObserver = null;
+        mPolicyObserver = null;
+        mHandler.removeCallbacksAndMessages(null);
+        mThread.quitSafely();
+        mThread = null;
+        mHandler = null;
+    }
+
+    /**
+     * Update the monitor's topology and tell the listeners what changed
+     */
+    private void check(boolean checkPolicies) {
+        final int[] cpus;
+        try {
+            cpus = mMonitor.updateTopology(checkPolicies);
+        } catch (CpuStateMonitorException e) {
+            Log.e(TAG, "Problem checking CPU hotplug", e);
+            return;
+        }
+        if (cpus != null && cpus.length == 0) {
+            return;
+        }
+        final MonitorState state = mMonitor.getState();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onCpusChanged(state, cpus);
+                }
+            }
+        });
+    }
+}
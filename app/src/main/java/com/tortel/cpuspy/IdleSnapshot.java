@@ -0,0 +1,80 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+/**
+ * Immutable cpuidle residency snapshot for one CPU: for each idle state (WFI,
+ * retention, power collapse, ...) the time spent in it and how often it was
+ * entered, in one primitive array ordered shallowest first, as the kernel
+ * numbers them
+ */
+public class IdleSnapshot {
+    /** snapshot for CPUs without cpuidle */
+    public static final IdleSnapshot EMPTY = new IdleSnapshot(new String[0], new long[0], 0);
+
+    private final String[] mNames;
+    /* the times, then the usages */
+    private final long[] mCounters;
+    private final long mElapsed;
+
+    /**
+     * @param names the state names, shared between snapshots
+     * @param counters the time (microseconds) in each state, then how many
+     *                 times each state was entered; owned by the snapshot
+     * @param elapsed the wall time (microseconds) the times cover
+     */
+    IdleSnapshot(String[] names, long[] counters, long elapsed) {
+        mNames = names;
+        mCounters = counters;
+        mElapsed = elapsed;
+    }
+
+    /** @return the number of idle states */
+    public int getCount() {
+        return mNames.length;
+    }
+
+    /** @return the kernel's name for state i, such as "WFI" or "C1" */
+    public String getName(int i) {
+        return mNames[i];
+    }
+
+    /** @return the time (microseconds) spent in state i */
+    public long getTime(int i) {
+        return mCounters[i];
+    }
+
+    /** @return how many times state i was entered */
+    public long getUsage(int i) {
+        return mCounters[mNames.length + i];
+    }
+
+    /** @return the wall time (microseconds) the snapshot covers */
+    public long getElapsed() {
+        return mElapsed;
+    }
+
+    /**
+     * @return the difference from an earlier snapshot of the same CPU, or
+     * EMPTY if there is no interval to show: the CPU was offline or had
+     * other states before (since boot totals are not an interval), or a
+     * counter went backwards
+     */
+    IdleSnapshot since(IdleSnapshot base) {
+        if (base.mNames != mNames || base.mElapsed >= mElapsed) {
+            return EMPTY;
+        }
+        long[] counters = new long[mCounters.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = mCounters[i] - base.mCounters[i];
+            if (counters[i] < 0) {
+                return EMPTY;
+            }
+        }
+        return new IdleSnapshot(mNames, counters, mElapsed - base.mElapsed);
+    }
+}
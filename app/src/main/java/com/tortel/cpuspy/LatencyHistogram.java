@@ -0,0 +1,123 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size latency histogram in the manner of HdrHistogram: values are
+ * kept in microseconds, exact below 32 us, and above that in buckets of
+ * 1/16th of their power of two, so every percentile is within about 6% of
+ * the true value from 1 us up to the 2^37 us (38 hours) cap. The bucket
+ * counts are allocated once; recording is a few shifts and atomic adds.
+ *
+ * Any number of threads record and read at once without losing samples.
+ * Readers see counts that may be a sample behind, which is fine for a
+ * diagnostics display
+ */
+public class LatencyHistogram {
+    /** values below this have a bucket each */
+    private static final int SUB_BUCKETS = 32;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int SUB_BITS = 5;
+    private static final long MAX_VALUE = (1L << 37) - 1;
+    private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+    /** added to last, so a reader seeing it also sees the bucket */
+    private final AtomicLong mCount = new AtomicLong();
+
+    /** record a latency in nanoseconds */
+    public void record(long nanos) {
+        long micros = Math.min(Math.max(0, nanos / 1000), MAX_VALUE);
+        mCounts.incrementAndGet(indexOf(micros));
+        mSum.addAndGet(micros);
+        long max = mMax.get();
+        while (micros > max && !mMax.compareAndSet(max, micros)) {
+            max = mMax.get();
+        }
+        mCount.incrementAndGet();
+    }
+
+    /**
+     * Forget every sample. A sample recorded meanwhile may be half kept
+     */
+    public void reset() {
+        mCount.set(0);
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /** @return the number of samples recorded */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /** @return the sum of every sample (us) */
+    public long getTotalMicros() {
+        return mSum.get();
+    }
+
+    /** @return the largest sample (us), exact */
+    public long getMaxMicros() {
+        return mMax.get();
+    }
+
+    /** @return the mean sample (us), 0 if none */
+    public long getMeanMicros() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value (us) equivalent to the percentile, never
+     * more than the largest sample; 0 if there are no samples
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /** @return the bucket holding the value (us) */
+    static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        // how far the value is shifted so its top SUB_BITS bits remain
+        int shift = 64 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+        return (shift + 1) * HALF + (int) (micros >>> shift) - HALF;
+    }
+
+    /** @return the largest value (us) that lands in the bucket */
+    static long highestOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long lowest = (long) (index % HALF + HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
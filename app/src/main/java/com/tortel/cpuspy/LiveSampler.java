@@ -0,0 +1,153 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * Samples the current frequency of every policy many times a second into a
+ * FreqSampleQueue, for the UI to drain once per frame. It only borrows the
+ * policies of the CpuStateMonitor's last published state and never takes
+ * its lock, so it runs alongside the normal time-in-state refreshes.
+ *
+ * Every start runs a new Session on its own thread, with its own reader,
+ * buffer and queue. A session that was stopped may still be finishing a
+ * sample while the next one starts; it never reschedules itself, and what
+ * it queues lands in its own queue, which is no longer published
+ */
+public class LiveSampler {
+    public static final int DEFAULT_RATE = 50;
+    public static final int MAX_RATE = 100;
+    /** a little over a second of samples at the highest rate */
+    private static final int QUEUE_CAPACITY = 128;
+
+    private final CpuStateMonitor mMonitor;
+    private final Sysfs mSysfs;
+
+    /** the running session, or null; guarded by this */
+    private Session mSession;
+    private volatile long mPeriod;
+    /** the running session's queue */
+    private volatile FreqSampleQueue mQueue = new FreqSampleQueue(QUEUE_CAPACITY, 0);
+
+    public LiveSampler(CpuStateMonitor monitor, Sysfs sysfs) {
+        mMonitor = monitor;
+        mSysfs = sysfs;
+    }
+
+    /**
+     * @return the queue to drain; check every time, since it is replaced
+     * when the policies change
+     */
+    public FreqSampleQueue getQueue() {
+        return mQueue;
+    }
+
+    public synchronized boolean isRunning() {
+        return mSession != null;
+    }
+
+    /**
+     * Start sampling, or change the rate if already running
+     * @param rate samples per second, at most MAX_RATE
+     */
+    public synchronized void start(int rate) {
+        mPeriod = 1000 / Math.max(1, Math.min(MAX_RATE, rate));
+        if (mSession != null) {
+            return;
+        }
+        mSession = new Session();
+        mQueue = mSession.mQueue;
+        mSession.start();
+    }
+
+    /** stop sampling and close the files */
+    public synchronized void stop() {
+        if (mSession == null) {
+            return;
+        }
+        mSession.stop();
+        mSession = null;
+    }
+
+    /** publish a session's new queue, unless the session was stopped */
+    private synchronized void publish(Session session, FreqSampleQueue queue) {
+        if (mSession == session) {
+            mQueue = queue;
+        }
+    }
+
+    /**
+     * One run of the sampler, from start to stop. Everything but the
+     * stopped flag is only touched on its thread
+     */
+    private class Session implements Runnable {
+        private final HandlerThread mThread = new HandlerThread("CpuSpyLive",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        private final CurFreqReader mReader = new CurFreqReader(mSysfs);
+        private Handler mHandler;
+        private volatile boolean mStopped;
+        private int[] mFreqs = new int[0];
+        private FreqSampleQueue mQueue = new FreqSampleQueue(QUEUE_CAPACITY, 0);
+        private long mNext;
+
+        void start() {
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+            mNext = SystemClock.uptimeMillis();
+            mHandler.post(this);
+        }
+
+        void stop() {
+            mStopped = true;
+            mHandler.removeCallbacks(this);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mReader.close();
+                }
+            });
+            mThread.quitSafely();
+        }
+
+        @Override
+        public void run() {
+            if (mStopped) {
+                return;
+            }
+            sample();
+            if (!mStopped) {
+                // schedule from the previous deadline so the rate does not drift
+                mNext = Math.max(mNext + mPeriod, SystemClock.uptimeMillis());
+                mHandler.postAtTime(this, mNext);
+            }
+        }
+
+        /**
+         * Read every policy's current frequency and queue the sample
+         */
+        private void sample() {
+            MonitorState state = mMonitor.getState();
+            mReader.setPolicies(state.getPolicies());
+            int policies = mReader.getPolicyCount();
+            if (mQueue.getPolicyCount() != policies) {
+                mFreqs = new int[policies];
+                mQueue = new FreqSampleQueue(QUEUE_CAPACITY, policies);
+                publish(this, mQueue);
+            }
+            if (policies == 0) {
+                return;
+            }
+            mReader.read(mFreqs);
+            mQueue.offer(SystemClock.elapsedRealtime(), mFreqs);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+/**
+ * The clocks the monitors need, so they can run off Android
+ */
+public interface MonitorClock {
+    /** @return ms since boot, including deep sleep */
+    long elapsedRealtime();
+
+    /** @return ms since boot, not counting deep sleep */
+    long uptimeMillis();
+}
@@ -0,0 +1,201 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * What CPU Spy itself costs the device it watches: a latency histogram per
+ * stage of a refresh and of drawing it, the sysfs files opened and bytes
+ * read, an estimate of the heap allocated per stage, and the CPU time of
+ * the whole process from /proc/self/stat. Everything is allocated up
+ * front; a stage costs two nanoTime calls (and two heap reads where
+ * allocations are tracked) and a few atomic adds, a file read one atomic
+ * add, so the instrumentation stays far below the cost of what it measures.
+ *
+ * The monitors of the UI, the background sampler and the export provider
+ * all record here at once, so begin returns the start of the stage and the
+ * caller hands it back to end; stages may nest. The allocation estimate
+ * is the growth of the used heap over the stage, so it includes what other
+ * threads allocated meanwhile, and stages during which a collection shrank
+ * the heap are left out of it
+ */
+public class MonitorMetrics {
+    /** the whole of CpuStateMonitor.updateStates */
+    public static final int STAGE_REFRESH = 0;
+    /** reading and parsing every time_in_state file */
+    public static final int STAGE_PARSE = 1;
+    /** reading and parsing the transition tables */
+    public static final int STAGE_TRANSITIONS = 2;
+    /** StateFragment.updateView, on the main thread */
+    public static final int STAGE_VIEW = 3;
+    public static final int STAGE_COUNT = 4;
+
+    private static final String[] STAGE_NAMES = { "refresh", "parse", "transitions", "view" };
+    /** stages whose heap growth is tracked; the others run inside one */
+    private static final boolean[] TRACK_ALLOCATIONS = { true, false, false, true };
+
+    /** the metrics of this process */
+    public static final MonitorMetrics INSTANCE = new MonitorMetrics();
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGE_COUNT];
+    private final AtomicLongArray mAllocated = new AtomicLongArray(STAGE_COUNT);
+    private final AtomicLongArray mAllocationSamples = new AtomicLongArray(STAGE_COUNT);
+    /** the used heap at the start of each stage, per thread */
+    private final ThreadLocal<long[]> mHeapStarts = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[STAGE_COUNT];
+        }
+    };
+    private final AtomicLong mFilesOpened = new AtomicLong();
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final Runtime mRuntime = Runtime.getRuntime();
+    private volatile long mSince = System.nanoTime();
+    /** guarded by this */
+    private final ProcessCpuTime mCpuTime = new ProcessCpuTime(Sysfs.DEFAULT);
+    /** the process CPU time (ms) at the last reset; 0 counts from start up */
+    private volatile long mCpuSince;
+    private volatile long mSamplerInterval;
+
+    MonitorMetrics() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /** @return a short lower case name for the stage */
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Start timing a stage on this thread
+     * @return the start, to pass to end
+     */
+    public long begin(int stage) {
+        if (TRACK_ALLOCATIONS[stage]) {
+            mHeapStarts.get()[stage] = mRuntime.totalMemory() - mRuntime.freeMemory();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Stop timing a stage begun on this thread
+     * @param start what begin returned
+     */
+    public void end(int stage, long start) {
+        mHistograms[stage].record(System.nanoTime() - start);
+        if (TRACK_ALLOCATIONS[stage]) {
+            long allocated = mRuntime.totalMemory() - mRuntime.freeMemory()
+                    - mHeapStarts.get()[stage];
+            if (allocated >= 0) {
+                mAllocated.addAndGet(stage, allocated);
+                mAllocationSamples.incrementAndGet(stage);
+            }
+        }
+    }
+
+    /** count a file opened and read whole */
+    void fileRead(int bytes) {
+        mFilesOpened.incrementAndGet();
+        mBytesRead.addAndGet(bytes);
+    }
+
+    /** count a file opened to be re-read in place */
+    void fileOpened() {
+        mFilesOpened.incrementAndGet();
+    }
+
+    /** count bytes re-read from a file kept open */
+    void bytesRead(int bytes) {
+        mBytesRead.addAndGet(bytes);
+    }
+
+    /** @return the stage's latencies; read only */
+    public LatencyHistogram getHistogram(int stage) {
+        return mHistograms[stage];
+    }
+
+    /** @return true if the stage's allocations are estimated */
+    public boolean tracksAllocations(int stage) {
+        return TRACK_ALLOCATIONS[stage];
+    }
+
+    /** @return the mean heap growth (bytes) per run of the stage, or 0 */
+    public long getAllocatedPerRun(int stage) {
+        long samples = mAllocationSamples.get(stage);
+        return samples == 0 ? 0 : mAllocated.get(stage) / samples;
+    }
+
+    public long getFilesOpened() {
+        return mFilesOpened.get();
+    }
+
+    public long getBytesRead() {
+        return mBytesRead.get();
+    }
+
+    /** @return how long (ms) the metrics have been collecting */
+    public long getElapsedMillis() {
+        return (System.nanoTime() - mSince) / 1000000;
+    }
+
+    /**
+     * @return the share of the wall time spent refreshing and drawing, the
+     * observer effect of the app, in parts per million
+     */
+    public long getBusyPpm() {
+        long elapsed = (System.nanoTime() - mSince) / 1000;
+        long busy = mHistograms[STAGE_REFRESH].getTotalMicros()
+                + mHistograms[STAGE_VIEW].getTotalMicros();
+        return elapsed <= 0 ? 0 : busy * 1000000 / elapsed;
+    }
+
+    /** @return the CPU time (ms) the whole process used, or -1 */
+    public synchronized long getProcessCpuMillis() {
+        return mCpuTime.read();
+    }
+
+    /**
+     * @return the share of one CPU the whole process used since the metrics
+     * were reset, in parts per million. Before the first reset this
+     * includes starting up
+     */
+    public long getCpuPpm() {
+        long cpu = getProcessCpuMillis();
+        long elapsed = getElapsedMillis();
+        return cpu < 0 || elapsed <= 0 ? 0 : Math.max(0, cpu - mCpuSince) * 1000000 / elapsed;
+    }
+
+    /** note the background sampler's current delay (ms), 0 when stopped */
+    void setSamplerInterval(long interval) {
+        mSamplerInterval = interval;
+    }
+
+    /** @return the background sampler's current delay (ms), 0 when stopped */
+    public long getSamplerInterval() {
+        return mSamplerInterval;
+    }
+
+    /**
+     * Start over. Stages running meanwhile may be half counted
+     */
+    public void reset() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mHistograms[i].reset();
+            mAllocated.set(i, 0);
+            mAllocationSamples.set(i, 0);
+        }
+        mFilesOpened.set(0);
+        mBytesRead.set(0);
+        mCpuSince = Math.max(0, getProcessCpuMillis());
+        mSince = System.nanoTime();
+    }
+}
@@ -0,0 +1,190 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+/**
+ * Everything one refresh of the CpuStateMonitor produced. It is never
+ * modified after being published, so the UI can read it without locking
+ * while the next refresh is being read
+ */
+public class MonitorState {
+    /** state published before the first refresh */
+    static final MonitorState EMPTY = new MonitorState(CpuTopology.EMPTY, new CpuPolicy[0], new int[0],
+            new CpuSnapshot[0], new CpuSnapshot[0], new boolean[0],
+            new IdleSnapshot[0], new IdleSnapshot[0],
+            new TransTable[0], new TransTable[0], new ThrottleState[0], 0, 0);
+
+    private final CpuTopology mTopology;
+    private final CpuPolicy[] mPolicies;
+    private final int[] mCpuPolicy;
+    private final CpuSnapshot[] mCumulative;
+    private final CpuSnapshot[] mDeltas;
+    /** policies whose counters went backwards, so their deltas are empty */
+    private final boolean[] mResets;
+    private final IdleSnapshot[] mIdle;
+    private final IdleSnapshot[] mIdleDeltas;
+    private final TransTable[] mTrans;
+    private final TransTable[] mTransDeltas;
+    private final ThrottleState[] mThrottle;
+    private final long mTime;
+    private final long mIntervalMillis;
+
+    MonitorState(CpuTopology topology, CpuPolicy[] policies, int[] cpuPolicy,
+                 CpuSnapshot[] cumulative, CpuSnapshot[] deltas, boolean[] resets,
+                 IdleSnapshot[] idle, IdleSnapshot[] idleDeltas,
+                 TransTable[] trans, TransTable[] transDeltas, ThrottleState[] throttle,
+                 long time, long intervalMillis) {
+        mTopology = topology;
+        mPolicies = policies;
+        mCpuPolicy = cpuPolicy;
+        mCumulative = cumulative;
+        mDeltas = deltas;
+        mResets = resets;
+        mIdle = idle;
+        mIdleDeltas = idleDeltas;
+        mTrans = trans;
+        mTransDeltas = transDeltas;
+        mThrottle = throttle;
+        mTime = time;
+        mIntervalMillis = intervalMillis;
+    }
+
+    public int getCpuCount() {
+        return mTopology.getCpuCount();
+    }
+
+    /** @return which CPUs exist and were online at the refresh */
+    public CpuTopology getTopology() {
+        return mTopology;
+    }
+
+    /** @return the number of cpufreq policies (clusters) */
+    public int getPolicyCount() {
+        return mPolicies.length;
+    }
+
+    /** @return the i'th policy, ordered by their first CPU */
+    public CpuPolicy getPolicy(int i) {
+        return mPolicies[i];
+    }
+
+    /** @return the policies themselves; shared, never modify */
+    CpuPolicy[] getPolicies() {
+        return mPolicies;
+    }
+
+    /** @return the index of the policy the CPU belongs to */
+    public int getPolicyIndex(int cpu) {
+        return mCpuPolicy[cpu];
+    }
+
+    /**
+     * @param mode CpuStateMonitor.MODE_CUMULATIVE or MODE_INTERVAL
+     * @return the CPU's snapshot for the mode
+     */
+    public CpuSnapshot getSnapshot(int cpu, int mode) {
+        if (mode == CpuStateMonitor.MODE_INTERVAL) {
+            return mDeltas[mCpuPolicy[cpu]];
+        }
+        return mCumulative[mCpuPolicy[cpu]];
+    }
+
+    /**
+     * @param mode CpuStateMonitor.MODE_CUMULATIVE or MODE_INTERVAL; the
+     *             interval for idle states is since the previous refresh
+     * @return the CPU's idle state residency for the mode
+     */
+    public IdleSnapshot getIdleSnapshot(int cpu, int mode) {
+        if (cpu >= mIdle.length) {
+            return IdleSnapshot.EMPTY;
+        }
+        if (mode == CpuStateMonitor.MODE_INTERVAL) {
+            return mIdleDeltas[cpu];
+        }
+        return mIdle[cpu];
+    }
+
+    /**
+     * @param mode CpuStateMonitor.MODE_CUMULATIVE or MODE_INTERVAL; the
+     *             interval for transitions is since the previous refresh
+     * @return the frequency transitions of the CPU's policy for the mode
+     */
+    public TransTable getTransTable(int cpu, int mode) {
+        int policy = mCpuPolicy[cpu];
+        if (policy >= mTrans.length) {
+            return TransTable.EMPTY;
+        }
+        if (mode == CpuStateMonitor.MODE_INTERVAL) {
+            return mTransDeltas[policy];
+        }
+        return mTrans[policy];
+    }
+
+    /** @return the frequency cap state of the CPU's policy */
+    public ThrottleState getThrottleState(int cpu) {
+        int policy = mCpuPolicy[cpu];
+        return policy < mThrottle.length ? mThrottle[policy] : ThrottleState.EMPTY;
+    }
+
+    /** @return the policy's time in state since boot */
+    public CpuSnapshot getPolicySnapshot(int policy) {
+        return mCumulative[policy];
+    }
+
+    /**
+     * @return true if the counters of the CPU's policy went backwards
+     * (hotplug, stats reset) since the interval baseline, or the policy was
+     * re-read after a hotplug, in which case its interval snapshot is empty
+     * until the next refresh
+     */
+    public boolean isIntervalReset(int cpu) {
+        int policy = mCpuPolicy[cpu];
+        return policy < mResets.length && mResets[policy];
+    }
+
+    /**
+     * @param stale the policies whose time in state was re-read; their
+     *              intervals no longer match and are emptied and marked
+     *              reset until the next refresh
+     * @return a copy with a new topology and time in state since boot,
+     * everything else carried over
+     */
+    MonitorState withTopology(CpuTopology topology, CpuSnapshot[] cumulative, boolean[] stale) {
+        CpuSnapshot[] deltas = mDeltas.clone();
+        boolean[] resets = mResets.clone();
+        IdleSnapshot[] idleDeltas = mIdleDeltas.clone();
+        TransTable[] transDeltas = mTransDeltas.clone();
+        for (int p = 0; p < mPolicies.length; p++) {
+            if (!stale[p]) {
+                continue;
+            }
+            deltas[p] = CpuSnapshot.EMPTY;
+            resets[p] = true;
+            if (p < transDeltas.length) {
+                transDeltas[p] = TransTable.EMPTY;
+            }
+            for (int i = 0; i < mPolicies[p].getCpuCount(); i++) {
+                int cpu = mPolicies[p].getCpu(i);
+                if (cpu < idleDeltas.length) {
+                    idleDeltas[cpu] = IdleSnapshot.EMPTY;
+                }
+            }
+        }
+        return new MonitorState(topology, mPolicies, mCpuPolicy, cumulative, deltas, resets,
+                mIdle, idleDeltas, mTrans, transDeltas, mThrottle, mTime, mIntervalMillis);
+    }
+
+    /** @return when (ms, elapsed realtime) the refresh was read */
+    public long getTime() {
+        return mTime;
+    }
+
+    /** @return the length (ms) of the interval behind the deltas */
+    public long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+}
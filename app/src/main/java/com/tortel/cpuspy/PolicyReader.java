@@ -0,0 +1,142 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads the time_in_state files of a set of policies, either one after the
+ * other on the calling thread or spread over a small bounded worker pool.
+ * Each policy parses into its own buffers, so the reads are independent;
+ * the caller builds its snapshot once every read has finished.
+ *
+ * In auto mode the pool is turned on by itself once reading one after the
+ * other proves slow on a device with many policies. On fast sysfs the pool
+ * costs more than it saves, so it stays off there
+ */
+class PolicyReader {
+    /** never use more workers than this, whatever the policy count */
+    static final int MAX_THREADS = 4;
+    /** auto mode only goes parallel with at least this many policies */
+    static final int AUTO_MIN_POLICIES = 3;
+    /** a sequential read averaging this much per policy is slow */
+    static final long AUTO_SLOW_NANOS = 1000000;
+    /** slow reads in a row before auto mode goes parallel */
+    static final int AUTO_SLOW_READS = 3;
+
+    private boolean mParallel;
+    private boolean mAuto;
+    private int mSlowReads;
+    private ExecutorService mPool;
+    private final List<Callable<Void>> mTasks = new ArrayList<>();
+
+    boolean isParallel() {
+        return mParallel;
+    }
+
+    /**
+     * Turn the worker pool on or off. The pool is shut down when turned off
+     */
+    void setParallel(boolean parallel) {
+        mParallel = parallel;
+        if (!parallel) {
+            shutdown();
+        }
+    }
+
+    boolean isAuto() {
+        return mAuto;
+    }
+
+    /**
+     * Let the reader turn the worker pool on by itself when sequential
+     * reads are slow, see AUTO_SLOW_NANOS
+     */
+    void setAuto(boolean auto) {
+        mAuto = auto;
+        mSlowReads = 0;
+    }
+
+    /**
+     * Read every policy into its parser
+     */
+    void read(CpuPolicy[] policies) throws IOException {
+        if (!mParallel || policies.length < 2) {
+            boolean timed = mAuto && policies.length >= AUTO_MIN_POLICIES;
+            long start = timed ? System.nanoTime() : 0;
+            for (CpuPolicy policy : policies) {
+                policy.read();
+            }
+            if (timed) {
+                noteSequentialRead(System.nanoTime() - start, policies.length);
+            }
+            return;
+        }
+
+        if (mPool == null) {
+            mPool = Executors.newFixedThreadPool(MAX_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CpuSpyReader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        mTasks.clear();
+        for (final CpuPolicy policy : policies) {
+            mTasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    policy.read();
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> result : mPool.invokeAll(mTasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted reading time-in-states files");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Problem reading time-in-states files", e.getCause());
+        }
+    }
+
+    /** go parallel after enough slow sequential reads in a row */
+    private void noteSequentialRead(long nanos, int policies) {
+        if (nanos / policies < AUTO_SLOW_NANOS) {
+            mSlowReads = 0;
+        } else if (++mSlowReads >= AUTO_SLOW_READS) {
+            mParallel = true;
+        }
+    }
+
+    /** stop the worker threads, if any */
+    void shutdown() {
+        if (mPool != null) {
+            mPool.shutdown();
+            mPool = null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.IOException;
+
+/**
+ * Reads the CPU time this process used, user plus system, from
+ * /proc/self/stat. The times there are in USER_HZ ticks, which the kernel
+ * fixes at 100 per second for userspace on every Android ABI. Not thread
+ * safe; each thread reading it needs its own
+ */
+public class ProcessCpuTime {
+    static final String STAT_PATH = "/proc/self/stat";
+    /** USER_HZ; the ticks in the stat file are 10 ms */
+    private static final int TICK_MILLIS = 10;
+    /** utime is the 14th field, stime the 15th */
+    private static final int UTIME_FIELD = 14;
+
+    private final Sysfs mSysfs;
+    private final SysfsReader mReader = new SysfsReader(512);
+
+    public ProcessCpuTime(Sysfs sysfs) {
+        mSysfs = sysfs;
+    }
+
+    /**
+     * @return the CPU time (ms) the process used since it started, or -1
+     * if it cannot be read
+     */
+    public long read() {
+        try {
+            mReader.read(mSysfs.file(STAT_PATH));
+        } catch (IOException e) {
+            return -1;
+        }
+        // the command name (field 2) is in parentheses and may hold spaces
+        // or parentheses itself, so count the fields from the last ')'
+        if (!mReader.skipPastLast(')')) {
+            return -1;
+        }
+        // now at field 3; skip to utime
+        for (int field = 3; field < UTIME_FIELD; field++) {
+            mReader.skipSpaces();
+            mReader.skipToken();
+        }
+        mReader.skipSpaces();
+        long utime = mReader.nextLong();
+        mReader.skipSpaces();
+        long stime = mReader.nextLong();
+        if (utime < 0 || stime < 0) {
+            return -1;
+        }
+        return (utime + stime) * TICK_MILLIS;
+    }
+}
@@ -0,0 +1,145 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.tortel.cpuspy.CpuStateMonitor.CpuStateMonitorException;
+
+/**
+ * Runs CpuStateMonitor refreshes off the UI thread, one at a time. Requests
+ * that arrive while a read is in flight are coalesced into a single follow
+ * up read, so tapping refresh repeatedly never stacks up reads. Listeners
+ * are called on the main thread with the newly published MonitorState
+ */
+public class RefreshScheduler {
+    private static final String TAG = "CpuSpy";
+
+    private static final int IDLE = 0;
+    private static final int RUNNING = 1;
+    /** running, and another request came in meanwhile */
+    private static final int RUNNING_PENDING = 2;
+
+    /** called on the main thread after every refresh */
+    public interface Listener {
+        void onStatesUpdated(MonitorState state);
+    }
+
+    private final CpuStateMonitor mMonitor;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger mFlight = new AtomicInteger(IDLE);
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            boolean finished = false;
+            try {
+                do {
+                    refresh();
+                    finished = finishFlight();
+                } while (!finished);
+            } finally {
+                // never leave the flight running, or no request would start
+                // another read again
+                if (!finished) {
+                    mFlight.set(IDLE);
+                }
+            }
+        }
+    };
+
+    private final Runnable mNotifyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            MonitorState state = mMonitor.getState();
+            for (Listener listener : mListeners) {
+                listener.onStatesUpdated(state);
+            }
+        }
+    };
+
+    public RefreshScheduler(CpuStateMonitor monitor) {
+        mMonitor = monitor;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Ask for a refresh. Starts a read if none is running, otherwise makes
+     * sure one more read happens after the current one
+     */
+    public void requestRefresh() {
+        while (true) {
+            int flight = mFlight.get();
+            if (flight == IDLE) {
+                if (mFlight.compareAndSet(IDLE, RUNNING)) {
+                    mExecutor.execute(mRefreshRunnable);
+                    return;
+                }
+            } else if (flight == RUNNING) {
+                if (mFlight.compareAndSet(RUNNING, RUNNING_PENDING)) {
+                    return;
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Call the listeners with the monitor's current state, for states
+     * published outside of a refresh such as the cached one at startup.
+     * Safe to call from any thread
+     */
+    public void notifyListeners() {
+        mMainHandler.removeCallbacks(mNotifyRunnable);
+        mMainHandler.post(mNotifyRunnable);
+    }
+
+    /**
+     * @return true if the flight is over, false if another read was asked
+     * for while this one ran
+     */
+    private boolean finishFlight() {
+        while (true) {
+            if (mFlight.compareAndSet(RUNNING_PENDING, RUNNING)) {
+                return false;
+            }
+            if (mFlight.compareAndSet(RUNNING, IDLE)) {
+                return true;
+            }
+        }
+    }
+
+    private void refresh() {
+        try {
+            mMonitor.updateStates();
+        } catch (CpuStateMonitorException e) {
+            Log.e(TAG, "Problem getting CPU states", e);
+        } catch (RuntimeException e) {
+            // unexpected sysfs contents; keep the last state and carry on
+            Log.e(TAG, "Unexpected problem getting CPU states", e);
+        }
+        notifyListeners();
+    }
+}
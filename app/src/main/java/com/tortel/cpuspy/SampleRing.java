@@ -0,0 +1,278 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.util.Arrays;
+
+/**
+ * Fixed capacity ring buffer of cumulative time-in-state samples. Every sample
+ * is one timestamp plus one tick counter per policy and frequency, all kept in
+ * flat primitive arrays that are allocated once, so recording a sample does
+ * not allocate. The capacity comes from a memory budget, and the oldest
+ * samples are overwritten once it is full
+ */
+public class SampleRing {
+    /** bytes used per sample for the timestamp */
+    private static final int TIME_BYTES = 8;
+    /** bytes used per sample for every slot */
+    private static final int SLOT_BYTES = 8;
+
+    private final long mBudget;
+
+    /** slot layout: policy p owns slots [mOffsets[p], mOffsets[p + 1]) */
+    private int[] mOffsets = new int[1];
+    private int[] mFreqs = new int[0];
+    private int mSlots;
+
+    private int mCapacity;
+    private long[] mTimes = new long[0];
+    private long[] mTicks = new long[0];
+    /** one residency, for getResidencyColumns */
+    private long[] mColumn = new long[0];
+    private int mHead;
+    private int mSize;
+
+    /**
+     * @param budget the most memory (bytes) the samples may take
+     */
+    public SampleRing(long budget) {
+        mBudget = budget;
+    }
+
+    /**
+     * @return how many samples with the given number of slots fit in the
+     * budget
+     */
+    public static int capacityFor(long budget, int slots) {
+        long perSample = TIME_BYTES + (long) slots * SLOT_BYTES;
+        return (int) Math.max(2, Math.min(Integer.MAX_VALUE / Math.max(1, slots), budget / perSample));
+    }
+
+    /**
+     * Lay the slots out for the given policy snapshots and allocate the
+     * buffers. Drops all samples
+     */
+    public synchronized void setLayout(CpuSnapshot[] snapshots) {
+        mOffsets = new int[snapshots.length + 1];
+        int slots = 0;
+        for (int p = 0; p < snapshots.length; p++) {
+            mOffsets[p] = slots;
+            slots += snapshots[p].getCount();
+        }
+        mOffsets[snapshots.length] = slots;
+        mSlots = slots;
+        int maxStates = 0;
+        for (CpuSnapshot snapshot : snapshots) {
+            maxStates = Math.max(maxStates, snapshot.getCount());
+        }
+        mColumn = new long[maxStates];
+
+        mFreqs = new int[slots];
+        for (int p = 0; p < snapshots.length; p++) {
+            for (int i = 0; i < snapshots[p].getCount(); i++) {
+                mFreqs[mOffsets[p] + i] = snapshots[p].getFreq(i);
+            }
+        }
+
+        mCapacity = capacityFor(mBudget, slots);
+        mTimes = new long[mCapacity];
+        mTicks = new long[mCapacity * slots];
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Record one sample of cumulative snapshots, overwriting the oldest when
+     * full
+     * @return false if the snapshots no longer match the layout, in which
+     * case nothing was recorded
+     */
+    public synchronized boolean record(long time, CpuSnapshot[] snapshots) {
+        if (snapshots.length != mOffsets.length - 1) {
+            return false;
+        }
+        for (int p = 0; p < snapshots.length; p++) {
+            CpuSnapshot snapshot = snapshots[p];
+            if (snapshot.getCount() != mOffsets[p + 1] - mOffsets[p]) {
+                return false;
+            }
+            for (int i = 0; i < snapshot.getCount(); i++) {
+                if (snapshot.getFreq(i) != mFreqs[mOffsets[p] + i]) {
+                    return false;
+                }
+            }
+        }
+
+        int base = mHead * mSlots;
+        for (int p = 0; p < snapshots.length; p++) {
+            CpuSnapshot snapshot = snapshots[p];
+            int offset = base + mOffsets[p];
+            for (int i = 0; i < snapshot.getCount(); i++) {
+                mTicks[offset + i] = snapshot.getDuration(i);
+            }
+        }
+        mTimes[mHead] = time;
+        mHead = (mHead + 1) % mCapacity;
+        if (mSize < mCapacity) {
+            mSize++;
+        }
+        return true;
+    }
+
+    /** drop all samples but keep the layout */
+    public synchronized void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /** @return the number of policies in the layout */
+    public synchronized int getPolicyCount() {
+        return mOffsets.length - 1;
+    }
+
+    /** @return the number of frequency slots for the policy */
+    public synchronized int getStateCount(int policy) {
+        return mOffsets[policy + 1] - mOffsets[policy];
+    }
+
+    /** @return the frequency (kHz) of the policy's i'th slot */
+    public synchronized int getFreq(int policy, int i) {
+        return mFreqs[mOffsets[policy] + i];
+    }
+
+    /** @return the number of samples held */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /** @return the most samples the ring can hold */
+    public synchronized int getCapacity() {
+        return mCapacity;
+    }
+
+    /** @return the timestamp of the i'th sample, 0 being the oldest */
+    public synchronized long getTime(int i) {
+        return mTimes[index(i)];
+    }
+
+    /** @return the cumulative ticks of the policy's slot in the i'th sample */
+    public synchronized long getTicks(int i, int policy, int slot) {
+        return mTicks[index(i) * mSlots + mOffsets[policy] + slot];
+    }
+
+    private int index(int i) {
+        return (mHead - mSize + i + mCapacity) % mCapacity;
+    }
+
+    /**
+     * Frequency residency over [t0, t1]: the ticks each of the policy's
+     * frequencies gained between the last sample at or before t0 (or the
+     * oldest sample) and the last sample at or before t1
+     * @param out filled with ticks per slot, see getFreq
+     * @return the real time span (ms) covered, or -1 if there are not two
+     * samples in the window
+     */
+    public synchronized long getResidency(int policy, long t0, long t1, long[] out) {
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < mSize; i++) {
+            long time = mTimes[index(i)];
+            if (time > t1) {
+                break;
+            }
+            if (time <= t0 || first < 0) {
+                first = i;
+            }
+            last = i;
+        }
+        int states = getStateCount(policy);
+        if (first < 0 || last <= first) {
+            Arrays.fill(out, 0, states, 0);
+            return -1;
+        }
+        residency(policy, first, last, out);
+        return mTimes[index(last)] - mTimes[index(first)];
+    }
+
+    /**
+     * Fill out with the ticks each of the policy's slots gained between two
+     * samples, 0 being the oldest
+     * @return the sum of out
+     */
+    private long residency(int policy, int from, int to, long[] out) {
+        int a = index(from) * mSlots + mOffsets[policy];
+        int b = index(to) * mSlots + mOffsets[policy];
+        int states = mOffsets[policy + 1] - mOffsets[policy];
+        long total = 0;
+        for (int i = 0; i < states; i++) {
+            // a counter reset inside the window shows up as a drop; count
+            // what was gained after it instead of going negative
+            long delta = mTicks[b + i] - mTicks[a + i];
+            out[i] = delta >= 0 ? delta : mTicks[b + i];
+            total += out[i];
+        }
+        return total;
+    }
+
+    /**
+     * Frequency residency over the whole ring, decimated to a fixed number
+     * of columns for drawing: the span from the oldest to the newest sample
+     * is cut into equal columns and each gets the residency between the
+     * last samples at or before its edges. Columns with no sample of their
+     * own repeat the nearest one before (or, at the start, after). One
+     * locked pass, no allocation
+     * @param out receives columns * getStateCount(policy) values, column
+     *            after column; within a column the running sum of the
+     *            slots' shares, so the last slot is 1 (or 0 if no time
+     *            passed)
+     * @return the number of columns filled, 0 if there are not two samples
+     */
+    public synchronized int getResidencyColumns(int policy, int columns, float[] out) {
+        if (mSize < 2 || columns <= 0 || policy >= getPolicyCount()) {
+            return 0;
+        }
+        int states = getStateCount(policy);
+        if (out.length < columns * states) {
+            // the layout changed since the caller sized out
+            return 0;
+        }
+        long t0 = mTimes[index(0)];
+        long span = mTimes[index(mSize - 1)] - t0;
+        int from = 0;
+        int first = -1;
+        for (int c = 0; c < columns; c++) {
+            long edge = t0 + span * (c + 1) / columns;
+            // the samples are in time order; walk forward to the edge
+            int to = from;
+            while (to + 1 < mSize && mTimes[index(to + 1)] <= edge) {
+                to++;
+            }
+            int column = c * states;
+            if (to == from) {
+                if (first >= 0) {
+                    System.arraycopy(out, column - states, out, column, states);
+                }
+                continue;
+            }
+            if (first < 0) {
+                first = c;
+            }
+            long total = residency(policy, from, to, mColumn);
+            long sum = 0;
+            for (int i = 0; i < states; i++) {
+                sum += mColumn[i];
+                out[column + i] = total > 0 ? (float) sum / total : 0;
+            }
+            from = to;
+        }
+        for (int c = 0; c < first; c++) {
+            System.arraycopy(out, first * states, out, c * states, states);
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,406 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import java.io.IOException;
+
+import com.tortel.cpuspy.CpuStateMonitor.CpuStateMonitorException;
+
+/**
+ * Foreground service that keeps sampling the time-in-state counters into the
+ * app's SampleRing. Short intervals are driven by a Handler, which runs on
+ * the uptime clock and so simply pauses while the device sleeps; long
+ * intervals use an inexact, non-wakeup alarm so the system can batch them
+ * with other work. Neither ever wakes the device up.
+ *
+ * Handler driven sampling is adaptive (see AdaptivePoller): the delay grows
+ * while the residency is stable and snaps back on transition spikes, and
+ * is stretched whenever the process goes over its CPU budget. The sampler
+ * thread runs at background priority, which also places it in the
+ * background cpuset, on the little cores where the device has them. While
+ * the screen is off sampling pauses, unless asked to keep recording
+ */
+public class SamplerService extends Service {
+    private static final String TAG = "CpuSpySampler";
+
+    public static final String ACTION_START = "com.tortel.cpuspy.action.START_SAMPLING";
+    public static final String ACTION_STOP = "com.tortel.cpuspy.action.STOP_SAMPLING";
+    private static final String ACTION_SAMPLE = "com.tortel.cpuspy.action.SAMPLE";
+
+    public static final long MIN_INTERVAL = 100;
+    public static final long MAX_INTERVAL = 60 * 1000;
+    public static final long DEFAULT_INTERVAL = 1000;
+    /** intervals at or above this are left to the alarm manager */
+    private static final long ALARM_INTERVAL = 10 * 1000;
+    /** the share of one CPU the whole app may use while sampling */
+    public static final float DEFAULT_BUDGET = 0.01f;
+
+    /** samples go to the on-disk history at most this often */
+    private static final long LOG_INTERVAL = 10 * 1000;
+    private static final long LOG_SEGMENT_SIZE = 256 * 1024;
+    private static final long LOG_RETENTION = 32 * 1024 * 1024;
+
+    private static final String CHANNEL_ID = "sampler";
+    private static final int NOTIFICATION_ID = 1;
+
+    private CpuSpyApp mApp;
+    /** the sampler has its own monitor so it never races the UI's */
+    private final CpuStateMonitor mMonitor = new CpuStateMonitor(Sysfs.DEFAULT, AndroidClock.INSTANCE);
+    private CpuSnapshot[] mSnapshots = new CpuSnapshot[0];
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private long mInterval = DEFAULT_INTERVAL;
+    private float mBudget = DEFAULT_BUDGET;
+    private volatile boolean mRunning;
+    /** keep sampling while the screen is off */
+    private volatile boolean mKeepScreenOff;
+    private volatile boolean mScreenOff;
+    /* only touched on the sampler thread */
+    private HistoryLog mHistoryLog;
+    private long mLastLogged;
+    private AdaptivePoller mPoller;
+    private long mDelay = DEFAULT_INTERVAL;
+
+    private final Runnable mCloseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            closeHistoryLog();
+            if (mPoller != null) {
+                mPoller.close();
+                mPoller = null;
+            }
+        }
+    };
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning || isPaused()) {
+                // resumed by the screen coming back on
+                return;
+            }
+            sample();
+            if (mRunning && mInterval < ALARM_INTERVAL) {
+                mHandler.postDelayed(this, mDelay);
+            }
+        }
+    };
+
+    /** pauses and resumes sampling as the screen goes off and on */
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mScreenOff = Intent.ACTION_SCREEN_OFF.equals(intent.getAction());
+            if (!mRunning || mKeepScreenOff) {
+                return;
+            }
+            if (mScreenOff) {
+                pauseSampling();
+            } else {
+                resumeSampling();
+            }
+        }
+    };
+
+    /**
+     * @return the sampling interval (ms) saved in the preferences
+     */
+    public static long getInterval(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(CpuSpyApp.PREF_NAME, MODE_PRIVATE);
+        return clampInterval(prefs.getLong(CpuSpyApp.PREF_SAMPLE_INTERVAL, DEFAULT_INTERVAL));
+    }
+
+    /**
+     * Save the sampling interval; a running sampler picks it up the next
+     * time it is started
+     */
+    public static void setInterval(Context context, long interval) {
+        context.getSharedPreferences(CpuSpyApp.PREF_NAME, MODE_PRIVATE).edit()
+                .putLong(CpuSpyApp.PREF_SAMPLE_INTERVAL, clampInterval(interval)).apply();
+    }
+
+    /**
+     * @return the share of one CPU the app may use while sampling, such as
+     * 0.01 for 1%
+     */
+    public static float getBudget(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(CpuSpyApp.PREF_NAME, MODE_PRIVATE);
+        return prefs.getFloat(CpuSpyApp.PREF_SAMPLE_BUDGET, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Save the CPU budget; a running sampler picks it up the next time it
+     * is started
+     */
+    public static void setBudget(Context context, float budget) {
+        context.getSharedPreferences(CpuSpyApp.PREF_NAME, MODE_PRIVATE).edit()
+                .putFloat(CpuSpyApp.PREF_SAMPLE_BUDGET, budget).apply();
+    }
+
+    /** @return true if sampling goes on while the screen is off */
+    public static boolean isKeepScreenOff(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(CpuSpyApp.PREF_NAME, MODE_PRIVATE);
+        return prefs.getBoolean(CpuSpyApp.PREF_SAMPLE_SCREEN_OFF, false);
+    }
+
+    /**
+     * Choose whether sampling goes on while the screen is off; a running
+     * sampler picks it up the next time it is started
+     */
+    public static void setKeepScreenOff(Context context, boolean keep) {
+        context.getSharedPreferences(CpuSpyApp.PREF_NAME, MODE_PRIVATE).edit()
+                .putBoolean(CpuSpyApp.PREF_SAMPLE_SCREEN_OFF, keep).apply();
+    }
+
+    private static long clampInterval(long interval) {
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    /** start sampling in the background */
+    public static void start(Context context) {
+        Intent intent = new Intent(context, SamplerService.class).setAction(ACTION_START);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+    /** stop sampling */
+    public static void stop(Context context) {
+        context.startService(new Intent(context, SamplerService.class).setAction(ACTION_STOP));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mApp = (CpuSpyApp) getApplicationContext();
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        PowerManager power = (PowerManager) getSystemService(POWER_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            mScreenOff = !power.isInteractive();
+        } else {
+            mScreenOff = !power.isScreenOn();
+        }
+        IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        registerReceiver(mScreenReceiver, filter);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = intent != null ? intent.getAction() : ACTION_START;
+        if (ACTION_STOP.equals(action)) {
+            stopSampling();
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        startForeground(NOTIFICATION_ID, buildNotification());
+        if (ACTION_SAMPLE.equals(action) && mRunning) {
+            // alarm driven sample; schedule the next one first
+            if (!isPaused()) {
+                scheduleAlarm();
+                mHandler.post(mSampleRunnable);
+            }
+        } else {
+            startSampling();
+        }
+        mApp.setSampling(mRunning);
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterReceiver(mScreenReceiver);
+        stopSampling();
+        mThread.quitSafely();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void startSampling() {
+        mInterval = getInterval(this);
+        mBudget = getBudget(this);
+        mKeepScreenOff = isKeepScreenOff(this);
+        mRunning = true;
+        if (isPaused()) {
+            pauseSampling();
+        } else {
+            resumeSampling();
+        }
+    }
+
+    /** (re)start the handler or alarm driven samples */
+    private void resumeSampling() {
+        mHandler.removeCallbacks(mSampleRunnable);
+        cancelAlarm();
+        if (mInterval >= ALARM_INTERVAL) {
+            scheduleAlarm();
+        }
+        mHandler.post(mSampleRunnable);
+    }
+
+    /**
+     * Stop sampling until the screen comes back on, closing the history so
+     * nothing is held open meanwhile
+     */
+    private void pauseSampling() {
+        mHandler.removeCallbacks(mSampleRunnable);
+        cancelAlarm();
+        mHandler.post(mCloseRunnable);
+        MonitorMetrics.INSTANCE.setSamplerInterval(0);
+    }
+
+    private void stopSampling() {
+        mRunning = false;
+        mHandler.removeCallbacks(mSampleRunnable);
+        cancelAlarm();
+        mHandler.post(mCloseRunnable);
+        MonitorMetrics.INSTANCE.setSamplerInterval(0);
+        mApp.setSampling(false);
+        stopForeground(true);
+    }
+
+    /** @return true while sampling is held off by the screen being off */
+    private boolean isPaused() {
+        return mScreenOff && !mKeepScreenOff;
+    }
+
+    /**
+     * Read the counters and push them into the ring. Runs on the sampler
+     * thread
+     */
+    private void sample() {
+        try {
+            // only time in state, refilled into the same snapshots
+            mSnapshots = mMonitor.sampleStates(mSnapshots);
+        } catch (CpuStateMonitorException e) {
+            Log.e(TAG, "Problem sampling CPU states", e);
+            return;
+        }
+
+        SampleRing ring = mApp.getSampleRing();
+        long now = SystemClock.elapsedRealtime();
+        if (!ring.record(now, mSnapshots)) {
+            // the set of states changed (first sample, hotplug), start over
+            ring.setLayout(mSnapshots);
+            ring.record(now, mSnapshots);
+        }
+
+        if (now - mLastLogged >= LOG_INTERVAL) {
+            mLastLogged = now;
+            appendHistory(now);
+        }
+
+        mDelay = mInterval;
+        if (mInterval < ALARM_INTERVAL) {
+            if (mPoller == null || mPoller.getBaseInterval() != mInterval
+                    || mPoller.getBudget() != mBudget) {
+                if (mPoller != null) {
+                    mPoller.close();
+                }
+                mPoller = new AdaptivePoller(Sysfs.DEFAULT, mInterval, ALARM_INTERVAL, mBudget);
+            }
+            mDelay = mPoller.update(now, mMonitor.getPolicies(), mSnapshots);
+        }
+        MonitorMetrics.INSTANCE.setSamplerInterval(mDelay);
+    }
+
+    /**
+     * Write the sample to the on-disk history, opening (and recovering) the
+     * log on first use
+     */
+    private void appendHistory(long now) {
+        try {
+            if (mHistoryLog == null) {
+                mHistoryLog = new HistoryLog(mApp.getHistoryDir(), LOG_SEGMENT_SIZE, LOG_RETENTION);
+            }
+            // wall clock time, so the history lines up across reboots
+            mHistoryLog.append(System.currentTimeMillis(), mSnapshots);
+        } catch (IOException e) {
+            Log.e(TAG, "Problem writing the history log", e);
+            closeHistoryLog();
+        }
+    }
+
+    private void closeHistoryLog() {
+        if (mHistoryLog != null) {
+            try {
+                mHistoryLog.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Problem closing the history log", e);
+            }
+            mHistoryLog = null;
+        }
+    }
+
+    private PendingIntent getAlarmIntent() {
+        Intent intent = new Intent(this, SamplerService.class).setAction(ACTION_SAMPLE);
+        return PendingIntent.getService(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Non-wakeup alarm with a window of half the interval, so it can be
+     * batched with other alarms and is held while the device sleeps
+     */
+    private void scheduleAlarm() {
+        AlarmManager alarms = (AlarmManager) getSystemService(ALARM_SERVICE);
+        alarms.setWindow(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + mInterval, mInterval / 2, getAlarmIntent());
+    }
+
+    private void cancelAlarm() {
+        AlarmManager alarms = (AlarmManager) getSystemService(ALARM_SERVICE);
+        alarms.cancel(getAlarmIntent());
+    }
+
+    private Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.sampler_channel), NotificationManager.IMPORTANCE_MIN);
+            manager.createNotificationChannel(channel);
+        }
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.sampler_running))
+                .setPriority(NotificationCompat.PRIORITY_MIN)
+                .setOngoing(true)
+                .build();
+    }
+}
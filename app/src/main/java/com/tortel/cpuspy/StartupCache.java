@@ -0,0 +1,255 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Everything the app needs to draw its first frame without touching sysfs:
+ * the DeviceInfo and the last time in state that was on screen, kept in one
+ * small file that is read with a single read at startup:
+ *
+ *   int magic, int version, UTF boot id,
+ *   boolean info [UTF kernel, UTF soc, int policies,
+ *                 per policy: int first CPU, UTF governor, int count, count * int freq],
+ *   boolean state [long time, int cpus, cpus * byte flags, int policies,
+ *                  per policy: int id, int count, count * int cpu,
+ *                              int states, states * (int freq, long ticks)],
+ *   int crc32 of everything before it
+ *
+ * Like the BaselineStore it is replaced atomically and only trusted in the
+ * boot it was written in, so the restored times are never from before a
+ * reboot; they are merely a few minutes old until the first refresh lands
+ */
+class StartupCache {
+    private static final int MAGIC = 0x43505543; // "CPUC"
+    private static final int VERSION = 1;
+
+    private static final int FLAG_POSSIBLE = 1;
+    private static final int FLAG_PRESENT = 2;
+    private static final int FLAG_ONLINE = 4;
+
+    private final CrcFile mFile;
+    private final Sysfs mSysfs;
+
+    /* filled by load */
+    private DeviceInfo mDeviceInfo;
+    private MonitorState mState;
+
+    StartupCache(File file, Sysfs sysfs) {
+        mFile = new CrcFile(file);
+        mSysfs = sysfs;
+    }
+
+    /** @return the device info loaded, or null */
+    DeviceInfo getDeviceInfo() {
+        return mDeviceInfo;
+    }
+
+    /**
+     * @return the state loaded, or null. It has time in state since boot
+     * only; the intervals, idle states, transitions and caps are empty
+     */
+    MonitorState getState() {
+        return mState;
+    }
+
+    /**
+     * Read the file. Damaged files and files from another boot are deleted
+     * @return true if anything was loaded
+     */
+    boolean load() {
+        mDeviceInfo = null;
+        mState = null;
+        ByteBuffer buffer = mFile.read(16);
+        if (buffer == null) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(buffer.array(), 0, buffer.limit()));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                delete();
+                return false;
+            }
+            String bootId = in.readUTF();
+            if (!bootId.equals(DeviceInfo.readBootId(mSysfs))) {
+                // rebooted since; the times started over
+                delete();
+                return false;
+            }
+            DeviceInfo info = in.readBoolean() ? readDeviceInfo(in, bootId) : null;
+            MonitorState state = in.readBoolean() ? readState(in) : null;
+            mDeviceInfo = info;
+            mState = state;
+        } catch (IOException | RuntimeException e) {
+            // counts pointing past the end; the crc makes this unlikely
+            delete();
+            return false;
+        }
+        return mDeviceInfo != null || mState != null;
+    }
+
+    /**
+     * Atomically replace the file
+     * @param info the device info, or null to leave it out
+     * @param state the state to restore next time, or null to leave it out
+     */
+    void save(DeviceInfo info, MonitorState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(DeviceInfo.readBootId(mSysfs));
+        out.writeBoolean(info != null);
+        if (info != null) {
+            writeDeviceInfo(out, info);
+        }
+        boolean hasState = state != null && state.getPolicyCount() > 0;
+        out.writeBoolean(hasState);
+        if (hasState) {
+            writeState(out, state);
+        }
+        out.flush();
+        mFile.write(bytes.toByteArray(), bytes.size());
+    }
+
+    /** forget everything */
+    void delete() {
+        mFile.delete();
+    }
+
+    private static void writeDeviceInfo(DataOutputStream out, DeviceInfo info) throws IOException {
+        out.writeUTF(info.getKernelVersion());
+        out.writeUTF(info.getSocName());
+        out.writeInt(info.getPolicyCount());
+        for (int p = 0; p < info.getPolicyCount(); p++) {
+            out.writeInt(info.getFirstCpu(p));
+            out.writeUTF(info.getGovernor(p));
+            int[] freqs = info.getAvailableFreqs(p);
+            out.writeInt(freqs.length);
+            for (int freq : freqs) {
+                out.writeInt(freq);
+            }
+        }
+    }
+
+    private static DeviceInfo readDeviceInfo(DataInputStream in, String bootId) throws IOException {
+        String kernel = in.readUTF();
+        String soc = in.readUTF();
+        int count = checkCount(in, in.readInt(), 8);
+        int[] firstCpus = new int[count];
+        String[] governors = new String[count];
+        int[][] availableFreqs = new int[count][];
+        for (int p = 0; p < count; p++) {
+            firstCpus[p] = in.readInt();
+            governors[p] = in.readUTF();
+            int[] freqs = new int[checkCount(in, in.readInt(), 4)];
+            for (int i = 0; i < freqs.length; i++) {
+                freqs[i] = in.readInt();
+            }
+            availableFreqs[p] = freqs;
+        }
+        return new DeviceInfo(bootId, kernel, soc, firstCpus, governors, availableFreqs);
+    }
+
+    private static void writeState(DataOutputStream out, MonitorState state) throws IOException {
+        out.writeLong(state.getTime());
+        CpuTopology topology = state.getTopology();
+        out.writeInt(topology.getCpuCount());
+        for (int cpu = 0; cpu < topology.getCpuCount(); cpu++) {
+            out.writeByte((topology.isPossible(cpu) ? FLAG_POSSIBLE : 0)
+                    | (topology.isPresent(cpu) ? FLAG_PRESENT : 0)
+                    | (topology.isOnline(cpu) ? FLAG_ONLINE : 0));
+        }
+        out.writeInt(state.getPolicyCount());
+        for (int p = 0; p < state.getPolicyCount(); p++) {
+            CpuPolicy policy = state.getPolicy(p);
+            out.writeInt(policy.getId());
+            out.writeInt(policy.getCpuCount());
+            for (int i = 0; i < policy.getCpuCount(); i++) {
+                out.writeInt(policy.getCpu(i));
+            }
+            CpuSnapshot snapshot = state.getPolicySnapshot(p);
+            out.writeInt(snapshot.getCount());
+            for (int i = 0; i < snapshot.getCount(); i++) {
+                out.writeInt(snapshot.getFreq(i));
+                out.writeLong(snapshot.getDuration(i));
+            }
+        }
+    }
+
+    /**
+     * Rebuild a state from the file. Its policies have no time_in_state
+     * files; they only name the CPUs, which is all the UI and the live
+     * sampler need until the first refresh brings the real ones
+     */
+    private static MonitorState readState(DataInputStream in) throws IOException {
+        long time = in.readLong();
+        int cpus = checkCount(in, in.readInt(), 1);
+        boolean[] possible = new boolean[cpus];
+        boolean[] present = new boolean[cpus];
+        boolean[] online = new boolean[cpus];
+        for (int cpu = 0; cpu < cpus; cpu++) {
+            int flags = in.readByte();
+            possible[cpu] = (flags & FLAG_POSSIBLE) != 0;
+            present[cpu] = (flags & FLAG_PRESENT) != 0;
+            online[cpu] = (flags & FLAG_ONLINE) != 0;
+        }
+
+        int count = checkCount(in, in.readInt(), 12);
+        CpuPolicy[] policies = new CpuPolicy[count];
+        CpuSnapshot[] cumulative = new CpuSnapshot[count];
+        CpuSnapshot[] deltas = new CpuSnapshot[count];
+        int[] cpuPolicy = new int[cpus];
+        for (int p = 0; p < count; p++) {
+            int id = in.readInt();
+            int[] policyCpus = new int[checkCount(in, in.readInt(), 4)];
+            if (policyCpus.length == 0) {
+                throw new IOException("Empty policy");
+            }
+            for (int i = 0; i < policyCpus.length; i++) {
+                policyCpus[i] = in.readInt();
+                cpuPolicy[policyCpus[i]] = p;
+            }
+            int states = checkCount(in, in.readInt(), 12);
+            int[] freqs = new int[states];
+            long[] ticks = new long[states];
+            for (int i = 0; i < states; i++) {
+                freqs[i] = in.readInt();
+                ticks[i] = in.readLong();
+            }
+            policies[p] = new CpuPolicy(id, policyCpus, new File[0]);
+            cumulative[p] = new CpuSnapshot(freqs, ticks, states);
+            deltas[p] = CpuSnapshot.EMPTY;
+        }
+        if (count == 0) {
+            return null;
+        }
+        return new MonitorState(new CpuTopology(possible, present, online), policies, cpuPolicy,
+                cumulative, deltas, new boolean[count], new IdleSnapshot[0], new IdleSnapshot[0],
+                new TransTable[0], new TransTable[0], new ThrottleState[0], time, 0);
+    }
+
+    /**
+     * @param size the smallest number of bytes each counted item takes
+     * @return the count, if that many items can be left in the stream
+     */
+    private static int checkCount(DataInputStream in, int count, int size) throws IOException {
+        if (count < 0 || count > in.available() / size) {
+            throw new IOException("Bad count " + count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,38 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+
+/**
+ * Resolves the absolute /sys and /proc paths the monitors read against a
+ * root directory. On a device the root is "/"; host side benchmarks point it
+ * at a generated fake tree
+ */
+public class Sysfs {
+    /** the real filesystem */
+    public static final Sysfs DEFAULT = new Sysfs(new File("/"));
+
+    private final File mRoot;
+
+    public Sysfs(File root) {
+        mRoot = root;
+    }
+
+    public File getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * @param path an absolute path such as "/proc/cpuinfo"
+     * @return the file for the path under the root
+     */
+    public File file(String path) {
+        return new File(mRoot, path);
+    }
+}
@@ -0,0 +1,202 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * SysfsReader reads small sysfs/procfs files into a single reusable byte
+ * buffer and scans numbers straight out of it, so refreshing the same files
+ * over and over does not create any Strings or boxed values
+ */
+public class SysfsReader {
+    private static final int DEFAULT_SIZE = 4096;
+
+    private byte[] mBuffer;
+    private int mLength;
+    private int mPos;
+
+    public SysfsReader() {
+        this(DEFAULT_SIZE);
+    }
+
+    public SysfsReader(int size) {
+        mBuffer = new byte[size];
+    }
+
+    /**
+     * Read the whole file into the buffer, growing it if needed, and rewind
+     * the scan position to the start
+     * @return the number of bytes read
+     */
+    public int read(File file) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            int len = 0;
+            while (true) {
+                if (len == mBuffer.length) {
+                    byte[] bigger = new byte[mBuffer.length * 2];
+                    System.arraycopy(mBuffer, 0, bigger, 0, len);
+                    mBuffer = bigger;
+                }
+                int n = is.read(mBuffer, len, mBuffer.length - len);
+                if (n < 0) {
+                    break;
+                }
+                len += n;
+            }
+            mLength = len;
+            mPos = 0;
+            MonitorMetrics.INSTANCE.fileRead(len);
+            return len;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Load already captured file contents into the buffer
+     */
+    public void load(byte[] data, int length) {
+        if (mBuffer.length < length) {
+            mBuffer = new byte[length];
+        }
+        System.arraycopy(data, 0, mBuffer, 0, length);
+        mLength = length;
+        mPos = 0;
+    }
+
+    /** move the scan position back to the start of the buffer */
+    public void rewind() {
+        mPos = 0;
+    }
+
+    /** @return the number of valid bytes in the buffer */
+    public int length() {
+        return mLength;
+    }
+
+    /** @return true once everything in the buffer has been scanned */
+    public boolean atEnd() {
+        return mPos >= mLength;
+    }
+
+    /** @return true if the scan position is on a line break or at the end */
+    public boolean atEndOfLine() {
+        return mPos >= mLength || mBuffer[mPos] == '\n';
+    }
+
+    /** skip spaces, tabs and colons, but stop at line breaks */
+    public void skipSpaces() {
+        while (mPos < mLength) {
+            byte b = mBuffer[mPos];
+            if (b != ' ' && b != '\t' && b != ':' && b != '\r') {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    /** skip all whitespace, including line breaks */
+    public void skipWhitespace() {
+        while (mPos < mLength) {
+            byte b = mBuffer[mPos];
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    /** move to the start of the next line */
+    public void skipLine() {
+        while (mPos < mLength) {
+            if (mBuffer[mPos++] == '\n') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Step over the byte under the scan position if it is the given one
+     * @return true if it was
+     */
+    public boolean skip(char c) {
+        if (mPos < mLength && mBuffer[mPos] == c) {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Move the scan position just past the last occurrence of the byte in
+     * the buffer
+     * @return false, leaving the position alone, if there is none
+     */
+    public boolean skipPastLast(char c) {
+        for (int i = mLength - 1; i >= mPos; i--) {
+            if (mBuffer[i] == c) {
+                mPos = i + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** skip the token under the scan position */
+    public void skipToken() {
+        while (mPos < mLength) {
+            byte b = mBuffer[mPos];
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    /**
+     * Parse an unsigned decimal number at the scan position. Values that
+     * do not fit in a long are clamped to Long.MAX_VALUE
+     * @return the value, or -1 if there is no digit at the scan position
+     */
+    public long nextLong() {
+        int start = mPos;
+        long value = 0;
+        while (mPos < mLength) {
+            int digit = mBuffer[mPos] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value > (Long.MAX_VALUE - digit) / 10 ? Long.MAX_VALUE : value * 10 + digit;
+            mPos++;
+        }
+        return mPos == start ? -1 : value;
+    }
+
+    /**
+     * @return the rest of the current line, without the line break. Only for
+     * rarely read strings such as names, since it allocates
+     */
+    public String nextLineString() {
+        int start = mPos;
+        while (mPos < mLength && mBuffer[mPos] != '\n') {
+            mPos++;
+        }
+        int end = mPos;
+        while (end > start && (mBuffer[end - 1] == ' ' || mBuffer[end - 1] == '\r')) {
+            end--;
+        }
+        if (mPos < mLength) {
+            mPos++;
+        }
+        return new String(mBuffer, start, end - start);
+    }
+}
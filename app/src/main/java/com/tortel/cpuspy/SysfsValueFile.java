@@ -0,0 +1,120 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * A single-number sysfs file (a frequency, a temperature) that is opened once
+ * and then re-read in place with a positional read at offset 0, which makes
+ * sysfs regenerate the value without a new open/close. After a failed read
+ * the file is closed and reopened on the next one. Not thread safe
+ */
+class SysfsValueFile {
+    private final File[] mCandidates;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(32);
+    private RandomAccessFile mFile;
+
+    /**
+     * @param candidates files to try in order; the first one that opens is
+     *                   used
+     */
+    SysfsValueFile(File... candidates) {
+        mCandidates = candidates;
+    }
+
+    /**
+     * @param paths per-CPU paths with # for the CPU number
+     * @return the file for the policy, trying every path of every CPU in
+     * the policy in turn; CPUs that are offline have none
+     */
+    static SysfsValueFile forPolicy(Sysfs sysfs, CpuPolicy policy, String... paths) {
+        File[] files = new File[policy.getCpuCount() * paths.length];
+        int n = 0;
+        for (int i = 0; i < policy.getCpuCount(); i++) {
+            String cpu = String.valueOf(policy.getCpu(i));
+            for (String path : paths) {
+                files[n++] = sysfs.file(path.replace("#", cpu));
+            }
+        }
+        return new SysfsValueFile(files);
+    }
+
+    /**
+     * @return the value, which may be negative (temperatures), or
+     * Long.MIN_VALUE if no candidate could be read
+     */
+    long read() {
+        if (mFile == null) {
+            mFile = open();
+            if (mFile == null) {
+                return Long.MIN_VALUE;
+            }
+        }
+        try {
+            mBuffer.clear();
+            int length = mFile.getChannel().read(mBuffer, 0);
+            MonitorMetrics.INSTANCE.bytesRead(length);
+            return parse(mBuffer.array(), length);
+        } catch (IOException e) {
+            close();
+            return Long.MIN_VALUE;
+        }
+    }
+
+    void close() {
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+            mFile = null;
+        }
+    }
+
+    private RandomAccessFile open() {
+        for (File candidate : mCandidates) {
+            try {
+                RandomAccessFile file = new RandomAccessFile(candidate, "r");
+                MonitorMetrics.INSTANCE.fileOpened();
+                return file;
+            } catch (IOException e) {
+                // missing or not readable, try the next one
+            }
+        }
+        return null;
+    }
+
+    private static long parse(byte[] data, int length) {
+        int i = 0;
+        while (i < length && (data[i] == ' ' || data[i] == '\t')) {
+            i++;
+        }
+        boolean negative = i < length && data[i] == '-';
+        if (negative) {
+            i++;
+        }
+        int start = i;
+        long value = 0;
+        for (; i < length; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+        }
+        if (i == start) {
+            return Long.MIN_VALUE;
+        }
+        return negative ? -value : value;
+    }
+}
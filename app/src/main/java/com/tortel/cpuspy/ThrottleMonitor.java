@@ -0,0 +1,222 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Samples every policy's frequency cap (scaling_max_freq) against its
+ * hardware maximum (cpuinfo_max_freq), and the CPU thermal zones, each time
+ * the CpuStateMonitor refreshes. The time between two samples is counted as
+ * throttled if the policy was capped at the first of them. Cap and
+ * temperature files stay open between samples; the hardware maximum is only
+ * read until it is known, since a policy whose CPUs are all offline has
+ * none yet. Not thread safe; the CpuStateMonitor calls it under its lock
+ */
+class ThrottleMonitor {
+    private static final String[] MAX_FREQ_PATHS = {
+            "/sys/devices/system/cpu/cpu#/cpufreq/scaling_max_freq"
+    };
+    private static final String[] HARDWARE_MAX_PATHS = {
+            "/sys/devices/system/cpu/cpu#/cpufreq/cpuinfo_max_freq"
+    };
+    private static final String THERMAL_DIR = "/sys/class/thermal";
+    private static final String ZONE_PREFIX = "thermal_zone";
+    /** capped intervals kept per policy */
+    private static final int RECENT_INTERVALS = 16;
+
+    private final Sysfs mSysfs;
+
+    private SysfsValueFile[] mCaps = new SysfsValueFile[0];
+    private int[] mHardwareMax = new int[0];
+    /** where the hardware maximum is read from; null once it is known */
+    private SysfsValueFile[] mHardwareMaxFiles = new SysfsValueFile[0];
+    private SysfsValueFile[] mZones;
+
+    /* per policy accounting */
+    private int[] mCap = new int[0];
+    private long[] mThrottled = new long[0];
+    private long[] mObserved = new long[0];
+    private int[] mEvents = new int[0];
+    /* per policy ring of recent capped intervals */
+    private long[][] mStarts = new long[0][];
+    private long[][] mEnds = new long[0][];
+    private int[][] mIntervalCaps = new int[0][];
+    private int[] mIntervals = new int[0];
+    private long mLastSample = -1;
+
+    ThrottleMonitor(Sysfs sysfs) {
+        mSysfs = sysfs;
+    }
+
+    /**
+     * Start over with a new set of policies
+     */
+    void setPolicies(CpuPolicy[] policies) {
+        close();
+        int count = policies.length;
+        mCaps = new SysfsValueFile[count];
+        mHardwareMax = new int[count];
+        mHardwareMaxFiles = new SysfsValueFile[count];
+        for (int p = 0; p < count; p++) {
+            mCaps[p] = SysfsValueFile.forPolicy(mSysfs, policies[p], MAX_FREQ_PATHS);
+            mHardwareMaxFiles[p] = SysfsValueFile.forPolicy(mSysfs, policies[p],
+                    HARDWARE_MAX_PATHS);
+            readHardwareMax(p);
+        }
+        mCap = new int[count];
+        mThrottled = new long[count];
+        mObserved = new long[count];
+        mEvents = new int[count];
+        mStarts = new long[count][RECENT_INTERVALS];
+        mEnds = new long[count][RECENT_INTERVALS];
+        mIntervalCaps = new int[count][RECENT_INTERVALS];
+        mIntervals = new int[count];
+        mLastSample = -1;
+    }
+
+    /**
+     * Read the caps and temperatures and update the throttled times
+     * @param now the elapsed time (ms) of the sample
+     * @param out receives one state per policy
+     */
+    void sample(long now, ThrottleState[] out) {
+        if (mZones == null) {
+            mZones = findCpuZones();
+        }
+        int temperature = ThrottleState.NO_TEMPERATURE;
+        for (SysfsValueFile zone : mZones) {
+            long temp = zone.read();
+            if (temp != Long.MIN_VALUE && temp > temperature && temp < Integer.MAX_VALUE) {
+                temperature = (int) temp;
+            }
+        }
+
+        long elapsed = mLastSample >= 0 && now > mLastSample ? now - mLastSample : 0;
+        mLastSample = now;
+        for (int p = 0; p < mCaps.length; p++) {
+            if (mHardwareMax[p] == 0) {
+                // the policy's CPUs were all offline so far
+                readHardwareMax(p);
+            }
+            boolean wasCapped = isCapped(p, mCap[p]);
+            long cap = mCaps[p].read();
+            int newCap = cap > 0 && cap <= Integer.MAX_VALUE ? (int) cap : 0;
+            boolean capped = isCapped(p, newCap);
+
+            mObserved[p] += elapsed;
+            if (wasCapped) {
+                mThrottled[p] += elapsed;
+            }
+            if (capped && !wasCapped) {
+                startInterval(p, now, newCap);
+            } else if (capped) {
+                int last = (mIntervals[p] - 1) % RECENT_INTERVALS;
+                mEnds[p][last] = now;
+                mIntervalCaps[p][last] = Math.min(mIntervalCaps[p][last], newCap);
+            } else if (wasCapped) {
+                mEnds[p][(mIntervals[p] - 1) % RECENT_INTERVALS] = now;
+            }
+            mCap[p] = newCap;
+
+            out[p] = newCap == 0 && mHardwareMax[p] == 0 ? ThrottleState.EMPTY
+                    : toState(p, temperature);
+        }
+    }
+
+    /** close every open file */
+    void close() {
+        for (SysfsValueFile cap : mCaps) {
+            cap.close();
+        }
+        for (SysfsValueFile hardwareMax : mHardwareMaxFiles) {
+            if (hardwareMax != null) {
+                hardwareMax.close();
+            }
+        }
+        if (mZones != null) {
+            for (SysfsValueFile zone : mZones) {
+                zone.close();
+            }
+            mZones = null;
+        }
+    }
+
+    /** read the policy's hardware maximum, closing the file once it is known */
+    private void readHardwareMax(int policy) {
+        long max = mHardwareMaxFiles[policy].read();
+        if (max > 0) {
+            mHardwareMax[policy] = (int) Math.min(Integer.MAX_VALUE, max);
+            mHardwareMaxFiles[policy].close();
+            mHardwareMaxFiles[policy] = null;
+        }
+    }
+
+    private boolean isCapped(int policy, int cap) {
+        return cap > 0 && cap < mHardwareMax[policy];
+    }
+
+    private void startInterval(int policy, long now, int cap) {
+        int slot = mIntervals[policy] % RECENT_INTERVALS;
+        mStarts[policy][slot] = now;
+        mEnds[policy][slot] = now;
+        mIntervalCaps[policy][slot] = cap;
+        mIntervals[policy]++;
+        mEvents[policy]++;
+    }
+
+    private ThrottleState toState(int p, int temperature) {
+        int count = Math.min(mIntervals[p], RECENT_INTERVALS);
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        int[] caps = new int[count];
+        for (int i = 0; i < count; i++) {
+            int slot = (mIntervals[p] - count + i) % RECENT_INTERVALS;
+            starts[i] = mStarts[p][slot];
+            ends[i] = mEnds[p][slot];
+            caps[i] = mIntervalCaps[p][slot];
+        }
+        return new ThrottleState(mCap[p], mHardwareMax[p], mThrottled[p], mObserved[p],
+                mEvents[p], temperature, starts, ends, caps);
+    }
+
+    /**
+     * @return the temperature files of the thermal zones whose type names a
+     * CPU or cluster sensor; board, battery and skin zones are left out
+     */
+    private SysfsValueFile[] findCpuZones() {
+        List<SysfsValueFile> zones = new ArrayList<>();
+        String[] names = mSysfs.file(THERMAL_DIR).list();
+        if (names == null) {
+            return new SysfsValueFile[0];
+        }
+        Arrays.sort(names);
+        SysfsReader reader = new SysfsReader(64);
+        for (String name : names) {
+            if (!name.startsWith(ZONE_PREFIX)) {
+                continue;
+            }
+            File dir = new File(mSysfs.file(THERMAL_DIR), name);
+            try {
+                reader.read(new File(dir, "type"));
+            } catch (IOException e) {
+                continue;
+            }
+            String type = reader.nextLineString().toLowerCase(Locale.US);
+            if (type.contains("cpu") || type.contains("cluster")) {
+                zones.add(new SysfsValueFile(new File(dir, "temp")));
+            }
+        }
+        return zones.toArray(new SysfsValueFile[zones.size()]);
+    }
+}
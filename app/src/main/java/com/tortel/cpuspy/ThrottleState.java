@@ -0,0 +1,113 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+/**
+ * Immutable frequency cap state of one policy: the cap in force at the last
+ * refresh against the hardware maximum, how long the policy has been seen
+ * capped out of the time it was watched, the CPU temperature, and the most
+ * recent capped intervals
+ */
+public class ThrottleState {
+    /** temperature when no CPU thermal zone could be read */
+    public static final int NO_TEMPERATURE = Integer.MIN_VALUE;
+
+    /** state for policies whose caps cannot be read */
+    public static final ThrottleState EMPTY = new ThrottleState(0, 0, 0, 0, 0,
+            NO_TEMPERATURE, new long[0], new long[0], new int[0]);
+
+    private final int mCap;
+    private final int mHardwareMax;
+    private final long mThrottledMillis;
+    private final long mObservedMillis;
+    private final int mEvents;
+    private final int mTemperature;
+    private final long[] mStarts;
+    private final long[] mEnds;
+    private final int[] mCaps;
+
+    /**
+     * @param starts the recent capped intervals' start times, oldest first
+     * @param ends their end times; the last may still be open
+     * @param caps the lowest cap seen in each
+     */
+    ThrottleState(int cap, int hardwareMax, long throttledMillis, long observedMillis,
+                  int events, int temperature, long[] starts, long[] ends, int[] caps) {
+        mCap = cap;
+        mHardwareMax = hardwareMax;
+        mThrottledMillis = throttledMillis;
+        mObservedMillis = observedMillis;
+        mEvents = events;
+        mTemperature = temperature;
+        mStarts = starts;
+        mEnds = ends;
+        mCaps = caps;
+    }
+
+    /** @return the scaling_max_freq (kHz) at the last refresh, 0 if unknown */
+    public int getCap() {
+        return mCap;
+    }
+
+    /** @return the cpuinfo_max_freq (kHz), 0 if unknown */
+    public int getHardwareMax() {
+        return mHardwareMax;
+    }
+
+    /** @return true if the policy was capped below its hardware maximum */
+    public boolean isCapped() {
+        return mCap > 0 && mCap < mHardwareMax;
+    }
+
+    /** @return how long (ms) the policy was seen capped */
+    public long getThrottledMillis() {
+        return mThrottledMillis;
+    }
+
+    /** @return how long (ms) the caps have been watched */
+    public long getObservedMillis() {
+        return mObservedMillis;
+    }
+
+    /** @return the share of the watched time spent capped, 0 to 1 */
+    public float getThrottledFraction() {
+        return mObservedMillis > 0 ? (float) mThrottledMillis / mObservedMillis : 0;
+    }
+
+    /** @return how many times the policy went from uncapped to capped */
+    public int getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * @return the hottest CPU thermal zone (millidegrees C), or
+     * NO_TEMPERATURE
+     */
+    public int getTemperature() {
+        return mTemperature;
+    }
+
+    /** @return the number of recent capped intervals kept */
+    public int getIntervalCount() {
+        return mStarts.length;
+    }
+
+    /** @return when (ms, elapsed realtime) capped interval i started */
+    public long getIntervalStart(int i) {
+        return mStarts[i];
+    }
+
+    /** @return when (ms, elapsed realtime) capped interval i ended */
+    public long getIntervalEnd(int i) {
+        return mEnds[i];
+    }
+
+    /** @return the lowest cap (kHz) during interval i */
+    public int getIntervalCap(int i) {
+        return mCaps[i];
+    }
+}
@@ -0,0 +1,106 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Parses time_in_state files ("freq ticks" per line) into primitive arrays.
+ * The read buffer and the result arrays are reused between calls, so a
+ * steady refresh loop does not allocate
+ */
+public class TimeInStateParser {
+    private static final int INITIAL_STATES = 32;
+
+    private final SysfsReader mReader;
+    private int[] mFreqs = new int[INITIAL_STATES];
+    private long[] mTimes = new long[INITIAL_STATES];
+    private int mCount;
+
+    public TimeInStateParser() {
+        this(new SysfsReader());
+    }
+
+    public TimeInStateParser(SysfsReader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Read and parse a time_in_state file
+     * @return the number of states found
+     */
+    public int parse(File file) throws IOException {
+        mReader.read(file);
+        return parse();
+    }
+
+    /**
+     * Parse whatever is currently loaded in the reader, from the start.
+     * Lines that do not hold a frequency/tick pair are skipped
+     * @return the number of states found
+     */
+    public int parse() {
+        SysfsReader reader = mReader;
+        reader.rewind();
+        mCount = 0;
+        while (true) {
+            reader.skipWhitespace();
+            if (reader.atEnd()) {
+                break;
+            }
+            long freq = reader.nextLong();
+            reader.skipSpaces();
+            long time = reader.nextLong();
+            if (freq >= 0 && freq <= Integer.MAX_VALUE && time >= 0) {
+                add((int) freq, time);
+            }
+            reader.skipLine();
+        }
+        return mCount;
+    }
+
+    /** forget the states from the last parse */
+    public void clear() {
+        mCount = 0;
+    }
+
+    private void add(int freq, long time) {
+        if (mCount == mFreqs.length) {
+            int[] freqs = new int[mCount * 2];
+            long[] times = new long[mCount * 2];
+            System.arraycopy(mFreqs, 0, freqs, 0, mCount);
+            System.arraycopy(mTimes, 0, times, 0, mCount);
+            mFreqs = freqs;
+            mTimes = times;
+        }
+        mFreqs[mCount] = freq;
+        mTimes[mCount] = time;
+        mCount++;
+    }
+
+    /** @return the reader holding the raw file contents */
+    public SysfsReader getReader() {
+        return mReader;
+    }
+
+    /** @return the number of states from the last parse */
+    public int getCount() {
+        return mCount;
+    }
+
+    /** @return the frequency (kHz) of state i */
+    public int getFreq(int i) {
+        return mFreqs[i];
+    }
+
+    /** @return the time (10ms ticks) spent in state i */
+    public long getTime(int i) {
+        return mTimes[i];
+    }
+}
@@ -0,0 +1,124 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+/**
+ * Immutable frequency transition matrix for one policy: how many times the
+ * governor moved from each frequency to each other one, frequencies lowest
+ * first as the kernel lists them. Kept as a dense long[][] with the total
+ * and the time it covers, so the transition rate is a single division
+ */
+public class TransTable {
+    /** table for policies without transition stats */
+    public static final TransTable EMPTY = new TransTable(new int[0], new long[0][0], 0, 0);
+
+    private final int[] mFreqs;
+    private final long[][] mCounts;
+    private final long mTotal;
+    private final long mTime;
+
+    /**
+     * @param freqs the row and column frequencies (kHz)
+     * @param counts counts[from][to]
+     * @param total the number of transitions
+     * @param time the time (ms) the counts cover
+     */
+    TransTable(int[] freqs, long[][] counts, long total, long time) {
+        mFreqs = freqs;
+        mCounts = counts;
+        mTotal = total;
+        mTime = time;
+    }
+
+    /**
+     * Copy the parsed table out of the parser
+     * @param total the kernel's total_trans, or -1 to sum the matrix
+     * @param time the elapsed time (ms) the table was read at
+     */
+    static TransTable fromParser(TransTableParser parser, long total, long time) {
+        int count = parser.getCount();
+        if (count == 0) {
+            return EMPTY;
+        }
+        int[] freqs = new int[count];
+        long[][] counts = new long[count][count];
+        long sum = 0;
+        for (int from = 0; from < count; from++) {
+            freqs[from] = parser.getFreq(from);
+            for (int to = 0; to < count; to++) {
+                counts[from][to] = parser.getTransitions(from, to);
+                sum += counts[from][to];
+            }
+        }
+        return new TransTable(freqs, counts, total >= 0 ? total : sum, time);
+    }
+
+    /** @return the number of frequencies, the matrix being count x count */
+    public int getCount() {
+        return mFreqs.length;
+    }
+
+    /** @return the frequency (kHz) of row and column i */
+    public int getFreq(int i) {
+        return mFreqs[i];
+    }
+
+    /** @return how many times the policy went from row from to column to */
+    public long getTransitions(int from, int to) {
+        return mCounts[from][to];
+    }
+
+    /** @return the largest cell, for scaling a heatmap */
+    public long getMaxTransitions() {
+        long max = 0;
+        for (long[] row : mCounts) {
+            for (long count : row) {
+                max = Math.max(max, count);
+            }
+        }
+        return max;
+    }
+
+    /** @return the total number of transitions */
+    public long getTotal() {
+        return mTotal;
+    }
+
+    /** @return the time (ms) the table covers */
+    public long getTime() {
+        return mTime;
+    }
+
+    /** @return transitions per second over the time the table covers */
+    public float getRate() {
+        return mTime > 0 ? mTotal * 1000f / mTime : 0;
+    }
+
+    /**
+     * @return the transitions since an earlier table of the same policy,
+     * or this table if the two do not line up or a counter went backwards
+     */
+    TransTable since(TransTable base) {
+        int count = mFreqs.length;
+        if (base.mFreqs.length != count || base.mTime > mTime || base.mTotal > mTotal) {
+            return this;
+        }
+        long[][] counts = new long[count][count];
+        for (int from = 0; from < count; from++) {
+            if (base.mFreqs[from] != mFreqs[from]) {
+                return this;
+            }
+            for (int to = 0; to < count; to++) {
+                counts[from][to] = mCounts[from][to] - base.mCounts[from][to];
+                if (counts[from][to] < 0) {
+                    return this;
+                }
+            }
+        }
+        return new TransTable(mFreqs, counts, mTotal - base.mTotal, mTime - base.mTime);
+    }
+}
@@ -0,0 +1,144 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Parses cpufreq stats/trans_table files into a flat primitive matrix:
+ *
+ *      From  :    To
+ *            :    300000    576000 ...
+ *      300000:         0        12 ...
+ *      576000:        15         0 ...
+ *
+ * Numbers are read straight out of the byte buffer, so a 40x40 table costs
+ * no String per cell. Buffers are reused between calls. Tables the kernel
+ * truncated at a page ("The table is FULL") keep the rows that made it
+ */
+public class TransTableParser {
+    private static final int INITIAL_STATES = 32;
+
+    private final SysfsReader mReader;
+    private int[] mFreqs = new int[INITIAL_STATES];
+    /** row-major, mCount x mCount */
+    private long[] mCells = new long[INITIAL_STATES * INITIAL_STATES];
+    private int mCount;
+
+    public TransTableParser() {
+        this(new SysfsReader());
+    }
+
+    public TransTableParser(SysfsReader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Read and parse a trans_table file
+     * @return the number of frequencies found
+     */
+    public int parse(File file) throws IOException {
+        mReader.read(file);
+        return parse();
+    }
+
+    /**
+     * Parse whatever is currently loaded in the reader, from the start
+     * @return the number of frequencies found
+     */
+    public int parse() {
+        SysfsReader reader = mReader;
+        reader.rewind();
+        mCount = 0;
+
+        // "From : To", then the column frequencies
+        reader.skipLine();
+        reader.skipSpaces();
+        while (!reader.atEndOfLine()) {
+            long freq = reader.nextLong();
+            if (freq < 0 || freq > Integer.MAX_VALUE) {
+                break;
+            }
+            addFreq((int) freq);
+            reader.skipSpaces();
+        }
+        reader.skipLine();
+
+        int count = mCount;
+        long[] cells = mCells;
+        for (int i = count * count - 1; i >= 0; i--) {
+            cells[i] = 0;
+        }
+        for (int row = 0; row < count && !reader.atEnd(); row++) {
+            reader.skipSpaces();
+            long from = reader.nextLong();
+            if (from < 0) {
+                break;
+            }
+            int index = from == mFreqs[row] ? row : indexOf((int) from);
+            reader.skipSpaces();
+            for (int column = 0; column < count && index >= 0; column++) {
+                long value = reader.nextLong();
+                if (value < 0) {
+                    break;
+                }
+                cells[index * count + column] = value;
+                reader.skipSpaces();
+            }
+            reader.skipLine();
+        }
+        return count;
+    }
+
+    private void addFreq(int freq) {
+        if (mCount == mFreqs.length) {
+            int[] freqs = new int[mCount * 2];
+            System.arraycopy(mFreqs, 0, freqs, 0, mCount);
+            mFreqs = freqs;
+        }
+        mFreqs[mCount++] = freq;
+        if (mCells.length < mCount * mCount) {
+            mCells = new long[mFreqs.length * mFreqs.length];
+        }
+    }
+
+    private int indexOf(int freq) {
+        for (int i = 0; i < mCount; i++) {
+            if (mFreqs[i] == freq) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** @return the reader holding the raw file contents */
+    public SysfsReader getReader() {
+        return mReader;
+    }
+
+    /** @return the number of frequencies from the last parse */
+    public int getCount() {
+        return mCount;
+    }
+
+    /** @return the frequency (kHz) of row and column i */
+    public int getFreq(int i) {
+        return mFreqs[i];
+    }
+
+    /** @return how many times the policy went from frequency from to to */
+    public long getTransitions(int from, int to) {
+        return mCells[from * mCount + to];
+    }
+
+    /** forget the table from the last parse */
+    public void clear() {
+        mCount = 0;
+    }
+}
@@ -0,0 +1,310 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Attributes CPU frequency residency to apps, from the /proc/uid_time_in_state
+ * file of kernels with CONFIG_CPU_FREQ_TIMES. The file has a header line of
+ * frequencies, every policy's listed lowest first, then one line of times per
+ * UID:
+ *
+ *   uid: 300000 576000 ... 300000 710400 ...
+ *   0: 120 4 ...
+ *   10123: 9 0 ...
+ *
+ * It can be megabytes on a busy device, so it is parsed in one streaming pass
+ * through a small fixed buffer and only two numbers are kept per UID: the
+ * total time and the time spent at a high frequency. UIDs live in an open
+ * addressing table of primitive arrays, so nothing is boxed. Each update
+ * works out how much every UID gained since the previous one, and getTop
+ * ranks the UIDs by their gain in high frequency time
+ */
+public class UidTimeInState {
+    static final String UID_TIME_IN_STATE_PATH = "/proc/uid_time_in_state";
+    private static final int CHUNK_SIZE = 8192;
+    private static final int EMPTY = -1;
+    /** a frequency counts as high from this share of its policy's maximum */
+    public static final float DEFAULT_HIGH_FRACTION = 0.75f;
+
+    private final Sysfs mSysfs;
+    private final byte[] mChunk = new byte[CHUNK_SIZE];
+    private float mHighFraction = DEFAULT_HIGH_FRACTION;
+
+    /* the header; whether each column is a high frequency */
+    private int[] mFreqs = new int[64];
+    private int mFreqCount;
+    private boolean[] mHigh = new boolean[0];
+
+    /* the UID table: open addressing on mKeys, values in parallel arrays */
+    private int[] mKeys = new int[0];
+    private long[] mTotal = new long[0];
+    private long[] mHighTime = new long[0];
+    private long[] mTotalDelta = new long[0];
+    private long[] mHighDelta = new long[0];
+    /** the update a slot was last seen in; UIDs that went away are dropped */
+    private int[] mSeen = new int[0];
+    private int mSize;
+    private int mGeneration;
+    private int mLive;
+
+    public UidTimeInState(Sysfs sysfs) {
+        mSysfs = sysfs;
+        allocate(256);
+    }
+
+    /** @return true if the kernel has per-UID frequency times */
+    public boolean isSupported() {
+        return mSysfs.file(UID_TIME_IN_STATE_PATH).canRead();
+    }
+
+    /**
+     * @param fraction a frequency is high from this share of its policy's
+     *                 highest frequency on; takes effect on the next update
+     */
+    public void setHighFraction(float fraction) {
+        mHighFraction = fraction;
+    }
+
+    /** @return the number of UIDs in the last update */
+    public int getUidCount() {
+        return mLive;
+    }
+
+    /**
+     * Read the file and work out every UID's gain since the previous
+     * update. After the first update the gain is the time since boot
+     */
+    public void update() throws IOException {
+        mGeneration++;
+        mLive = 0;
+        InputStream in = new FileInputStream(mSysfs.file(UID_TIME_IN_STATE_PATH));
+        try {
+            parse(in);
+        } finally {
+            in.close();
+        }
+        if (mSize > 2 * mLive + 64) {
+            rehash(mKeys.length);
+        }
+    }
+
+    /**
+     * Rank the UIDs by high frequency time gained in the last interval
+     * @param uids receives the top UIDs, at most uids.length of them
+     * @param highTimes receives their high frequency time (ticks)
+     * @param totalTimes receives their total time (ticks)
+     * @return the number of UIDs ranked
+     */
+    public int getTop(int[] uids, long[] highTimes, long[] totalTimes) {
+        if (uids.length == 0) {
+            return 0;
+        }
+        int count = 0;
+        for (int slot = 0; slot < mKeys.length; slot++) {
+            if (mKeys[slot] == EMPTY || mSeen[slot] != mGeneration) {
+                continue;
+            }
+            long high = mHighDelta[slot];
+            if (count == uids.length && high <= highTimes[count - 1]) {
+                continue;
+            }
+            // insertion into the short sorted list
+            int i = count < uids.length ? count++ : count - 1;
+            while (i > 0 && highTimes[i - 1] < high) {
+                uids[i] = uids[i - 1];
+                highTimes[i] = highTimes[i - 1];
+                totalTimes[i] = totalTimes[i - 1];
+                i--;
+            }
+            uids[i] = mKeys[slot];
+            highTimes[i] = high;
+            totalTimes[i] = mTotalDelta[slot];
+        }
+        return count;
+    }
+
+    /**
+     * One pass over the file. A line is a run of numbers; the first line's
+     * are frequencies, every other line's are a UID then its times
+     */
+    private void parse(InputStream in) throws IOException {
+        // the header is read again on every update
+        mFreqCount = 0;
+        boolean header = true;
+        int column = -1;
+        long number = 0;
+        boolean inNumber = false;
+        int uid = EMPTY;
+        long total = 0;
+        long high = 0;
+
+        int read;
+        while ((read = in.read(mChunk)) > 0) {
+            for (int i = 0; i < read; i++) {
+                byte b = mChunk[i];
+                int digit = b - '0';
+                if (digit >= 0 && digit <= 9) {
+                    number = number > (Long.MAX_VALUE - digit) / 10
+                            ? Long.MAX_VALUE : number * 10 + digit;
+                    inNumber = true;
+                    continue;
+                }
+                if (inNumber) {
+                    // end of a number
+                    if (header) {
+                        addFreq((int) Math.min(number, Integer.MAX_VALUE));
+                    } else if (column < 0) {
+                        uid = (int) Math.min(number, Integer.MAX_VALUE);
+                    } else if (column < mFreqCount) {
+                        total += number;
+                        if (mHigh[column]) {
+                            high += number;
+                        }
+                    }
+                    column++;
+                    number = 0;
+                    inNumber = false;
+                }
+                if (b == '\n') {
+                    if (header) {
+                        header = false;
+                        markHighFreqs();
+                    } else if (uid != EMPTY) {
+                        record(uid, total, high);
+                    }
+                    column = -1;
+                    uid = EMPTY;
+                    total = 0;
+                    high = 0;
+                }
+            }
+        }
+        if (inNumber && !header && column >= 0 && column < mFreqCount) {
+            total += number;
+            if (mHigh[column]) {
+                high += number;
+            }
+        }
+        if (!header && uid != EMPTY) {
+            record(uid, total, high);
+        }
+    }
+
+    private void addFreq(int freq) {
+        if (mFreqCount == mFreqs.length) {
+            mFreqs = Arrays.copyOf(mFreqs, mFreqCount * 2);
+        }
+        mFreqs[mFreqCount++] = freq;
+    }
+
+    /**
+     * Split the header into policies, each of which lists its frequencies
+     * lowest first, and mark every column at or above the high fraction of
+     * its policy's maximum
+     */
+    private void markHighFreqs() {
+        mHigh = new boolean[mFreqCount];
+        int start = 0;
+        while (start < mFreqCount) {
+            int end = start + 1;
+            while (end < mFreqCount && mFreqs[end] > mFreqs[end - 1]) {
+                end++;
+            }
+            float threshold = mFreqs[end - 1] * mHighFraction;
+            for (int i = start; i < end; i++) {
+                mHigh[i] = mFreqs[i] >= threshold;
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Store a UID's times and its gain since the previous update
+     */
+    private void record(int uid, long total, long high) {
+        if ((mSize + 1) * 2 > mKeys.length) {
+            rehash(mKeys.length * 2);
+        }
+        int slot = find(mKeys, uid);
+        if (mKeys[slot] == EMPTY) {
+            mKeys[slot] = uid;
+            mSize++;
+            mTotal[slot] = 0;
+            mHighTime[slot] = 0;
+        } else if (mSeen[slot] == mGeneration) {
+            // listed twice; add up
+            mTotal[slot] += total;
+            mHighTime[slot] += high;
+            mTotalDelta[slot] += total;
+            mHighDelta[slot] += high;
+            return;
+        }
+        // a counter going backwards means the UID was reused
+        mTotalDelta[slot] = total >= mTotal[slot] ? total - mTotal[slot] : total;
+        mHighDelta[slot] = high >= mHighTime[slot] ? high - mHighTime[slot] : high;
+        mTotal[slot] = total;
+        mHighTime[slot] = high;
+        if (mSeen[slot] != mGeneration) {
+            mSeen[slot] = mGeneration;
+            mLive++;
+        }
+    }
+
+    private static int find(int[] keys, int uid) {
+        int mask = keys.length - 1;
+        int slot = (uid * 0x9E3779B9) >>> 7 & mask;
+        while (keys[slot] != EMPTY && keys[slot] != uid) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        Arrays.fill(mKeys, EMPTY);
+        mTotal = new long[capacity];
+        mHighTime = new long[capacity];
+        mTotalDelta = new long[capacity];
+        mHighDelta = new long[capacity];
+        mSeen = new int[capacity];
+        mSize = 0;
+    }
+
+    /**
+     * Rebuild the table at the given capacity, keeping only the UIDs seen
+     * in the current or previous update
+     */
+    private void rehash(int capacity) {
+        int[] keys = mKeys;
+        long[] total = mTotal;
+        long[] highTime = mHighTime;
+        long[] totalDelta = mTotalDelta;
+        long[] highDelta = mHighDelta;
+        int[] seen = mSeen;
+        allocate(capacity);
+        for (int old = 0; old < keys.length; old++) {
+            if (keys[old] == EMPTY || seen[old] < mGeneration - 1) {
+                continue;
+            }
+            int slot = find(mKeys, keys[old]);
+            mKeys[slot] = keys[old];
+            mTotal[slot] = total[old];
+            mHighTime[slot] = highTime[old];
+            mTotalDelta[slot] = totalDelta[old];
+            mHighDelta[slot] = highDelta[old];
+            mSeen[slot] = seen[old];
+            mSize++;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.tortel.cpuspy.ui;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import com.tortel.cpuspy.CpuSpyApp;
+import com.tortel.cpuspy.LatencyHistogram;
+import com.tortel.cpuspy.MonitorMetrics;
+import com.tortel.cpuspy.MonitorState;
+import com.tortel.cpuspy.R;
+import com.tortel.cpuspy.RefreshScheduler;
+
+/**
+ * Hidden screen showing what CPU Spy itself costs, see MonitorMetrics.
+ * Opened by long pressing the kernel line; updated after every refresh
+ */
+public class DiagnosticsActivity extends AppCompatActivity implements RefreshScheduler.Listener {
+    private CpuSpyApp mApp;
+    private TextView mText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.diagnostics_layout);
+        mApp = (CpuSpyApp) getApplicationContext();
+        mText = findViewById(R.id.ui_diagnostics);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mApp.getRefreshScheduler().addListener(this);
+        updateView();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mApp.getRefreshScheduler().removeListener(this);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.diagnostics_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+        /* read the monitor again, so there is something new to show */
+        case R.id.menu_refresh:
+            mApp.getRefreshScheduler().requestRefresh();
+            return true;
+        /* count from now on */
+        case R.id.menu_reset_metrics:
+            MonitorMetrics.INSTANCE.reset();
+            updateView();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    public void onStatesUpdated(MonitorState state) {
+        updateView();
+    }
+
+    private void updateView() {
+        MonitorMetrics metrics = MonitorMetrics.INSTANCE;
+        StringBuilder text = new StringBuilder();
+        text.append(getString(R.string.diagnostics_summary,
+                StateFormatter.sToString(metrics.getElapsedMillis() / 1000),
+                metrics.getBusyPpm() / 10000f,
+                metrics.getFilesOpened(), metrics.getBytesRead()));
+        text.append('\n').append(getString(R.string.diagnostics_cpu, metrics.getCpuPpm() / 10000f));
+        if (metrics.getSamplerInterval() > 0) {
+            text.append('\n').append(getString(R.string.diagnostics_sampler,
+                    metrics.getSamplerInterval()));
+        }
+        for (int stage = 0; stage < MonitorMetrics.STAGE_COUNT; stage++) {
+            LatencyHistogram histogram = metrics.getHistogram(stage);
+            text.append("\n\n").append(getString(R.string.diagnostics_stage,
+                    MonitorMetrics.getStageName(stage), histogram.getCount(),
+                    histogram.getMeanMicros(), histogram.getPercentileMicros(50),
+                    histogram.getPercentileMicros(90), histogram.getPercentileMicros(99),
+                    histogram.getMaxMicros()));
+            if (metrics.tracksAllocations(stage)) {
+                text.append('\n').append(getString(R.string.diagnostics_alloc,
+                        metrics.getAllocatedPerRun(stage)));
+            }
+        }
+        mText.setText(text);
+    }
+}
@@ -0,0 +1,53 @@
+package com.tortel.cpuspy.ui;
+
+import java.util.Arrays;
+
+/**
+ * Cache of frequency labels ("1804 MHz"). A policy's frequencies never
+ * change, so after the first refresh every label comes from here instead
+ * of being concatenated again. Not thread safe; use it from the UI thread
+ */
+public class FreqLabels {
+    /** past this many frequencies labels are made, not cached */
+    private static final int MAX_LABELS = 256;
+
+    private final String mZeroLabel;
+    private int[] mFreqs = new int[16];
+    private String[] mLabels = new String[16];
+    private int mCount;
+
+    /**
+     * @param zeroLabel the label of frequency 0, deep sleep
+     */
+    public FreqLabels(String zeroLabel) {
+        mZeroLabel = zeroLabel;
+    }
+
+    /**
+     * @param freq the frequency, kHz
+     * @return its label, in MHz
+     */
+    public String get(int freq) {
+        if (freq == 0) {
+            return mZeroLabel;
+        }
+        int index = Arrays.binarySearch(mFreqs, 0, mCount, freq);
+        if (index >= 0) {
+            return mLabels[index];
+        }
+        String label = freq / 1000 + " MHz";
+        if (mCount < MAX_LABELS) {
+            int insert = -index - 1;
+            if (mCount == mFreqs.length) {
+                mFreqs = Arrays.copyOf(mFreqs, mCount * 2);
+                mLabels = Arrays.copyOf(mLabels, mCount * 2);
+            }
+            System.arraycopy(mFreqs, insert, mFreqs, insert + 1, mCount - insert);
+            System.arraycopy(mLabels, insert, mLabels, insert + 1, mCount - insert);
+            mFreqs[insert] = freq;
+            mLabels[insert] = label;
+            mCount++;
+        }
+        return label;
+    }
+}
@@ -6,35 +6,82 @@
 
 package com.tortel.cpuspy.ui;
 
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.content.BroadcastReceiver;
-import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.support.v4.content.LocalBroadcastManager;
+import android.content.pm.PackageManager;
 import android.support.v4.view.ViewPager;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.View;
+import android.widget.TextView;
 
 import com.ogaclejapan.smarttablayout.SmartTabLayout;
 import com.tortel.cpuspy.*;
-import com.tortel.cpuspy.CpuStateMonitor.CpuStateMonitorException;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.IOException;
+
 /** main activity class */
-public class HomeActivity extends AppCompatActivity {
+public class HomeActivity extends AppCompatActivity
+        implements RefreshScheduler.Listener, HotplugWatcher.Listener {
     private static final String TAG = "CpuSpy";
-    public static final String DATA_LOADED = "LOADED";
+    private static final String STATE_CLUSTER_VIEW = "cluster_view";
+    private static final String STATE_LIVE_MODE = "live_mode";
+    /** interval windows (ms), matching R.array.interval_window_names */
+    private static final long[] INTERVAL_WINDOWS = {
+            0, 10000, 30000, 60000, 300000
+    };
+    /** sampling intervals (ms), matching R.array.sample_interval_names */
+    private static final long[] SAMPLE_INTERVALS = {
+            100, 250, 1000, 5000, 15000, 60000
+    };
+    /** CPU budgets (share of one core), matching R.array.sample_budget_names */
+    private static final float[] SAMPLE_BUDGETS = {
+            0.001f, 0.005f, 0.01f, 0.02f, 0.05f
+    };
+    /** what each of R.array.export_names exports, and in which format */
+    private static final String[] EXPORT_PATHS = {
+            ExportProvider.PATH_CURRENT, ExportProvider.PATH_CURRENT,
+            ExportProvider.PATH_HISTORY, ExportProvider.PATH_HISTORY, ExportProvider.PATH_HISTORY,
+            ExportProvider.PATH_METRICS, ExportProvider.PATH_METRICS
+    };
+    private static final int[] EXPORT_FORMATS = {
+            Exporter.FORMAT_CSV, Exporter.FORMAT_NDJSON,
+            Exporter.FORMAT_CSV, Exporter.FORMAT_NDJSON, Exporter.FORMAT_BINARY,
+            Exporter.FORMAT_CSV, Exporter.FORMAT_NDJSON
+    };
+    /** how many apps the top apps dialog lists */
+    private static final int TOP_APPS = 10;
 
     private CpuSpyApp mApp = null;
-    private DataReceiver mReceiver = new DataReceiver();
     private StateFragmentAdapter mAdapter;
     private ViewPager mPager;
     private SmartTabLayout mIndicator;
 
+    /** whether "restore timers" was last enabled */
+    private boolean mHasOffsets;
+
+    /** live current frequency mode, drained once per frame */
+    private boolean mLiveMode;
+    private long[] mLiveTimes = new long[0];
+    private int[] mLiveFreqs = new int[0];
+    private int[] mCurrentFreqs = new int[0];
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            drainLiveSamples();
+            if (mLiveMode) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    };
+
     /**
      * Initialize the Activity
      */
@@ -46,7 +93,12 @@ public class HomeActivity extends AppCompatActivity {
         setContentView(R.layout.home_layout);
         mApp = (CpuSpyApp)getApplicationContext();
         mAdapter = new StateFragmentAdapter(mApp, getSupportFragmentManager());
-        LocalBroadcastManager.getInstance(this).registerReceiver(mReceiver, new IntentFilter(DATA_LOADED));
+        if (savedInstanceState != null) {
+            mAdapter.setClusterView(savedInstanceState.getBoolean(STATE_CLUSTER_VIEW));
+            mLiveMode = savedInstanceState.getBoolean(STATE_LIVE_MODE);
+        }
+        mApp.getRefreshScheduler().addListener(this);
+        mApp.getHotplugWatcher().addListener(this);
 
         mPager = findViewById(R.id.pager);
         mPager.setAdapter(mAdapter);
@@ -55,10 +107,27 @@ public class HomeActivity extends AppCompatActivity {
         mIndicator.setViewPager(mPager);
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_CLUSTER_VIEW, mAdapter.isClusterView());
+        outState.putBoolean(STATE_LIVE_MODE, mLiveMode);
+    }
+
+    /**
+     * Keep what is on screen for the next cold start
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mApp.saveStartupCache();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
+        mApp.getRefreshScheduler().removeListener(this);
+        mApp.getHotplugWatcher().removeListener(this);
     }
 
     /**
@@ -67,9 +136,23 @@ public class HomeActivity extends AppCompatActivity {
     @Override
     public void onResume () {
         super.onResume();
+        mApp.getHotplugWatcher().start();
+        if (mLiveMode) {
+            startLiveMode();
+        }
         refreshData();
     }
 
+    /**
+     * Stop watching for hotplug while nothing is on screen
+     */
+    @Override
+    public void onPause() {
+        super.onPause();
+        mApp.getHotplugWatcher().stop();
+        stopLiveMode();
+    }
+
     /**
      * Called when we want to infalte the menu
      */
@@ -78,6 +161,15 @@ public class HomeActivity extends AppCompatActivity {
         // request inflater from activity and inflate into its menu
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.home_menu, menu);
+        menu.findItem(R.id.menu_cluster_view).setChecked(mAdapter.isClusterView());
+        menu.findItem(R.id.menu_sampling).setChecked(mApp.isSampling());
+        menu.findItem(R.id.menu_live_mode).setChecked(mLiveMode);
+        menu.findItem(R.id.menu_sample_screen_off).setChecked(SamplerService.isKeepScreenOff(this));
+        menu.findItem(R.id.menu_interval_mode).setChecked(
+                mApp.getCpuStateMonitor().getMode() == CpuStateMonitor.MODE_INTERVAL);
+        // there is only something to restore after a reset
+        mHasOffsets = mApp.getCpuStateMonitor().hasOffsets();
+        menu.findItem(R.id.menu_restore_timers).setEnabled(mHasOffsets);
 
         // made it
         return true;
@@ -94,70 +186,400 @@ public class HomeActivity extends AppCompatActivity {
         case R.id.menu_refresh:
             refreshData();
             break;
+        /* count the times from now on, or from boot again */
+        case R.id.menu_reset_timers:
+            setOffsets(true);
+            break;
+        case R.id.menu_restore_timers:
+            setOffsets(false);
+            break;
+        /* toggled between time since boot and over the interval */
+        case R.id.menu_interval_mode:
+            item.setChecked(!item.isChecked());
+            mApp.getCpuStateMonitor().setMode(item.isChecked()
+                    ? CpuStateMonitor.MODE_INTERVAL : CpuStateMonitor.MODE_CUMULATIVE);
+            updatePages();
+            break;
+        /* pick how far back the interval reaches */
+        case R.id.menu_interval_window:
+            showIntervalWindowDialog();
+            break;
+        /* toggled the live current frequency */
+        case R.id.menu_live_mode:
+            item.setChecked(!item.isChecked());
+            mLiveMode = item.isChecked();
+            if (mLiveMode) {
+                startLiveMode();
+            } else {
+                stopLiveMode();
+            }
+            break;
+        /* toggled the background sampler */
+        case R.id.menu_sampling:
+            item.setChecked(!item.isChecked());
+            if (item.isChecked()) {
+                SamplerService.start(this);
+            } else {
+                SamplerService.stop(this);
+            }
+            break;
+        /* pick how often the background sampler reads */
+        case R.id.menu_sample_interval:
+            showSampleIntervalDialog();
+            break;
+        /* pick how much CPU the background sampler may cost */
+        case R.id.menu_sample_budget:
+            showSampleBudgetDialog();
+            break;
+        /* toggled sampling on with the screen off */
+        case R.id.menu_sample_screen_off:
+            item.setChecked(!item.isChecked());
+            SamplerService.setKeepScreenOff(this, item.isChecked());
+            if (mApp.isSampling()) {
+                SamplerService.start(this);
+            }
+            break;
+        /* share an export through the export provider */
+        case R.id.menu_export:
+            showExportDialog();
+            break;
+        /* which apps kept the CPUs at high clocks */
+        case R.id.menu_top_apps:
+            showTopApps();
+            break;
+        /* toggled one page per cluster */
+        case R.id.menu_cluster_view:
+            item.setChecked(!item.isChecked());
+            mAdapter.setClusterView(item.isChecked());
+            reloadPages();
+            break;
         }
 
         // made it
         return true;
     }
 
-    private class DataReceiver extends BroadcastReceiver {
+    /**
+     * Called on the UI thread once the refresh scheduler published new states
+     */
+    @Override
+    public void onStatesUpdated(MonitorState state) {
+        updatePages();
+        if (mApp.getCpuStateMonitor().hasOffsets() != mHasOffsets) {
+            invalidateOptionsMenu();
+        }
+    }
 
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            mAdapter.notifyDataSetChanged();
-            mPager.setAdapter(mAdapter);
-            mIndicator.setViewPager(mPager);
+    /**
+     * Called on the UI thread when CPUs went on or offline. Only the pages
+     * and tabs of those CPUs are updated
+     */
+    @Override
+    public void onCpusChanged(MonitorState state, int[] cpus) {
+        if (cpus == null) {
+            reloadPages();
+            return;
         }
+        for (int cpu : cpus) {
+            int position = mAdapter.getPosition(cpu);
+            StateFragment fragment = mAdapter.getFragment(position);
+            if (fragment != null && fragment.getView() != null) {
+                fragment.updateView();
+            }
+            View tab = mIndicator.getTabAt(position);
+            if (tab instanceof TextView) {
+                ((TextView) tab).setText(mAdapter.getPageTitle(position));
+            }
+        }
+    }
+
+    private void startLiveMode() {
+        mApp.getLiveSampler().start(LiveSampler.DEFAULT_RATE);
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
     }
 
     /**
-     * Attempt to update the time-in-state info
+     * Stop the sampler and hide the live frequency
      */
-    public void refreshData() {
-        new RefreshStateDataTask(mApp.getBaseContext(), mApp.getCpuStateMonitor()).execute();
+    private void stopLiveMode() {
+        mApp.getLiveSampler().stop();
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        showCurrentFreqs(null, 0);
     }
 
     /**
-     * Keep updating the state data off the UI thread for slow devices
+     * Take everything the live sampler queued since the last frame and show
+     * the latest frequencies
      */
-    protected static class RefreshStateDataTask extends AsyncTask<Void, Void, Void> {
-        private Context mContext;
-        private CpuStateMonitor mMonitor;
+    private void drainLiveSamples() {
+        FreqSampleQueue queue = mApp.getLiveSampler().getQueue();
+        int policies = queue.getPolicyCount();
+        int capacity = queue.getCapacity();
+        if (mLiveTimes.length != capacity || mLiveFreqs.length != capacity * policies) {
+            mLiveTimes = new long[capacity];
+            mLiveFreqs = new int[capacity * policies];
+            mCurrentFreqs = new int[policies];
+        }
+        int count = queue.drain(mLiveTimes, mLiveFreqs, capacity);
+        if (count > 0) {
+            System.arraycopy(mLiveFreqs, (count - 1) * policies, mCurrentFreqs, 0, policies);
+            showCurrentFreqs(mCurrentFreqs, policies);
+        }
+    }
 
-        public RefreshStateDataTask(Context context, CpuStateMonitor monitor) {
-            mMonitor = monitor;
-            mContext = context;
+    private void showCurrentFreqs(int[] freqs, int count) {
+        MonitorState state = mApp.getCpuStateMonitor().getState();
+        for (int position = 0; position < mAdapter.getCount(); position++) {
+            StateFragment fragment = mAdapter.getFragment(position);
+            if (fragment != null) {
+                fragment.setCurrentFreqs(state, freqs, count);
+            }
         }
+    }
 
-        /**
-         * Stuff to do on a seperate thread
-         */
-        @Override
-        protected Void doInBackground(Void... v) {
-            try {
-                mMonitor.updateStates();
-            } catch (CpuStateMonitorException e) {
-                Log.e(TAG, "Problem getting CPU states", e);
+    /**
+     * Set or remove the offsets off the main thread, since they are saved
+     * to disk, then refresh
+     * @param reset true to reset the timers, false to restore them
+     */
+    private void setOffsets(final boolean reset) {
+        final CpuStateMonitor monitor = mApp.getCpuStateMonitor();
+        mApp.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (reset) {
+                    try {
+                        monitor.setOffsets();
+                    } catch (CpuStateMonitor.CpuStateMonitorException e) {
+                        Log.e(TAG, "Problem resetting the timers", e);
+                    }
+                } else {
+                    monitor.removeOffsets();
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshData();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the per-app frequency times off the UI thread and list the apps
+     * that spent the most time at high frequencies since the last time the
+     * list was shown (since boot the first time)
+     */
+    private void showTopApps() {
+        final UidTimeInState uidTimes = mApp.getUidTimes();
+        final PackageManager pm = getPackageManager();
+        mApp.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final String message;
+                final CharSequence[] rows;
+                if (!uidTimes.isSupported()) {
+                    message = getString(R.string.top_apps_unsupported);
+                    rows = null;
+                } else {
+                    int[] uids = new int[TOP_APPS];
+                    long[] highTimes = new long[TOP_APPS];
+                    long[] totalTimes = new long[TOP_APPS];
+                    int count;
+                    synchronized (uidTimes) {
+                        try {
+                            uidTimes.update();
+                            count = uidTimes.getTop(uids, highTimes, totalTimes);
+                        } catch (IOException e) {
+                            Log.e(TAG, "Problem reading per-app frequency times", e);
+                            count = 0;
+                        }
+                    }
+                    message = count == 0 ? getString(R.string.top_apps_empty) : null;
+                    rows = new CharSequence[count];
+                    for (int i = 0; i < count; i++) {
+                        String name = pm.getNameForUid(uids[i]);
+                        rows[i] = getString(R.string.top_apps_row,
+                                name != null ? name : String.valueOf(uids[i]),
+                                StateFormatter.sToString(highTimes[i] / 100),
+                                StateFormatter.sToString(totalTimes[i] / 100));
+                    }
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        AlertDialog.Builder builder = new AlertDialog.Builder(HomeActivity.this)
+                                .setTitle(R.string.top_apps)
+                                .setPositiveButton(android.R.string.ok, null);
+                        if (message != null) {
+                            builder.setMessage(message);
+                        } else {
+                            builder.setItems(rows, null);
+                        }
+                        builder.show();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Let the user pick what to export, then hand the provider's URI to a
+     * share chooser; the receiving app streams it from the provider
+     */
+    private void showExportDialog() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.export)
+                .setItems(R.array.export_names, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        int format = EXPORT_FORMATS[which];
+                        Intent share = new Intent(Intent.ACTION_SEND)
+                                .setType(Exporter.getMimeType(format))
+                                .putExtra(Intent.EXTRA_STREAM,
+                                        ExportProvider.getUri(EXPORT_PATHS[which], format))
+                                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                        startActivity(Intent.createChooser(share, getString(R.string.export)));
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Let the user pick how far back the interval reaches, switching to the
+     * interval mode and refreshing so the new window shows
+     */
+    private void showIntervalWindowDialog() {
+        final CpuStateMonitor monitor = mApp.getCpuStateMonitor();
+        long current = monitor.getIntervalWindow();
+        int checked = 0;
+        for (int i = 0; i < INTERVAL_WINDOWS.length; i++) {
+            if (INTERVAL_WINDOWS[i] == current) {
+                checked = i;
             }
-            return null;
         }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.interval_window)
+                .setSingleChoiceItems(R.array.interval_window_names, checked,
+                        new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        monitor.setIntervalWindow(INTERVAL_WINDOWS[which]);
+                        monitor.setMode(CpuStateMonitor.MODE_INTERVAL);
+                        invalidateOptionsMenu();
+                        refreshData();
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
 
-        /**
-         * Executed on the UI thread right before starting the task
-         */
-        @Override
-        protected void onPreExecute() {
+    /**
+     * Let the user pick the background sampling interval, restarting the
+     * sampler if it is running so the new interval takes effect
+     */
+    private void showSampleIntervalDialog() {
+        long current = SamplerService.getInterval(this);
+        int checked = 0;
+        for (int i = 0; i < SAMPLE_INTERVALS.length; i++) {
+            if (SAMPLE_INTERVALS[i] == current) {
+                checked = i;
+            }
         }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.sample_interval)
+                .setSingleChoiceItems(R.array.sample_interval_names, checked,
+                        new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        SamplerService.setInterval(HomeActivity.this, SAMPLE_INTERVALS[which]);
+                        if (mApp.isSampling()) {
+                            SamplerService.start(HomeActivity.this);
+                        }
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
 
-        /**
-         * Executed on UI thread after task
-         */
-        @Override
-        protected void onPostExecute(Void v) {
-            LocalBroadcastManager.getInstance(mContext).sendBroadcast(new Intent(DATA_LOADED));
+    /**
+     * Let the user pick the background sampler's CPU budget, restarting the
+     * sampler if it is running so the new budget takes effect
+     */
+    private void showSampleBudgetDialog() {
+        float current = SamplerService.getBudget(this);
+        int checked = 0;
+        for (int i = 0; i < SAMPLE_BUDGETS.length; i++) {
+            if (SAMPLE_BUDGETS[i] == current) {
+                checked = i;
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.sample_budget)
+                .setSingleChoiceItems(R.array.sample_budget_names, checked,
+                        new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        SamplerService.setBudget(HomeActivity.this, SAMPLE_BUDGETS[which]);
+                        if (mApp.isSampling()) {
+                            SamplerService.start(HomeActivity.this);
+                        }
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Update the attached pages and their tab titles in place. Only if the
+     * number of CPUs or policies changed are the pages and tabs rebuilt
+     */
+    private void updatePages() {
+        if (mAdapter.isStale()) {
+            reloadPages();
+            return;
+        }
+        for (int position = 0; position < mAdapter.getCount(); position++) {
+            StateFragment fragment = mAdapter.getFragment(position);
+            if (fragment != null && fragment.getView() != null) {
+                fragment.updateView();
+            }
+            View tab = mIndicator.getTabAt(position);
+            CharSequence title = mAdapter.getPageTitle(position);
+            if (tab instanceof TextView && !TextUtils.equals(((TextView) tab).getText(), title)) {
+                ((TextView) tab).setText(title);
+            }
         }
     }
 
+    /**
+     * Recount the pages, recreating only those whose CPU moved, rebuild
+     * the tabs and update the pages that were kept
+     */
+    private void reloadPages() {
+        mAdapter.notifyDataSetChanged();
+        mIndicator.setViewPager(mPager);
+        for (int position = 0; position < mAdapter.getCount(); position++) {
+            StateFragment fragment = mAdapter.getFragment(position);
+            if (fragment != null && fragment.getView() != null) {
+                fragment.updateView();
+            }
+        }
+    }
+
+    /**
+     * Attempt to update the time-in-state info. Overlapping requests are
+     * coalesced by the scheduler
+     */
+    public void refreshData() {
+        mApp.getRefreshScheduler().requestRefresh();
+    }
+
     /**
      * logging
      */
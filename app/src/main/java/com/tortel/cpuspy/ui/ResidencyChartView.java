@@ -0,0 +1,177 @@
+package com.tortel.cpuspy.ui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+import com.tortel.cpuspy.R;
+import com.tortel.cpuspy.SampleRing;
+
+/**
+ * Draws the frequency residency recorded in a SampleRing over time, one
+ * band per policy, oldest on the left. Each band is a stacked area: the
+ * share of time at each frequency, lowest frequency at the bottom and
+ * shaded darkest. The ring is decimated to one column per few pixels and
+ * the areas are built into reused Paths whenever update is called, so
+ * drawing only fills the prepared paths and allocates nothing
+ */
+public class ResidencyChartView extends View {
+    /** pixels per decimated column */
+    private static final int COLUMN_WIDTH = 2;
+    private static final int SLEEP_COLOR = 0xff333333;
+
+    private final Paint mPaint = new Paint();
+    private final Paint mTextPaint = new Paint();
+    private final int mHotColor;
+    private final float mBandHeight;
+    private final float mBandGap;
+
+    private SampleRing mRing;
+    private String[] mLabels = new String[0];
+
+    /* prepared by update: one path and colour per policy and frequency */
+    private int mPolicyCount;
+    private Path[] mPaths = new Path[0];
+    private int[] mColors = new int[0];
+    private int mPathCount;
+    private float[] mColumns = new float[0];
+
+    public ResidencyChartView(Context context) {
+        this(context, null);
+    }
+
+    public ResidencyChartView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        mHotColor = ContextCompat.getColor(context, R.color.primary_light);
+        mBandHeight = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 96,
+                getResources().getDisplayMetrics());
+        mBandGap = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 20,
+                getResources().getDisplayMetrics());
+        mPaint.setStyle(Paint.Style.FILL);
+        mTextPaint.setAntiAlias(true);
+        mTextPaint.setColor(0xffdddddd);
+        mTextPaint.setTextSize(mBandGap * 0.7f);
+    }
+
+    /**
+     * @param ring the samples to draw
+     * @param labels a label per policy, drawn above its band
+     */
+    public void setRing(SampleRing ring, String[] labels) {
+        mRing = ring;
+        mLabels = labels;
+        update();
+    }
+
+    /** @return true if the ring holds enough samples to draw anything */
+    public boolean hasData() {
+        return mRing != null && mRing.size() >= 2 && mRing.getPolicyCount() > 0;
+    }
+
+    /**
+     * Rebuild the paths from the ring's current samples. Call after new
+     * samples were recorded
+     */
+    public void update() {
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        SampleRing ring = mRing;
+        if (ring == null || width <= 0) {
+            mPathCount = 0;
+            invalidate();
+            return;
+        }
+        int policies = ring.getPolicyCount();
+        if (policies != mPolicyCount) {
+            mPolicyCount = policies;
+            requestLayout();
+        }
+        int columns = Math.max(2, width / COLUMN_WIDTH);
+        float step = (float) width / (columns - 1);
+
+        int count = 0;
+        for (int p = 0; p < policies; p++) {
+            int states = ring.getStateCount(p);
+            if (mColumns.length < columns * states) {
+                mColumns = new float[columns * states];
+            }
+            int filled = ring.getResidencyColumns(p, columns, mColumns);
+            float bottom = getPaddingTop() + mBandGap + p * (mBandHeight + mBandGap) + mBandHeight;
+            // highest frequency first; each lower one is drawn over it
+            for (int i = states - 1; i >= 0 && filled > 0; i--) {
+                Path path = obtainPath(count);
+                path.moveTo(getPaddingLeft(), bottom);
+                for (int c = 0; c < filled; c++) {
+                    path.lineTo(getPaddingLeft() + c * step,
+                            bottom - mColumns[c * states + i] * mBandHeight);
+                }
+                path.lineTo(getPaddingLeft() + (filled - 1) * step, bottom);
+                path.close();
+                int freq = ring.getFreq(p, i);
+                mColors[count] = freq == 0 ? SLEEP_COLOR : shade((float) (i + 1) / states);
+                count++;
+            }
+        }
+        mPathCount = count;
+        invalidate();
+    }
+
+    /** @return the reused path at the index, rewound */
+    private Path obtainPath(int index) {
+        if (index >= mPaths.length) {
+            Path[] paths = new Path[Math.max(16, index * 2)];
+            System.arraycopy(mPaths, 0, paths, 0, mPaths.length);
+            for (int i = mPaths.length; i < paths.length; i++) {
+                paths[i] = new Path();
+            }
+            mPaths = paths;
+            int[] colors = new int[paths.length];
+            System.arraycopy(mColors, 0, colors, 0, mColors.length);
+            mColors = colors;
+        }
+        Path path = mPaths[index];
+        path.rewind();
+        return path;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int height = (int) (Math.max(1, mPolicyCount) * (mBandHeight + mBandGap))
+                + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (w != oldw) {
+            update();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        for (int i = 0; i < mPathCount; i++) {
+            mPaint.setColor(mColors[i]);
+            canvas.drawPath(mPaths[i], mPaint);
+        }
+        for (int p = 0; p < mPolicyCount && p < mLabels.length; p++) {
+            canvas.drawText(mLabels[p], getPaddingLeft(),
+                    getPaddingTop() + p * (mBandHeight + mBandGap) + mBandGap * 0.75f, mTextPaint);
+        }
+    }
+
+    /** @return the colour for a level between 0 (black) and 1 (hot) */
+    private int shade(float level) {
+        return Color.rgb((int) (Color.red(mHotColor) * level),
+                (int) (Color.green(mHotColor) * level),
+                (int) (Color.blue(mHotColor) * level));
+    }
+}
@@ -0,0 +1,88 @@
+package com.tortel.cpuspy.ui;
+
+/**
+ * Text formatting for the state views. Kept free of Android classes so the
+ * host side benchmarks can measure it. The format methods write into a
+ * caller owned char[], so the render path can hand the same buffer to
+ * TextView.setText(char[], int, int) on every refresh without garbage
+ */
+public class StateFormatter {
+    /** the longest duration: 19 digits of hours, then ":mm:ss" */
+    public static final int MAX_DURATION_LENGTH = 25;
+    /** the longest percentage, "100%" */
+    public static final int MAX_PERCENT_LENGTH = 4;
+
+    /**
+     * @return A nicely formatted String representing tSec seconds
+     */
+    public static String sToString(long tSec) {
+        char[] out = new char[MAX_DURATION_LENGTH];
+        return new String(out, 0, formatDuration(tSec, out));
+    }
+
+    /**
+     * Write tSec seconds as h:mm:ss
+     * @param out at least MAX_DURATION_LENGTH long
+     * @return the number of chars written
+     */
+    public static int formatDuration(long tSec, char[] out) {
+        if (tSec < 0) {
+            tSec = 0;
+        }
+        long h = tSec / (60 * 60);
+        int m = (int) (tSec / 60 % 60);
+        int s = (int) (tSec % 60);
+        int length = formatLong(h, out, 0);
+        out[length++] = ':';
+        out[length++] = (char) ('0' + m / 10);
+        out[length++] = (char) ('0' + m % 10);
+        out[length++] = ':';
+        out[length++] = (char) ('0' + s / 10);
+        out[length++] = (char) ('0' + s % 10);
+        return length;
+    }
+
+    /**
+     * Write a percentage such as "42%"
+     * @param out at least MAX_PERCENT_LENGTH long
+     * @return the number of chars written
+     */
+    public static int formatPercent(int percent, char[] out) {
+        int length = formatLong(Math.max(0, Math.min(100, percent)), out, 0);
+        out[length++] = '%';
+        return length;
+    }
+
+    /**
+     * @return part as a whole percentage of total, rounded down, without
+     * going through floating point
+     */
+    public static int percent(long part, long total) {
+        if (total <= 0 || part <= 0) {
+            return 0;
+        }
+        if (part >= total) {
+            return 100;
+        }
+        // part < total, so only part * 100 can overflow
+        return part <= Long.MAX_VALUE / 100 ? (int) (part * 100 / total)
+                : (int) (part / (total / 100));
+    }
+
+    /**
+     * Write a non negative number in decimal
+     * @return the index after the last digit
+     */
+    private static int formatLong(long value, char[] out, int offset) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = offset + digits;
+        for (int i = end - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+}
@@ -1,21 +1,33 @@
 package com.tortel.cpuspy.ui;
 
+import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.LinearLayout;
-import android.widget.ProgressBar;
+import android.widget.RadioGroup;
 import android.widget.TextView;
 
+import com.tortel.cpuspy.CpuPolicy;
+import com.tortel.cpuspy.CpuSnapshot;
 import com.tortel.cpuspy.CpuSpyApp;
 import com.tortel.cpuspy.CpuStateMonitor;
+import com.tortel.cpuspy.DeviceInfo;
+import com.tortel.cpuspy.IdleSnapshot;
+import com.tortel.cpuspy.MonitorMetrics;
+import com.tortel.cpuspy.MonitorState;
 import com.tortel.cpuspy.R;
+import com.tortel.cpuspy.SampleRing;
+import com.tortel.cpuspy.ThrottleState;
+import com.tortel.cpuspy.TransTable;
 
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Fragment that shows the CPU state info
@@ -24,13 +36,47 @@ public class StateFragment extends Fragment {
     public static final String CPU = "cpu";
 
     // the views
-    private LinearLayout mStatesView = null;
+    private RecyclerView mStatesView = null;
+    private StateListAdapter mStatesAdapter = null;
     private TextView mAdditionalStates = null;
     private TextView mTotalStateTime = null;
     private TextView mHeaderAdditionalStates = null;
     private TextView mHeaderTotalStateTime = null;
     private TextView mStatesWarning = null;
     private TextView mKernelString = null;
+    private TextView mDeviceString = null;
+    private LinearLayout mIdleStatesView = null;
+    /** the idle state rows inflated so far, see bindIdleRows */
+    private final ArrayList<StateListAdapter.RowHolder> mIdleRows = new ArrayList<>();
+    private TextView mHeaderIdleStates = null;
+    private TextView mHeaderTransitions = null;
+    private TextView mTransitionRate = null;
+    private TransitionHeatmapView mTransitionHeatmap = null;
+    private TextView mHeaderThrottling = null;
+    private TextView mThrottling = null;
+    private TextView mHeaderCurrentFreq = null;
+    private TextView mCurrentFreq = null;
+    private View mTableView = null;
+    private View mChartView = null;
+    private ResidencyChartView mResidencyChart = null;
+    private TextView mResidencyEmpty = null;
+
+    /** show the residency chart instead of the table */
+    private boolean mShowChart = false;
+    private String[] mChartLabels = new String[0];
+
+    /** the live frequency on screen, so unchanged frames skip setText */
+    private int mShownFreq = -1;
+    /** the device info on screen; it is set once, not on every refresh */
+    private DeviceInfo mShownInfo = null;
+    /** the interval (s) in the total header, -1 for since boot, -2 unset */
+    private long mShownInterval = -2;
+
+    /* reused text, so refreshes do not build new strings */
+    private FreqLabels mFreqLabels;
+    private final char[] mTotalText = new char[StateFormatter.MAX_DURATION_LENGTH];
+    private final StringBuilder mExtraText = new StringBuilder();
+    private String mShownExtra = "";
 
     private int mCpu;
 
@@ -39,6 +85,7 @@ public class StateFragment extends Fragment {
         super.onCreate(savedInstanceState);
         mCpu = getArguments().getInt(CPU);
         mApp = (CpuSpyApp) getActivity().getApplicationContext();
+        mFreqLabels = new FreqLabels(getString(R.string.deep_sleep));
     }
 
     private CpuSpyApp mApp;
@@ -48,7 +95,19 @@ public class StateFragment extends Fragment {
     public View onCreateView(LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.state_fragment, container, false);
         mStatesView = view.findViewById(R.id.ui_states_view);
+        mStatesView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        mStatesView.setNestedScrollingEnabled(false);
+        mStatesAdapter = new StateListAdapter(mFreqLabels);
+        mStatesView.setAdapter(mStatesAdapter);
         mKernelString = view.findViewById(R.id.ui_kernel_string);
+        mDeviceString = view.findViewById(R.id.ui_device_string);
+        mKernelString.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                startActivity(new Intent(getActivity(), DiagnosticsActivity.class));
+                return true;
+            }
+        });
         mAdditionalStates = view.findViewById(
                 R.id.ui_additional_states);
         mHeaderAdditionalStates = view.findViewById(
@@ -57,6 +116,33 @@ public class StateFragment extends Fragment {
                 R.id.ui_header_total_state_time);
         mStatesWarning = view.findViewById(R.id.ui_states_warning);
         mTotalStateTime = view.findViewById(R.id.ui_total_state_time);
+        mIdleStatesView = view.findViewById(R.id.ui_idle_states_view);
+        mIdleRows.clear();
+        mHeaderIdleStates = view.findViewById(R.id.ui_header_idle_states);
+        mHeaderTransitions = view.findViewById(R.id.ui_header_transitions);
+        mTransitionRate = view.findViewById(R.id.ui_transition_rate);
+        mTransitionHeatmap = view.findViewById(R.id.ui_transition_heatmap);
+        mHeaderThrottling = view.findViewById(R.id.ui_header_throttling);
+        mThrottling = view.findViewById(R.id.ui_throttling);
+        mHeaderCurrentFreq = view.findViewById(R.id.ui_header_current_freq);
+        mCurrentFreq = view.findViewById(R.id.ui_current_freq);
+        mTableView = view.findViewById(R.id.ui_table_view);
+        mChartView = view.findViewById(R.id.ui_chart_view);
+        mResidencyChart = view.findViewById(R.id.ui_residency_chart);
+        mResidencyEmpty = view.findViewById(R.id.ui_residency_empty);
+        RadioGroup viewSwitch = view.findViewById(R.id.ui_view_switch);
+        mShowChart = viewSwitch.getCheckedRadioButtonId() == R.id.ui_show_chart;
+        viewSwitch.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                mShowChart = checkedId == R.id.ui_show_chart;
+                updateView();
+            }
+        });
+        mShownFreq = -1;
+        mShownExtra = "";
+        mShownInfo = null;
+        mShownInterval = -2;
 
         updateView();
 
@@ -69,123 +155,277 @@ public class StateFragment extends Fragment {
         updateView();
     }
 
+    /** @return the CPU this page shows */
+    public int getCpu() {
+        return mCpu;
+    }
+
     /**
-     * Generate and update all UI elements
+     * Update all UI elements in place. The state rows are diffed against
+     * the previous refresh, so only the rows that changed are rebound
      */
     public void updateView() {
-        /* Get the CpuStateMonitor from the app, and iterate over all states,
-         * creating a row if the duration is > 0 or otherwise marking it in
-         * extraStates (missing) */
+        long start = MonitorMetrics.INSTANCE.begin(MonitorMetrics.STAGE_VIEW);
+        try {
+            bindView();
+        } finally {
+            MonitorMetrics.INSTANCE.end(MonitorMetrics.STAGE_VIEW, start);
+        }
+    }
+
+    /** the body of updateView, timed by it */
+    private void bindView() {
+        /* Get the CpuStateMonitor from the app; states with time in them go
+         * to the state list, the others are marked in extraStates (missing) */
         CpuStateMonitor monitor = mApp.getCpuStateMonitor();
-        mStatesView.removeAllViews();
-        List<String> extraStates = new ArrayList<>();
-        for (CpuStateMonitor.CpuState state : monitor.getStates(mCpu)) {
-            if (state.duration > 0) {
-                generateStateRow(state, mStatesView);
-            } else {
-                if (state.freq == 0) {
-                    extraStates.add(getString(R.string.deep_sleep));
-                } else {
-                    extraStates.add(state.freq/1000 + " MHz");
+        MonitorState state = monitor.getState();
+        if (mCpu >= state.getCpuCount() || mStatesAdapter == null) {
+            return;
+        }
+        mTableView.setVisibility(mShowChart ? View.GONE : View.VISIBLE);
+        mChartView.setVisibility(mShowChart ? View.VISIBLE : View.GONE);
+        if (mShowChart) {
+            // the table is hidden; skip binding it
+            updateChart(state);
+            return;
+        }
+        boolean interval = monitor.getMode() == CpuStateMonitor.MODE_INTERVAL;
+        // the counters went backwards, so there is no interval to show
+        boolean reset = interval && state.isIntervalReset(mCpu);
+        CpuSnapshot snapshot = state.getSnapshot(mCpu, monitor.getMode());
+        long total = snapshot.getTotalTime();
+        mStatesAdapter.setSnapshot(snapshot);
+        mExtraText.setLength(0);
+        for (int i = 0; i < snapshot.getCount() && !reset; i++) {
+            if (snapshot.getDuration(i) <= 0) {
+                if (mExtraText.length() > 0) {
+                    mExtraText.append(", ");
                 }
+                mExtraText.append(mFreqLabels.get(snapshot.getFreq(i)));
             }
         }
 
-        // show the red warning label if no states found
-        if (monitor.getStates(mCpu).size() == 0) {
+        // show the red warning label if the CPU is offline or no states
+        // were found (deep sleep is always there)
+        boolean noStates = snapshot.getCount() <= 1;
+        if (!state.getTopology().isOnline(mCpu)) {
+            mStatesWarning.setText(R.string.warning_cpu_offline);
             mStatesWarning.setVisibility(View.VISIBLE);
-            mHeaderTotalStateTime.setVisibility(View.GONE);
-            mTotalStateTime.setVisibility(View.GONE);
-            mStatesView.setVisibility(View.GONE);
+        } else if (reset) {
+            mStatesWarning.setText(R.string.warning_interval_reset);
+            mStatesWarning.setVisibility(View.VISIBLE);
+        } else if (noStates) {
+            mStatesWarning.setText(R.string.warning_no_state);
+            mStatesWarning.setVisibility(View.VISIBLE);
+        } else {
+            mStatesWarning.setVisibility(View.GONE);
+        }
+        int statesVisibility = noStates || reset ? View.GONE : View.VISIBLE;
+        mHeaderTotalStateTime.setVisibility(statesVisibility);
+        mTotalStateTime.setVisibility(statesVisibility);
+        mStatesView.setVisibility(statesVisibility);
+
+        // name the interval the total covers; only when it changes
+        long shownInterval = interval ? state.getIntervalMillis() / 1000 : -1;
+        if (shownInterval != mShownInterval) {
+            mShownInterval = shownInterval;
+            mHeaderTotalStateTime.setText(interval
+                    ? getString(R.string.interval_time, StateFormatter.sToString(shownInterval))
+                    : getString(R.string.total_time));
         }
 
         // update the total state time
-        long totTime = monitor.getTotalStateTime(mCpu) / 100;
-        mTotalStateTime.setText(sToString(totTime));
+        long totTime = total / 100;
+        mTotalStateTime.setText(mTotalText, 0, StateFormatter.formatDuration(totTime, mTotalText));
 
         // for all the 0 duration states, add the the Unused State area
-        if (extraStates.size() > 0) {
-            int n = 0;
-            String str = "";
-
-            for (String s : extraStates) {
-                if (n++ > 0)
-                    str += ", ";
-                str += s;
-            }
-
+        if (mExtraText.length() > 0) {
             mAdditionalStates.setVisibility(View.VISIBLE);
             mHeaderAdditionalStates.setVisibility(View.VISIBLE);
-            mAdditionalStates.setText(str);
+            // the unused states rarely change; only set them when they do
+            if (!TextUtils.equals(mShownExtra, mExtraText)) {
+                mShownExtra = mExtraText.toString();
+                mAdditionalStates.setText(mShownExtra);
+            }
         } else {
             mAdditionalStates.setVisibility(View.GONE);
             mHeaderAdditionalStates.setVisibility(View.GONE);
         }
 
-        // kernel line
-        mKernelString.setText(mApp.getKernelVersion());
+        // real per-core idle states, where the kernel has cpuidle
+        IdleSnapshot idle = state.getIdleSnapshot(mCpu, monitor.getMode());
+        long elapsed = idle.getElapsed();
+        bindIdleRows(idle, elapsed);
+        int idleVisibility = idle.getCount() > 0 && elapsed > 0 ? View.VISIBLE : View.GONE;
+        mHeaderIdleStates.setVisibility(idleVisibility);
+        mIdleStatesView.setVisibility(idleVisibility);
+
+        // how often the governor switched frequency, and between which
+        TransTable trans = state.getTransTable(mCpu, monitor.getMode());
+        int transVisibility = trans.getCount() > 0 ? View.VISIBLE : View.GONE;
+        mHeaderTransitions.setVisibility(transVisibility);
+        mTransitionRate.setVisibility(transVisibility);
+        mTransitionHeatmap.setVisibility(transVisibility);
+        if (trans.getCount() > 0) {
+            mTransitionRate.setText(getString(R.string.transition_rate,
+                    trans.getTotal(), trans.getRate()));
+            mTransitionHeatmap.setTable(trans);
+        }
+
+        // time spent below the hardware maximum, thermal or otherwise
+        ThrottleState throttle = state.getThrottleState(mCpu);
+        int throttleVisibility = throttle.getHardwareMax() > 0 ? View.VISIBLE : View.GONE;
+        mHeaderThrottling.setVisibility(throttleVisibility);
+        mThrottling.setVisibility(throttleVisibility);
+        if (throttle.getHardwareMax() > 0) {
+            mThrottling.setText(getThrottleText(throttle));
+        }
+
+        // kernel and SoC lines, once they were read
+        DeviceInfo info = mApp.getDeviceInfo();
+        if (info != mShownInfo) {
+            mShownInfo = info;
+            updateDeviceInfo(info, state);
+        }
     }
 
     /**
-     * Set up the state row
+     * Show the kernel version, the SoC and the governor of this CPU's policy
      */
-    private void generateStateRow(CpuStateMonitor.CpuState state, ViewGroup parent) {
-        // inflate the XML into a view in the parent
-        LayoutInflater inf = LayoutInflater.from(mApp);
-        LinearLayout theRow = (LinearLayout)inf.inflate(
-                R.layout.state_row, parent, false);
+    private void updateDeviceInfo(DeviceInfo info, MonitorState state) {
+        String kernel = info.getKernelVersion();
+        mKernelString.setText(kernel.length() > 0 ? kernel : getString(R.string.unknown));
 
-        // what percetnage we've got
-        CpuStateMonitor monitor = mApp.getCpuStateMonitor();
-        int percent = (int) ((float)state.duration * 100 /
-                monitor.getTotalStateTime(mCpu));
-
-        // state name
-        String sFreq;
-        if (state.freq == 0) {
-            sFreq = getString(R.string.deep_sleep);
-        } else {
-            sFreq = state.freq / 1000 + " MHz";
+        StringBuilder text = new StringBuilder();
+        if (info.getSocName().length() > 0) {
+            text.append(getString(R.string.device_soc, info.getSocName()));
         }
+        int policy = info.indexOf(state.getPolicy(state.getPolicyIndex(mCpu)).getFirstCpu());
+        if (policy >= 0 && info.getGovernor(policy).length() > 0) {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(getString(R.string.device_governor, info.getGovernor(policy)));
+            int[] freqs = info.getAvailableFreqs(policy);
+            if (freqs.length > 0) {
+                text.append('\n').append(getString(R.string.device_freqs, freqs.length,
+                        mFreqLabels.get(freqs[0]), mFreqLabels.get(freqs[freqs.length - 1])));
+            }
+        }
+        mDeviceString.setText(text);
+        mDeviceString.setVisibility(text.length() > 0 ? View.VISIBLE : View.GONE);
+    }
 
-        // duration
-        String sDur = sToString(state.duration / 100);
-
-        // map UI elements to objects
-        TextView freqText = theRow.findViewById(R.id.ui_freq_text);
-        TextView durText = theRow.findViewById(
-                R.id.ui_duration_text);
-        TextView perText = theRow.findViewById(
-                R.id.ui_percentage_text);
-        ProgressBar bar = theRow.findViewById(R.id.ui_bar);
+    /**
+     * Redraw the residency chart from the background sampler's ring
+     */
+    private void updateChart(MonitorState state) {
+        SampleRing ring = mApp.getSampleRing();
+        int policies = ring.getPolicyCount();
+        if (mChartLabels.length != policies) {
+            mChartLabels = new String[policies];
+            for (int p = 0; p < policies; p++) {
+                mChartLabels[p] = p < state.getPolicyCount()
+                        ? getPolicyLabel(state.getPolicy(p)) : "#" + p;
+            }
+        }
+        mResidencyChart.setRing(ring, mChartLabels);
+        mResidencyEmpty.setVisibility(mResidencyChart.hasData() ? View.GONE : View.VISIBLE);
+    }
 
-        // modify the row
-        freqText.setText(sFreq);
-        perText.setText(percent + "%");
-        durText.setText(sDur);
-        bar.setProgress(percent);
+    /** @return "CPU 0-3" for a policy of consecutive CPUs, else "CPU 0" */
+    private static String getPolicyLabel(CpuPolicy policy) {
+        if (policy.getCpuCount() > 1
+                && policy.getLastCpu() - policy.getFirstCpu() + 1 == policy.getCpuCount()) {
+            return "CPU " + policy.getFirstCpu() + "-" + policy.getLastCpu();
+        }
+        return "CPU " + policy.getFirstCpu();
+    }
 
-        // add it to parent and return
-        parent.addView(theRow);
+    /**
+     * @return the cap, the capped residency and the temperature, one per line
+     */
+    private String getThrottleText(ThrottleState throttle) {
+        StringBuilder text = new StringBuilder();
+        if (throttle.isCapped()) {
+            text.append(getString(R.string.throttle_capped, throttle.getCap() / 1000,
+                    throttle.getHardwareMax() / 1000));
+        } else {
+            text.append(getString(R.string.throttle_uncapped, throttle.getHardwareMax() / 1000));
+        }
+        if (throttle.getObservedMillis() > 0) {
+            text.append('\n').append(getString(R.string.throttle_residency,
+                    StateFormatter.sToString(throttle.getThrottledMillis() / 1000),
+                    StateFormatter.sToString(throttle.getObservedMillis() / 1000),
+                    Math.round(throttle.getThrottledFraction() * 100),
+                    throttle.getEvents()));
+        }
+        if (throttle.getTemperature() != ThrottleState.NO_TEMPERATURE) {
+            text.append('\n').append(getString(R.string.throttle_temperature,
+                    throttle.getTemperature() / 1000f));
+        }
+        return text.toString();
     }
 
     /**
-     * @return A nicely formatted String representing tSec seconds
+     * Show the live current frequency of this CPU's policy
+     * @param freqs the latest frequency (kHz) of each policy, or null to
+     *              hide the live frequency
+     * @param count the number of policies in freqs
      */
-    private static String sToString(long tSec) {
-        long h = (long)Math.floor(tSec / (60*60));
-        long m = (long)Math.floor((tSec - h*60*60) / 60);
-        long s = tSec % 60;
-        String sDur;
-        sDur = h + ":";
-        if (m < 10)
-            sDur += "0";
-        sDur += m + ":";
-        if (s < 10)
-            sDur += "0";
-        sDur += s;
-
-        return sDur;
+    public void setCurrentFreqs(MonitorState state, int[] freqs, int count) {
+        if (mCurrentFreq == null) {
+            return;
+        }
+        int policy = mCpu < state.getCpuCount() ? state.getPolicyIndex(mCpu) : -1;
+        if (freqs == null || policy < 0 || policy >= count) {
+            mHeaderCurrentFreq.setVisibility(View.GONE);
+            mCurrentFreq.setVisibility(View.GONE);
+            mShownFreq = -1;
+            return;
+        }
+        int freq = freqs[policy];
+        if (freq != mShownFreq) {
+            mShownFreq = freq;
+            mCurrentFreq.setText(freq == 0
+                    ? getString(R.string.current_freq_offline) : mFreqLabels.get(freq));
+        }
+        mHeaderCurrentFreq.setVisibility(View.VISIBLE);
+        mCurrentFreq.setVisibility(View.VISIBLE);
     }
 
+    /**
+     * Show a row per idle state. Rows are only inflated the first time
+     * there are that many states, then rebound in place into their own
+     * buffers; rows left over are hidden
+     * @param elapsed the wall time the times cover, microseconds
+     */
+    private void bindIdleRows(IdleSnapshot idle, long elapsed) {
+        int count = elapsed > 0 ? idle.getCount() : 0;
+        LayoutInflater inflater = LayoutInflater.from(mApp);
+        while (mIdleRows.size() < count) {
+            View row = inflater.inflate(R.layout.state_row, mIdleStatesView, false);
+            mIdleStatesView.addView(row);
+            mIdleRows.add(new StateListAdapter.RowHolder(row));
+        }
+        for (int i = 0; i < mIdleRows.size(); i++) {
+            StateListAdapter.RowHolder holder = mIdleRows.get(i);
+            if (i >= count) {
+                holder.itemView.setVisibility(View.GONE);
+                continue;
+            }
+            holder.itemView.setVisibility(View.VISIBLE);
+            // the names are shared between refreshes, so this rarely sets
+            if (!TextUtils.equals(holder.mFreqText.getText(), idle.getName(i))) {
+                holder.mFreqText.setText(idle.getName(i));
+            }
+            long time = idle.getTime(i);
+            int percent = StateFormatter.percent(time, elapsed);
+            holder.mDurationText.setText(holder.mDuration, 0,
+                    StateFormatter.formatDuration(time / 1000000, holder.mDuration));
+            holder.mPercentageText.setText(holder.mPercent, 0,
+                    StateFormatter.formatPercent(percent, holder.mPercent));
+            holder.mBar.setProgress(percent);
+        }
+    }
 }
@@ -4,49 +4,157 @@ import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentStatePagerAdapter;
+import android.util.SparseArray;
+import android.view.ViewGroup;
 
+import com.tortel.cpuspy.CpuPolicy;
 import com.tortel.cpuspy.CpuSpyApp;
 import com.tortel.cpuspy.CpuStateMonitor;
+import com.tortel.cpuspy.R;
 
 public class StateFragmentAdapter extends FragmentStatePagerAdapter {
     private CpuSpyApp mApp;
     private CpuStateMonitor mMonitor;
     private int mCpuCount = 0;
+    private int mPolicyCount = 0;
+    /** show one page per cluster instead of one per CPU */
+    private boolean mClusterView = false;
+    /** the fragments currently attached, by position */
+    private SparseArray<StateFragment> mFragments = new SparseArray<>();
 
     StateFragmentAdapter(CpuSpyApp app, FragmentManager fm) {
         super(fm);
         mApp = app;
         mMonitor = mApp.getCpuStateMonitor();
         mCpuCount = mMonitor.getCpuCount();
+        mPolicyCount = mMonitor.getPolicyCount();
     }
 
     @Override
     public void notifyDataSetChanged() {
-        super.notifyDataSetChanged();
         mCpuCount = mMonitor.getCpuCount();
+        mPolicyCount = mMonitor.getPolicyCount();
+        super.notifyDataSetChanged();
+    }
+
+    /**
+     * @return true if the monitor's CPUs or policies changed since the
+     * pages were last counted, so notifyDataSetChanged is needed
+     */
+    boolean isStale() {
+        return mCpuCount != mMonitor.getCpuCount() || mPolicyCount != mMonitor.getPolicyCount();
+    }
+
+    public boolean isClusterView() {
+        return mClusterView;
+    }
+
+    /**
+     * Switch between one page per CPU and one page per cluster. CPUs in a
+     * cluster share their states, so the cluster view drops the duplicates
+     */
+    public void setClusterView(boolean clusterView) {
+        mClusterView = clusterView;
     }
 
     @Override
     public Fragment getItem(int position) {
-        if (position < mCpuCount && position < mMonitor.getCpuCount()) {
+        if (position < getCount()) {
             StateFragment frag = new StateFragment();
             Bundle args = new Bundle();
-            args.putInt(StateFragment.CPU, position);
+            args.putInt(StateFragment.CPU, getCpu(position));
             frag.setArguments(args);
             return frag;
         }
         return null;
     }
 
+    /**
+     * Pages that still show the same CPU at the same position are kept, and
+     * updated in place by the caller; only the others are recreated
+     */
+    @Override
+    public int getItemPosition(Object object) {
+        StateFragment fragment = (StateFragment) object;
+        int index = mFragments.indexOfValue(fragment);
+        if (index >= 0) {
+            int position = mFragments.keyAt(index);
+            if (position < getCount() && getCpu(position) == fragment.getCpu()) {
+                return POSITION_UNCHANGED;
+            }
+        }
+        return POSITION_NONE;
+    }
+
+    @Override
+    public Object instantiateItem(ViewGroup container, int position) {
+        StateFragment fragment = (StateFragment) super.instantiateItem(container, position);
+        mFragments.put(position, fragment);
+        return fragment;
+    }
+
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object) {
+        mFragments.remove(position);
+        super.destroyItem(container, position, object);
+    }
+
+    /** @return the attached fragment at the position, or null */
+    StateFragment getFragment(int position) {
+        return mFragments.get(position);
+    }
+
+    /** @return the position of the page showing the CPU */
+    int getPosition(int cpu) {
+        if (mClusterView) {
+            return mMonitor.getState().getPolicyIndex(cpu);
+        }
+        return cpu;
+    }
+
+    /**
+     * @return the CPU shown at the position; in the cluster view, the first
+     * CPU of the cluster
+     */
+    private int getCpu(int position) {
+        if (mClusterView) {
+            return mMonitor.getPolicy(position).getFirstCpu();
+        }
+        return position;
+    }
+
     @Override
     public CharSequence getPageTitle(int position) {
+        if (mClusterView) {
+            CpuPolicy policy = mMonitor.getPolicy(position);
+            if (policy.getCpuCount() == 1) {
+                return "CPU " + policy.getFirstCpu();
+            }
+            if (policy.getLastCpu() - policy.getFirstCpu() + 1 == policy.getCpuCount()) {
+                return "CPU " + policy.getFirstCpu() + "-" + policy.getLastCpu();
+            }
+            StringBuilder title = new StringBuilder("CPU ");
+            for (int i = 0; i < policy.getCpuCount(); i++) {
+                if (i > 0) {
+                    title.append(',');
+                }
+                title.append(policy.getCpu(i));
+            }
+            return title;
+        }
+        if (!mMonitor.getTopology().isOnline(position)) {
+            return mApp.getString(R.string.cpu_offline, position);
+        }
         return "CPU "+position;
     }
 
     @Override
     public int getCount() {
         if (mApp != null) {
-            return mCpuCount;
+            if (mClusterView) {
+                return Math.min(mPolicyCount, mMonitor.getPolicyCount());
+            }
+            return Math.min(mCpuCount, mMonitor.getCpuCount());
         }
         return 0;
     }
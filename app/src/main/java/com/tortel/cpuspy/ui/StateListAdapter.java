@@ -0,0 +1,204 @@
+package com.tortel.cpuspy.ui;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import com.tortel.cpuspy.CpuSnapshot;
+import com.tortel.cpuspy.R;
+
+import java.util.List;
+
+/**
+ * The time in state rows of one CPU: one row per frequency with time spent
+ * in it. Rows are keyed by frequency, so a refresh only rebinds the rows
+ * whose duration or percentage moved, and only their values; the frequency
+ * label is left alone
+ */
+public class StateListAdapter extends RecyclerView.Adapter<StateListAdapter.RowHolder> {
+    /** payload for a row whose frequency stayed but whose values changed */
+    private static final Object PAYLOAD_VALUES = new Object();
+
+    private final FreqLabels mFreqLabels;
+    /* the rows shown, mCount of them; the arrays may be longer */
+    private int mCount;
+    private int[] mFreqs = new int[0];
+    private long[] mDurations = new long[0];
+    private int[] mPercents = new int[0];
+    /* the next snapshot's rows, swapped with the ones shown when they differ */
+    private int[] mNewFreqs = new int[0];
+    private long[] mNewDurations = new long[0];
+    private int[] mNewPercents = new int[0];
+
+    StateListAdapter(FreqLabels freqLabels) {
+        mFreqLabels = freqLabels;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show a new snapshot, keeping the states with time in them. When the
+     * same frequencies have time as last refresh, which is nearly always,
+     * the changed rows are rebound in place; only a change in the
+     * frequencies runs a DiffUtil pass
+     */
+    public void setSnapshot(CpuSnapshot snapshot) {
+        long total = snapshot.getTotalTime();
+        if (mNewFreqs.length < snapshot.getCount()) {
+            mNewFreqs = new int[snapshot.getCount()];
+            mNewDurations = new long[snapshot.getCount()];
+            mNewPercents = new int[snapshot.getCount()];
+        }
+        int count = 0;
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            long duration = snapshot.getDuration(i);
+            if (duration > 0) {
+                mNewFreqs[count] = snapshot.getFreq(i);
+                mNewDurations[count] = duration;
+                mNewPercents[count] = StateFormatter.percent(duration, total);
+                count++;
+            }
+        }
+
+        if (sameFreqs(count)) {
+            for (int row = 0; row < count; row++) {
+                boolean changed = !sameValues(row, row);
+                mDurations[row] = mNewDurations[row];
+                mPercents[row] = mNewPercents[row];
+                if (changed) {
+                    notifyItemChanged(row, PAYLOAD_VALUES);
+                }
+            }
+            return;
+        }
+
+        final int oldCount = mCount;
+        final int newCount = count;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldCount;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newCount;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return mFreqs[oldPosition] == mNewFreqs[newPosition];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return sameValues(oldPosition, newPosition);
+            }
+
+            @Override
+            public Object getChangePayload(int oldPosition, int newPosition) {
+                return PAYLOAD_VALUES;
+            }
+        }, false);
+        int[] freqs = mFreqs;
+        long[] durations = mDurations;
+        int[] percents = mPercents;
+        mFreqs = mNewFreqs;
+        mDurations = mNewDurations;
+        mPercents = mNewPercents;
+        mNewFreqs = freqs;
+        mNewDurations = durations;
+        mNewPercents = percents;
+        mCount = newCount;
+        diff.dispatchUpdatesTo(this);
+    }
+
+    /** @return true if the next rows have the same frequencies as the shown ones */
+    private boolean sameFreqs(int count) {
+        if (count != mCount) {
+            return false;
+        }
+        for (int row = 0; row < count; row++) {
+            if (mFreqs[row] != mNewFreqs[row]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return true if a shown row and a next row would look the same */
+    private boolean sameValues(int oldRow, int newRow) {
+        // the duration is shown to the second
+        return mDurations[oldRow] / 100 == mNewDurations[newRow] / 100
+                && mPercents[oldRow] == mNewPercents[newRow];
+    }
+
+    @Override
+    public int getItemCount() {
+        return mCount;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mFreqs[position];
+    }
+
+    @NonNull
+    @Override
+    public RowHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View row = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.state_row, parent, false);
+        return new RowHolder(row);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RowHolder holder, int position) {
+        holder.mFreqText.setText(mFreqLabels.get(mFreqs[position]));
+        bindValues(holder, position);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RowHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+        } else {
+            bindValues(holder, position);
+        }
+    }
+
+    /**
+     * The parts of a row that change between refreshes, written into the
+     * row's own buffers; the TextViews keep a reference to them
+     */
+    private void bindValues(RowHolder holder, int position) {
+        int percent = mPercents[position];
+        holder.mDurationText.setText(holder.mDuration, 0,
+                StateFormatter.formatDuration(mDurations[position] / 100, holder.mDuration));
+        holder.mPercentageText.setText(holder.mPercent, 0,
+                StateFormatter.formatPercent(percent, holder.mPercent));
+        holder.mBar.setProgress(percent);
+    }
+
+    /** a state row's views and text buffers; StateFragment reuses it for idle rows */
+    static class RowHolder extends RecyclerView.ViewHolder {
+        final TextView mFreqText;
+        final TextView mDurationText;
+        final TextView mPercentageText;
+        final ProgressBar mBar;
+        final char[] mDuration = new char[StateFormatter.MAX_DURATION_LENGTH];
+        final char[] mPercent = new char[StateFormatter.MAX_PERCENT_LENGTH];
+
+        RowHolder(View row) {
+            super(row);
+            mFreqText = row.findViewById(R.id.ui_freq_text);
+            mDurationText = row.findViewById(R.id.ui_duration_text);
+            mPercentageText = row.findViewById(R.id.ui_percentage_text);
+            mBar = row.findViewById(R.id.ui_bar);
+        }
+    }
+}
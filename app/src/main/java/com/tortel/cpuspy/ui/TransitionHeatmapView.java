@@ -0,0 +1,77 @@
+package com.tortel.cpuspy.ui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.tortel.cpuspy.R;
+import com.tortel.cpuspy.TransTable;
+
+/**
+ * Draws a frequency transition table as a square heatmap: one row per
+ * "from" frequency, one column per "to" frequency, lowest frequency at the
+ * top left. Cells are shaded on a log scale so a few hot transitions do not
+ * wash out the rest. Drawing allocates nothing
+ */
+public class TransitionHeatmapView extends View {
+    private final Paint mPaint = new Paint();
+    private final int mHotColor;
+    private TransTable mTable = TransTable.EMPTY;
+    private double mLogMax;
+
+    public TransitionHeatmapView(Context context) {
+        this(context, null);
+    }
+
+    public TransitionHeatmapView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        mHotColor = ContextCompat.getColor(context, R.color.primary_light);
+    }
+
+    /**
+     * Show a new table
+     */
+    public void setTable(TransTable table) {
+        mTable = table;
+        mLogMax = Math.log1p(table.getMaxTransitions());
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        // square, as wide as allowed
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        setMeasuredDimension(width, width);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        TransTable table = mTable;
+        int count = table.getCount();
+        if (count == 0) {
+            return;
+        }
+        float cell = (float) Math.min(getWidth(), getHeight()) / count;
+        for (int from = 0; from < count; from++) {
+            for (int to = 0; to < count; to++) {
+                long transitions = table.getTransitions(from, to);
+                float heat = transitions > 0 && mLogMax > 0
+                        ? (float) (Math.log1p(transitions) / mLogMax) : 0;
+                mPaint.setColor(shade(heat));
+                canvas.drawRect(to * cell, from * cell, (to + 1) * cell, (from + 1) * cell, mPaint);
+            }
+        }
+    }
+
+    /** @return the colour for a heat between 0 (black) and 1 (hot) */
+    private int shade(float heat) {
+        return Color.rgb((int) (Color.red(mHotColor) * heat),
+                (int) (Color.green(mHotColor) * heat),
+                (int) (Color.blue(mHotColor) * heat));
+    }
+}
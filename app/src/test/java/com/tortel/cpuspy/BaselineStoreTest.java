@@ -0,0 +1,157 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import com.tortel.cpuspy.fake.FakeSysfs;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BaselineStoreTest {
+    private static final CpuPolicy[] POLICIES = {
+            new CpuPolicy(0, new int[] { 0, 1, 2, 3 }, new File[0]),
+            new CpuPolicy(4, new int[] { 4, 5, 6 }, new File[0]),
+            new CpuPolicy(7, new int[] { 7 }, new File[0])
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private FakeSysfs mFake;
+    private Sysfs mSysfs;
+    private File mFile;
+    private BaselineStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mFake = new FakeSysfs(mFolder.newFolder("root"));
+        mSysfs = mFake.bootId("0f6b1c6e-8c1d-4e53-9a4e-1f2a3b4c5d6e");
+        mFile = new File(mFolder.getRoot(), "files/baselines");
+        mStore = new BaselineStore(mFile, mSysfs);
+    }
+
+    private static CpuSnapshot snapshot(int... pairs) {
+        int[] freqs = new int[pairs.length / 2];
+        long[] ticks = new long[pairs.length / 2];
+        for (int i = 0; i < freqs.length; i++) {
+            freqs[i] = pairs[i * 2];
+            ticks[i] = pairs[i * 2 + 1];
+        }
+        return new CpuSnapshot(freqs, ticks, freqs.length);
+    }
+
+    private static void assertSnapshot(CpuSnapshot snapshot, int... pairs) {
+        assertNotNull(snapshot);
+        assertEquals(pairs.length / 2, snapshot.getCount());
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            assertEquals(pairs[i * 2], snapshot.getFreq(i));
+            assertEquals(pairs[i * 2 + 1], snapshot.getDuration(i));
+        }
+    }
+
+    private void saveTwo() throws IOException {
+        mStore.save(POLICIES, new CpuSnapshot[] {
+                snapshot(300000, 120, 1800000, 45), null, snapshot(2400000, 9) });
+    }
+
+    private static void assertAllNull(CpuSnapshot[] baselines) {
+        for (CpuSnapshot baseline : baselines) {
+            assertNull(baseline);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        saveTwo();
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+        CpuSnapshot[] baselines = mStore.load(POLICIES);
+        assertEquals(3, baselines.length);
+        assertSnapshot(baselines[0], 300000, 120, 1800000, 45);
+        assertNull(baselines[1]);
+        assertSnapshot(baselines[2], 2400000, 9);
+    }
+
+    @Test
+    public void matchedByFirstCpu() throws IOException {
+        saveTwo();
+        CpuPolicy[] reordered = { POLICIES[2], POLICIES[0] };
+        CpuSnapshot[] baselines = mStore.load(reordered);
+        assertSnapshot(baselines[0], 2400000, 9);
+        assertSnapshot(baselines[1], 300000, 120, 1800000, 45);
+    }
+
+    @Test
+    public void missingFile() {
+        assertAllNull(mStore.load(POLICIES));
+    }
+
+    @Test
+    public void allNullDeletes() throws IOException {
+        saveTwo();
+        mStore.save(POLICIES, new CpuSnapshot[3]);
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void otherBootIsDropped() throws IOException {
+        saveTwo();
+        mFake.bootId("6a2d0f3e-1111-4e53-9a4e-1f2a3b4c5d6e");
+        assertAllNull(mStore.load(POLICIES));
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void damagedFileIsDropped() throws IOException {
+        saveTwo();
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 0x10);
+        } finally {
+            raf.close();
+        }
+        assertAllNull(mStore.load(POLICIES));
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void truncatedFileIsDropped() throws IOException {
+        saveTwo();
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(raf.length() - 5);
+        } finally {
+            raf.close();
+        }
+        assertAllNull(mStore.load(POLICIES));
+    }
+
+    @Test
+    public void saveReplaces() throws IOException {
+        saveTwo();
+        mStore.save(POLICIES, new CpuSnapshot[] { null, snapshot(1000, 1), null });
+        CpuSnapshot[] baselines = mStore.load(POLICIES);
+        assertNull(baselines[0]);
+        assertSnapshot(baselines[1], 1000, 1);
+        assertNull(baselines[2]);
+        assertTrue(mFile.exists());
+    }
+}
@@ -0,0 +1,235 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import com.tortel.cpuspy.fake.FakeClock;
+import com.tortel.cpuspy.fake.FakeSysfs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CpuStateMonitorTest {
+    /** FakeClock starts an hour after boot, half of it asleep */
+    private static final long SLEEP_TICKS = 1800 * 100;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private FakeSysfs fake() {
+        return new FakeSysfs(mFolder.getRoot());
+    }
+
+    private static MonitorState read(Sysfs sysfs) throws Exception {
+        CpuStateMonitor monitor = new CpuStateMonitor(sysfs, new FakeClock());
+        monitor.updateStates();
+        return monitor.getState();
+    }
+
+    /** check the policy's snapshot against its time_in_state file */
+    private static void assertStates(MonitorState state, int policy, File file)
+            throws IOException {
+        TimeInStateParser parser = new TimeInStateParser();
+        int count = parser.parse(file);
+        CpuSnapshot snapshot = state.getPolicySnapshot(policy);
+        assertEquals(count + 1, snapshot.getCount());
+        // highest frequency first, deep sleep last
+        for (int i = 0; i < count; i++) {
+            assertEquals(parser.getFreq(count - 1 - i), snapshot.getFreq(i));
+            assertEquals(parser.getTime(count - 1 - i), snapshot.getDuration(i));
+        }
+        assertEquals(0, snapshot.getFreq(count));
+        assertEquals(SLEEP_TICKS, snapshot.getDuration(count));
+    }
+
+    private static void write(File file, String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void assertCpus(CpuPolicy policy, int first, int last) {
+        assertEquals(first, policy.getFirstCpu());
+        assertEquals(last, policy.getLastCpu());
+        assertEquals(last - first + 1, policy.getCpuCount());
+    }
+
+    @Test
+    public void policyLayout() throws Exception {
+        Sysfs sysfs = fake().cpus(8).clusters(3).freqs(20).build();
+        MonitorState state = read(sysfs);
+        assertEquals(8, state.getCpuCount());
+        assertEquals(3, state.getPolicyCount());
+        assertCpus(state.getPolicy(0), 0, 2);
+        assertCpus(state.getPolicy(1), 3, 5);
+        assertCpus(state.getPolicy(2), 6, 7);
+        for (int p = 0; p < 3; p++) {
+            int first = state.getPolicy(p).getFirstCpu();
+            assertEquals(first, state.getPolicy(p).getId());
+            assertStates(state, p, sysfs.file("/sys/devices/system/cpu/cpufreq/policy" + first
+                    + "/stats/time_in_state"));
+        }
+        for (int cpu = 0; cpu < 8; cpu++) {
+            assertEquals(cpu / 3, state.getPolicyIndex(cpu));
+        }
+    }
+
+    @Test
+    public void legacyPerCpuLayout() throws Exception {
+        Sysfs sysfs = fake().cpus(4).clusters(2).freqs(12).legacyLayout().build();
+        MonitorState state = read(sysfs);
+        assertEquals(4, state.getPolicyCount());
+        for (int cpu = 0; cpu < 4; cpu++) {
+            assertCpus(state.getPolicy(cpu), cpu, cpu);
+            assertEquals(cpu, state.getPolicyIndex(cpu));
+            assertStates(state, cpu, sysfs.file("/sys/devices/system/cpu/cpu" + cpu
+                    + "/cpufreq/stats/time_in_state"));
+        }
+    }
+
+    @Test
+    public void missingTimeInState() throws Exception {
+        // the second cluster has no time_in_state
+        Sysfs sysfs = fake().cpus(8).clusters(4).freqs(10).missingEvery(2).build();
+        MonitorState state = read(sysfs);
+        assertEquals(4, state.getPolicyCount());
+        for (int p = 0; p < 4; p++) {
+            CpuSnapshot snapshot = state.getPolicySnapshot(p);
+            if (p % 2 == 1) {
+                // only deep sleep
+                assertEquals(1, snapshot.getCount());
+                assertEquals(SLEEP_TICKS, snapshot.getDuration(0));
+            } else {
+                assertEquals(11, snapshot.getCount());
+            }
+        }
+    }
+
+    @Test
+    public void malformedTimeInState() throws Exception {
+        Sysfs sysfs = fake().cpus(6).clusters(2).freqs(16).malformedEvery(1).build();
+        MonitorState state = read(sysfs);
+        assertEquals(2, state.getPolicyCount());
+        for (int p = 0; p < 2; p++) {
+            assertStates(state, p, sysfs.file("/sys/devices/system/cpu/cpufreq/policy"
+                    + state.getPolicy(p).getFirstCpu() + "/stats/time_in_state"));
+            assertEquals(17, state.getPolicySnapshot(p).getCount());
+        }
+    }
+
+    @Test
+    public void garbageOnlyTimeInState() throws Exception {
+        Sysfs sysfs = fake().cpus(2).clusters(1).freqs(8).build();
+        write(sysfs.file("/sys/devices/system/cpu/cpufreq/policy0/stats/time_in_state"),
+                "not a time_in_state file\n\n:\n");
+        MonitorState state = read(sysfs);
+        assertEquals(1, state.getPolicyCount());
+        assertEquals(1, state.getPolicySnapshot(0).getCount());
+    }
+
+    @Test
+    public void droppedOffsetIsIntervalReset() throws Exception {
+        Sysfs sysfs = fake().cpus(2).clusters(1).freqs(2).build();
+        File file = sysfs.file("/sys/devices/system/cpu/cpufreq/policy0/stats/time_in_state");
+        write(file, "300000 1000\n1000000 2000\n");
+        CpuStateMonitor monitor = new CpuStateMonitor(sysfs, new FakeClock());
+        monitor.updateStates();
+        monitor.setOffsets();
+        monitor.updateStates();
+        assertEquals(0, monitor.getCumulativeSnapshot(0).getDuration(0));
+
+        // below the offsets, but above the times counted from them
+        write(file, "300000 500\n1000000 1500\n");
+        monitor.updateStates();
+        MonitorState state = monitor.getState();
+        assertEquals(1500, state.getSnapshot(0, CpuStateMonitor.MODE_CUMULATIVE).getDuration(0));
+        assertTrue(state.isIntervalReset(0));
+        assertEquals(0, state.getSnapshot(0, CpuStateMonitor.MODE_INTERVAL).getDuration(0));
+        assertFalse(monitor.hasOffsets());
+    }
+
+    @Test
+    public void hotplugEmptiesReReadIntervals() throws Exception {
+        Sysfs sysfs = fake().cpus(8).clusters(2).freqs(4).build();
+        CpuStateMonitor monitor = new CpuStateMonitor(sysfs, new FakeClock());
+        monitor.setMode(CpuStateMonitor.MODE_INTERVAL);
+        monitor.updateStates();
+        monitor.updateStates();
+        CpuSnapshot kept = monitor.getSnapshot(0);
+
+        write(sysfs.file("/sys/devices/system/cpu/online"), "0-5\n");
+        int[] changed = monitor.updateTopology(false);
+        assertEquals(2, changed.length);
+        assertEquals(6, changed[0]);
+        MonitorState state = monitor.getState();
+        assertFalse(state.getTopology().isOnline(7));
+        assertTrue(state.isIntervalReset(7));
+        assertEquals(0, monitor.getSnapshot(7).getCount());
+        assertEquals(0, state.getIdleSnapshot(7, CpuStateMonitor.MODE_INTERVAL).getCount());
+        // the other policy is carried over
+        assertFalse(state.isIntervalReset(0));
+        assertSame(kept, monitor.getSnapshot(0));
+    }
+
+    @Test
+    public void idleCountersReReadInPlace() throws Exception {
+        Sysfs sysfs = fake().cpus(2).clusters(1).freqs(2).idleStates(2).build();
+        String state0 = "/sys/devices/system/cpu/cpu0/cpuidle/state0";
+        write(sysfs.file(state0 + "/time"), "1000\n");
+        write(sysfs.file(state0 + "/usage"), "10\n");
+        FakeClock clock = new FakeClock();
+        CpuStateMonitor monitor = new CpuStateMonitor(sysfs, clock);
+        monitor.updateStates();
+        IdleSnapshot idle = monitor.getState().getIdleSnapshot(0, CpuStateMonitor.MODE_CUMULATIVE);
+        assertEquals(2, idle.getCount());
+        assertEquals("WFI", idle.getName(0));
+        assertEquals(1000, idle.getTime(0));
+        assertEquals(10, idle.getUsage(0));
+
+        // rewritten in place, as sysfs regenerates it
+        write(sysfs.file(state0 + "/time"), "1600\n");
+        write(sysfs.file(state0 + "/usage"), "14\n");
+        clock.advance(1000);
+        monitor.updateStates();
+        IdleSnapshot delta = monitor.getState().getIdleSnapshot(0, CpuStateMonitor.MODE_INTERVAL);
+        assertEquals(600, delta.getTime(0));
+        assertEquals(4, delta.getUsage(0));
+        assertEquals(0, delta.getTime(1));
+        assertEquals(1000 * 1000, delta.getElapsed());
+    }
+
+    @Test
+    public void manyCpus() throws Exception {
+        Sysfs sysfs = fake().cpus(256).clusters(16).freqs(40).offline(1, 2, 7).build();
+        MonitorState state = read(sysfs);
+        assertEquals(256, state.getCpuCount());
+        assertEquals(253, state.getTopology().getOnlineCount());
+        assertFalse(state.getTopology().isOnline(7));
+        assertTrue(state.getTopology().isOnline(8));
+        assertEquals(16, state.getPolicyCount());
+        for (int p = 0; p < 16; p++) {
+            assertCpus(state.getPolicy(p), p * 16, p * 16 + 15);
+            assertEquals(41, state.getPolicySnapshot(p).getCount());
+        }
+        assertEquals(15, state.getPolicyIndex(255));
+        assertStates(state, 15, sysfs.file(
+                "/sys/devices/system/cpu/cpufreq/policy240/stats/time_in_state"));
+    }
+}
@@ -0,0 +1,82 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CrcFileTest {
+    private static final byte[] DATA = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private File mFile;
+    private CrcFile mCrcFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "files/data");
+        mCrcFile = new CrcFile(mFile);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        // only the given length is written, in a directory made for it
+        mCrcFile.write(DATA, 10);
+        assertEquals(14, mFile.length());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+        ByteBuffer buffer = mCrcFile.read(4);
+        assertEquals(0, buffer.position());
+        assertEquals(10, buffer.limit());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(DATA[i], buffer.get(i));
+        }
+    }
+
+    @Test
+    public void writeReplaces() throws IOException {
+        mCrcFile.write(DATA, DATA.length);
+        mCrcFile.write(DATA, 2);
+        assertEquals(2, mCrcFile.read(4).limit());
+    }
+
+    @Test
+    public void missingOrTooSmall() throws IOException {
+        assertNull(mCrcFile.read(4));
+        mCrcFile.write(DATA, 2);
+        assertNull(mCrcFile.read(16));
+        // too small is not damaged
+        assertTrue(mFile.exists());
+    }
+
+    @Test
+    public void damagedIsDeleted() throws IOException {
+        mCrcFile.write(DATA, DATA.length);
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(3);
+            raf.write(DATA[3] ^ 0x10);
+        } finally {
+            raf.close();
+        }
+        assertNull(mCrcFile.read(4));
+        assertFalse(mFile.exists());
+    }
+}
@@ -0,0 +1,178 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaEngineTest {
+    private static final int[] FREQS = { 1800000, 300000, 0 };
+
+    private DeltaEngine mEngine;
+    private final CpuSnapshot[] mDeltas = new CpuSnapshot[1];
+
+    @Before
+    public void setUp() {
+        mEngine = new DeltaEngine();
+        mEngine.reset(1);
+    }
+
+    private static CpuSnapshot snapshot(long high, long low, long sleep) {
+        return new CpuSnapshot(FREQS, new long[] { high, low, sleep }, FREQS.length);
+    }
+
+    private void update(long now, long high, long low, long sleep) {
+        mEngine.update(new CpuSnapshot[] { snapshot(high, low, sleep) }, now, mDeltas);
+    }
+
+    private void assertDelta(long high, long low, long sleep) {
+        CpuSnapshot delta = mDeltas[0];
+        assertEquals(FREQS.length, delta.getCount());
+        for (int i = 0; i < FREQS.length; i++) {
+            assertEquals(FREQS[i], delta.getFreq(i));
+        }
+        assertEquals(high, delta.getDuration(0));
+        assertEquals(low, delta.getDuration(1));
+        assertEquals(sleep, delta.getDuration(2));
+    }
+
+    @Test
+    public void firstUpdateIsEmpty() {
+        update(1000, 10, 20, 30);
+        assertDelta(0, 0, 0);
+        assertFalse(mEngine.wasReset(0));
+        assertEquals(0, mEngine.getIntervalMillis());
+    }
+
+    @Test
+    public void sinceLastUpdate() {
+        update(1000, 10, 20, 30);
+        update(3000, 15, 22, 30);
+        assertDelta(5, 2, 0);
+        assertFalse(mEngine.wasReset(0));
+        assertEquals(2000, mEngine.getIntervalMillis());
+        update(4000, 16, 22, 31);
+        assertDelta(1, 0, 1);
+    }
+
+    @Test
+    public void counterGoingBackwardsIsReset() {
+        update(1000, 10, 20, 30);
+        update(2000, 3, 25, 30);
+        assertTrue(mEngine.wasReset(0));
+        assertDelta(0, 0, 0);
+        // counts on from the reset
+        update(3000, 5, 26, 30);
+        assertFalse(mEngine.wasReset(0));
+        assertDelta(2, 1, 0);
+    }
+
+    @Test
+    public void newStateIsReset() {
+        update(1000, 10, 20, 30);
+        CpuSnapshot other = new CpuSnapshot(new int[] { 2400000, 1800000, 300000, 0 },
+                new long[] { 1, 10, 20, 30 }, 4);
+        mEngine.update(new CpuSnapshot[] { other }, 2000, mDeltas);
+        assertTrue(mEngine.wasReset(0));
+        assertEquals(4, mDeltas[0].getCount());
+        assertEquals(0, mDeltas[0].getTotalTime());
+    }
+
+    @Test
+    public void restartIsResetEvenGoingUp() {
+        update(1000, 10, 20, 30);
+        // an offset was dropped: the times jump up to the raw counters
+        mEngine.restart(0);
+        update(2000, 500, 600, 700);
+        assertTrue(mEngine.wasReset(0));
+        assertDelta(0, 0, 0);
+        update(3000, 501, 600, 700);
+        assertFalse(mEngine.wasReset(0));
+        assertDelta(1, 0, 0);
+    }
+
+    @Test
+    public void restartBeforeFirstUpdateIsForgotten() {
+        mEngine.restart(0);
+        update(1000, 10, 20, 30);
+        update(2000, 11, 20, 30);
+        assertFalse(mEngine.wasReset(0));
+        assertDelta(1, 0, 0);
+    }
+
+    @Test
+    public void windowPicksFirstBaselineOldEnough() {
+        mEngine.setWindow(3000);
+        for (int t = 1; t <= 10; t++) {
+            update(t * 1000, t, 0, 0);
+        }
+        // now 10s: the newest baseline at least 3s old is 7s
+        assertEquals(3000, mEngine.getIntervalMillis());
+        assertDelta(3, 0, 0);
+    }
+
+    @Test
+    public void windowLongerThanHistoryUsesOldest() {
+        mEngine.setWindow(60000);
+        update(1000, 1, 0, 0);
+        update(2000, 2, 0, 0);
+        update(5000, 5, 0, 0);
+        assertEquals(4000, mEngine.getIntervalMillis());
+        assertDelta(4, 0, 0);
+    }
+
+    @Test
+    public void historyKeeps64Baselines() {
+        mEngine.setWindow(Long.MAX_VALUE);
+        for (int t = 1; t <= 100; t++) {
+            update(t * 1000, t, 0, 0);
+        }
+        // the update at 100s saw 36s..99s; 36s is the oldest kept
+        assertEquals(64000, mEngine.getIntervalMillis());
+        assertDelta(64, 0, 0);
+    }
+
+    @Test
+    public void resetInsideWindowCountsFromReset() {
+        mEngine.setWindow(10000);
+        update(1000, 100, 0, 0);
+        update(2000, 110, 0, 0);
+        update(3000, 2, 0, 0);
+        assertTrue(mEngine.wasReset(0));
+        // the window reaches back past the reset, but counts from it
+        update(4000, 7, 0, 0);
+        assertFalse(mEngine.wasReset(0));
+        assertDelta(5, 0, 0);
+    }
+
+    @Test
+    public void windowChangeTakesEffectNextUpdate() {
+        for (int t = 1; t <= 5; t++) {
+            update(t * 1000, t * 10, 0, 0);
+        }
+        assertDelta(10, 0, 0);
+        mEngine.setWindow(2000);
+        update(6000, 60, 0, 0);
+        assertEquals(2000, mEngine.getIntervalMillis());
+        assertDelta(20, 0, 0);
+        assertEquals(2000, mEngine.getWindow());
+    }
+
+    @Test
+    public void resetDropsHistory() {
+        update(1000, 10, 0, 0);
+        mEngine.reset(1);
+        update(2000, 20, 0, 0);
+        assertDelta(0, 0, 0);
+        assertEquals(0, mEngine.getIntervalMillis());
+    }
+}
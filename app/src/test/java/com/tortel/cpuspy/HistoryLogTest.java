@@ -0,0 +1,163 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryLogTest {
+    private static final int[] FREQS = { 300000, 576000, 1958400 };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mFolder.newFolder("history");
+    }
+
+    private static CpuSnapshot[] sample(long base) {
+        long[] ticks = { base, base * 2, base * 3 };
+        return new CpuSnapshot[] { new CpuSnapshot(FREQS, ticks, FREQS.length) };
+    }
+
+    /** write samples 1..count, a second apart, into one segment */
+    private File writeSamples(int count) throws IOException {
+        HistoryLog log = new HistoryLog(mDir, 1024 * 1024, 16 * 1024 * 1024);
+        for (int i = 1; i <= count; i++) {
+            log.append(i * 1000L, sample(i * 10));
+        }
+        log.close();
+        File[] segments = HistoryLog.listSegments(mDir);
+        assertEquals(1, segments.length);
+        return segments[0];
+    }
+
+    /** check the reader returns exactly samples first..last */
+    private void assertSamples(int first, int last) throws IOException {
+        HistoryReader reader = new HistoryReader(mDir);
+        for (int i = first; i <= last; i++) {
+            assertTrue(reader.next());
+            assertEquals(i * 1000L, reader.getTime());
+            assertEquals(1, reader.getPolicyCount());
+            assertEquals(FREQS.length, reader.getStateCount(0));
+            for (int s = 0; s < FREQS.length; s++) {
+                assertEquals(FREQS[s], reader.getFreq(0, s));
+                assertEquals(i * 10L * (s + 1), reader.getTicks(0, s));
+            }
+        }
+        assertFalse(reader.next());
+    }
+
+    private static void setLength(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        writeSamples(3);
+        assertSamples(1, 3);
+    }
+
+    @Test
+    public void tornWriteIsCutOff() throws IOException {
+        File segment = writeSamples(3);
+        long intact = segment.length();
+        File shorter = writeSamplesElsewhere(2);
+        long twoSamples = shorter.length();
+
+        // the last record lost its last bytes
+        setLength(segment, intact - 2);
+        assertSamples(1, 2);
+
+        new HistoryLog(mDir, 1024 * 1024, 16 * 1024 * 1024).close();
+        assertEquals(twoSamples, segment.length());
+        assertSamples(1, 2);
+    }
+
+    @Test
+    public void garbageAfterLastRecordIsCutOff() throws IOException {
+        File segment = writeSamples(3);
+        long intact = segment.length();
+        FileOutputStream out = new FileOutputStream(segment, true);
+        try {
+            out.write(new byte[] { 9, 2, 1, 0, 0, 7 });
+        } finally {
+            out.close();
+        }
+
+        assertEquals(intact, HistoryLog.recover(segment));
+        assertEquals(intact, segment.length());
+        assertSamples(1, 3);
+    }
+
+    @Test
+    public void damagedRecordEndsSegment() throws IOException {
+        File segment = writeSamples(3);
+        // flip a bit inside the last record's checksum
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            raf.seek(segment.length() - 1);
+            int b = raf.read();
+            raf.seek(segment.length() - 1);
+            raf.write(b ^ 1);
+        } finally {
+            raf.close();
+        }
+        assertSamples(1, 2);
+    }
+
+    @Test
+    public void appendsAfterRecoveryGoToNewSegment() throws IOException {
+        File segment = writeSamples(3);
+        setLength(segment, segment.length() - 1);
+
+        HistoryLog log = new HistoryLog(mDir, 1024 * 1024, 16 * 1024 * 1024);
+        log.append(3000, sample(30));
+        log.append(4000, sample(40));
+        log.close();
+        assertEquals(2, HistoryLog.listSegments(mDir).length);
+        assertSamples(1, 4);
+    }
+
+    @Test
+    public void segmentWithoutMagicIsSkipped() throws IOException {
+        File segment = writeSamples(2);
+        setLength(segment, 2);
+        assertEquals(0, HistoryReader.validLength(segment));
+        assertFalse(new HistoryReader(mDir).next());
+    }
+
+    /** writeSamples into another folder, to compare segment lengths */
+    private File writeSamplesElsewhere(int count) throws IOException {
+        File dir = mDir;
+        mDir = mFolder.newFolder();
+        try {
+            return writeSamples(count);
+        } finally {
+            mDir = dir;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class IdleSnapshotTest {
+    private static final String[] NAMES = { "WFI", "C1" };
+
+    /** times then usages of WFI and C1 at the given wall time */
+    private static IdleSnapshot snapshot(long elapsed, long wfi, long c1, long wfiUsage,
+                                         long c1Usage) {
+        return new IdleSnapshot(NAMES, new long[] { wfi, c1, wfiUsage, c1Usage }, elapsed);
+    }
+
+    @Test
+    public void since() {
+        IdleSnapshot delta = snapshot(5000, 300, 900, 20, 4).since(snapshot(1000, 100, 500, 10, 2));
+        assertEquals(2, delta.getCount());
+        assertEquals("C1", delta.getName(1));
+        assertEquals(200, delta.getTime(0));
+        assertEquals(400, delta.getTime(1));
+        assertEquals(10, delta.getUsage(0));
+        assertEquals(2, delta.getUsage(1));
+        assertEquals(4000, delta.getElapsed());
+    }
+
+    @Test
+    public void backOnlineIsEmpty() {
+        // offline at the last refresh: the counters are since boot, not an interval
+        assertSame(IdleSnapshot.EMPTY, snapshot(5000, 300, 900, 20, 4).since(IdleSnapshot.EMPTY));
+    }
+
+    @Test
+    public void counterGoingBackwardsIsEmpty() {
+        IdleSnapshot base = snapshot(1000, 100, 500, 10, 2);
+        assertSame(IdleSnapshot.EMPTY, snapshot(5000, 300, 400, 20, 4).since(base));
+        assertSame(IdleSnapshot.EMPTY, snapshot(5000, 300, 900, 20, 1).since(base));
+        assertSame(IdleSnapshot.EMPTY, snapshot(500, 300, 900, 20, 4).since(base));
+    }
+
+    @Test
+    public void otherStatesAreEmpty() {
+        IdleSnapshot base = new IdleSnapshot(new String[] { "WFI" }, new long[] { 100, 10 }, 1000);
+        assertSame(IdleSnapshot.EMPTY, snapshot(5000, 300, 900, 20, 4).since(base));
+    }
+}
@@ -0,0 +1,139 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleRingTest {
+    private static final int[] FREQS = { 1800000, 300000, 0 };
+    /** room for four samples of one three state policy */
+    private static final long BUDGET = 4 * (8 + 3 * 8);
+
+    private SampleRing mRing;
+
+    @Before
+    public void setUp() {
+        mRing = new SampleRing(BUDGET);
+        mRing.setLayout(sample(0, 0, 0));
+    }
+
+    private static CpuSnapshot[] sample(long high, long low, long sleep) {
+        return new CpuSnapshot[] {
+                new CpuSnapshot(FREQS, new long[] { high, low, sleep }, FREQS.length) };
+    }
+
+    /** record sample i at time i seconds, with i, 2i and 3i ticks */
+    private void record(int from, int to) {
+        for (int i = from; i <= to; i++) {
+            assertTrue(mRing.record(i * 1000L, sample(i, i * 2, i * 3)));
+        }
+    }
+
+    @Test
+    public void layout() {
+        assertEquals(4, mRing.getCapacity());
+        assertEquals(1, mRing.getPolicyCount());
+        assertEquals(3, mRing.getStateCount(0));
+        assertEquals(300000, mRing.getFreq(0, 1));
+        assertEquals(0, mRing.size());
+    }
+
+    @Test
+    public void mismatchedSampleIsRefused() {
+        CpuSnapshot other = new CpuSnapshot(new int[] { 1800000, 576000, 0 },
+                new long[3], 3);
+        assertFalse(mRing.record(1000, new CpuSnapshot[] { other }));
+        assertFalse(mRing.record(1000, new CpuSnapshot[0]));
+        assertEquals(0, mRing.size());
+    }
+
+    @Test
+    public void wrapsAround() {
+        record(1, 6);
+        assertEquals(4, mRing.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals((i + 3) * 1000L, mRing.getTime(i));
+            assertEquals((i + 3) * 2L, mRing.getTicks(i, 0, 1));
+        }
+
+        long[] out = new long[3];
+        assertEquals(3000, mRing.getResidency(0, 0, Long.MAX_VALUE, out));
+        assertArrayEquals(new long[] { 3, 6, 9 }, out);
+        assertEquals(1000, mRing.getResidency(0, 4000, 5500, out));
+        assertArrayEquals(new long[] { 1, 2, 3 }, out);
+    }
+
+    @Test
+    public void windowStartsAtLastSampleBeforeIt() {
+        record(1, 4);
+        long[] out = new long[3];
+        // t0 between samples 2 and 3 starts at 2, t1 between 3 and 4 ends at 3
+        assertEquals(1000, mRing.getResidency(0, 2500, 3500, out));
+        assertArrayEquals(new long[] { 1, 2, 3 }, out);
+    }
+
+    @Test
+    public void windowOutsideRetainedRange() {
+        record(1, 6);
+        long[] out = { 7, 7, 7 };
+        // ends before the oldest sample kept
+        assertEquals(-1, mRing.getResidency(0, 0, 2000, out));
+        assertArrayEquals(new long[3], out);
+        // starts after the newest
+        assertEquals(-1, mRing.getResidency(0, 7000, 9000, out));
+        // starts before the oldest: counts from it
+        assertEquals(2000, mRing.getResidency(0, 1000, 5000, out));
+        assertArrayEquals(new long[] { 2, 4, 6 }, out);
+    }
+
+    @Test
+    public void counterResetInsideWindow() {
+        mRing.record(1000, sample(100, 200, 300));
+        mRing.record(2000, sample(150, 250, 350));
+        // the kernel started over, then counted on
+        mRing.record(3000, sample(5, 260, 6));
+        long[] out = new long[3];
+        assertEquals(2000, mRing.getResidency(0, 1000, 3000, out));
+        assertArrayEquals(new long[] { 5, 60, 6 }, out);
+    }
+
+    @Test
+    public void tooFewSamples() {
+        long[] out = new long[3];
+        assertEquals(-1, mRing.getResidency(0, 0, 10000, out));
+        record(1, 1);
+        assertEquals(-1, mRing.getResidency(0, 0, 10000, out));
+        assertEquals(0, mRing.getResidencyColumns(0, 4, new float[12]));
+    }
+
+    @Test
+    public void clearKeepsLayout() {
+        record(1, 3);
+        mRing.clear();
+        assertEquals(0, mRing.size());
+        record(4, 5);
+        assertEquals(4000, mRing.getTime(0));
+    }
+
+    @Test
+    public void columns() {
+        mRing.record(0, sample(0, 0, 0));
+        mRing.record(1000, sample(10, 0, 0));
+        mRing.record(2000, sample(10, 10, 20));
+        float[] out = new float[6];
+        assertEquals(2, mRing.getResidencyColumns(0, 2, out));
+        // running sums of the shares: all high, then a third low, the rest asleep
+        assertArrayEquals(new float[] { 1, 1, 1, 0, 0.333f, 1 }, out, 0.001f);
+    }
+}
@@ -0,0 +1,137 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import com.tortel.cpuspy.fake.FakeSysfs;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StartupCacheTest {
+    private static final String BOOT_ID = "0f6b1c6e-8c1d-4e53-9a4e-1f2a3b4c5d6e";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private FakeSysfs mFake;
+    private Sysfs mSysfs;
+    private File mFile;
+    private StartupCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mFake = new FakeSysfs(mFolder.newFolder("root"));
+        mSysfs = mFake.bootId(BOOT_ID);
+        mFile = new File(mFolder.getRoot(), "files/startup");
+        mCache = new StartupCache(mFile, mSysfs);
+    }
+
+    private static DeviceInfo deviceInfo() {
+        return new DeviceInfo(BOOT_ID, "4.19.113-perf", "SM8150", new int[] { 0, 4 },
+                new String[] { "schedutil", "performance" },
+                new int[][] { { 300000, 1785600 }, { 710400, 2419200 } });
+    }
+
+    /** two policies over three CPUs, the last of them offline */
+    private static MonitorState state() {
+        CpuTopology topology = new CpuTopology(new boolean[] { true, true, true },
+                new boolean[] { true, true, true }, new boolean[] { true, true, false });
+        CpuPolicy[] policies = {
+                new CpuPolicy(0, new int[] { 0, 1 }, new File[0]),
+                new CpuPolicy(2, new int[] { 2 }, new File[0])
+        };
+        CpuSnapshot[] cumulative = {
+                new CpuSnapshot(new int[] { 300000, 1785600 }, new long[] { 500, 7 }, 2),
+                new CpuSnapshot(new int[] { 710400 }, new long[] { 42 }, 1)
+        };
+        return new MonitorState(topology, policies, new int[] { 0, 0, 1 }, cumulative,
+                new CpuSnapshot[] { CpuSnapshot.EMPTY, CpuSnapshot.EMPTY }, new boolean[2],
+                new IdleSnapshot[0], new IdleSnapshot[0], new TransTable[0], new TransTable[0],
+                new ThrottleState[0], 123456, 0);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        mCache.save(deviceInfo(), state());
+        StartupCache cache = new StartupCache(mFile, mSysfs);
+        assertTrue(cache.load());
+
+        DeviceInfo info = cache.getDeviceInfo();
+        assertEquals(BOOT_ID, info.getBootId());
+        assertEquals("4.19.113-perf", info.getKernelVersion());
+        assertEquals("SM8150", info.getSocName());
+        assertEquals(2, info.getPolicyCount());
+        assertEquals(4, info.getFirstCpu(1));
+        assertEquals("performance", info.getGovernor(1));
+        assertArrayEquals(new int[] { 710400, 2419200 }, info.getAvailableFreqs(1));
+
+        MonitorState state = cache.getState();
+        assertEquals(123456, state.getTime());
+        assertEquals(3, state.getCpuCount());
+        assertTrue(state.getTopology().isOnline(1));
+        assertFalse(state.getTopology().isOnline(2));
+        assertEquals(2, state.getPolicyCount());
+        assertEquals(2, state.getPolicy(1).getFirstCpu());
+        CpuSnapshot snapshot = state.getPolicySnapshot(0);
+        assertEquals(2, snapshot.getCount());
+        assertEquals(1785600, snapshot.getFreq(1));
+        assertEquals(7, snapshot.getDuration(1));
+    }
+
+    @Test
+    public void infoOnly() throws IOException {
+        mCache.save(deviceInfo(), null);
+        assertTrue(mCache.load());
+        assertEquals("SM8150", mCache.getDeviceInfo().getSocName());
+        assertNull(mCache.getState());
+    }
+
+    @Test
+    public void missingFile() {
+        assertFalse(mCache.load());
+        assertNull(mCache.getDeviceInfo());
+        assertNull(mCache.getState());
+    }
+
+    @Test
+    public void otherBootIsDropped() throws IOException {
+        mCache.save(deviceInfo(), state());
+        mFake.bootId("6a2d0f3e-1111-4e53-9a4e-1f2a3b4c5d6e");
+        assertFalse(mCache.load());
+        assertNull(mCache.getDeviceInfo());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void damagedFileIsDropped() throws IOException {
+        mCache.save(deviceInfo(), state());
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 0x10);
+        } finally {
+            raf.close();
+        }
+        assertFalse(mCache.load());
+        assertNull(mCache.getState());
+        assertFalse(mFile.exists());
+    }
+}
@@ -0,0 +1,88 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeInStateParserTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static TimeInStateParser load(String text) {
+        TimeInStateParser parser = new TimeInStateParser();
+        byte[] data = text.getBytes(ASCII);
+        parser.getReader().load(data, data.length);
+        return parser;
+    }
+
+    @Test
+    public void parsesPairs() {
+        TimeInStateParser parser = load("300000 120\n576000 45\n1958400 7\n");
+        assertEquals(3, parser.parse());
+        assertEquals(300000, parser.getFreq(0));
+        assertEquals(120, parser.getTime(0));
+        assertEquals(1958400, parser.getFreq(2));
+        assertEquals(7, parser.getTime(2));
+    }
+
+    @Test
+    public void skipsMalformedLines() {
+        TimeInStateParser parser = load("garbage\n300000 120\n576000\n\n"
+                + "710400 x\r\n806400\t33\r\n  1036800   9");
+        assertEquals(3, parser.parse());
+        assertEquals(300000, parser.getFreq(0));
+        assertEquals(806400, parser.getFreq(1));
+        assertEquals(33, parser.getTime(1));
+        // no trailing newline
+        assertEquals(1036800, parser.getFreq(2));
+        assertEquals(9, parser.getTime(2));
+    }
+
+    @Test
+    public void skipsFrequenciesPastInt() {
+        TimeInStateParser parser = load("4294967296 5\n300000 6\n");
+        assertEquals(1, parser.parse());
+        assertEquals(300000, parser.getFreq(0));
+    }
+
+    @Test
+    public void emptyFile() {
+        assertEquals(0, load("").parse());
+        assertEquals(0, load("\n\n").parse());
+    }
+
+    @Test
+    public void growsPastInitialStates() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append(100000 + i * 1000).append(' ').append(i).append('\n');
+        }
+        TimeInStateParser parser = load(text.toString());
+        assertEquals(100, parser.parse());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(100000 + i * 1000, parser.getFreq(i));
+            assertEquals(i, parser.getTime(i));
+        }
+    }
+
+    @Test
+    public void reparseStartsOver() {
+        TimeInStateParser parser = load("300000 1\n576000 2\n");
+        assertEquals(2, parser.parse());
+        assertEquals(2, parser.parse());
+        byte[] data = "710400 3\n".getBytes(ASCII);
+        parser.getReader().load(data, data.length);
+        assertEquals(1, parser.parse());
+        assertEquals(710400, parser.getFreq(0));
+        parser.clear();
+        assertEquals(0, parser.getCount());
+    }
+}
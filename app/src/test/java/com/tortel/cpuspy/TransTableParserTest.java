@@ -0,0 +1,125 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class TransTableParserTest {
+    private static final String HEADER = "   From  :    To\n"
+            + "         :    300000    576000    710400 \n";
+
+    private static TransTableParser load(String text) {
+        TransTableParser parser = new TransTableParser();
+        byte[] data = text.getBytes(Charset.forName("US-ASCII"));
+        parser.getReader().load(data, data.length);
+        return parser;
+    }
+
+    private static void assertRow(TransTableParser parser, int row, long... cells) {
+        for (int column = 0; column < cells.length; column++) {
+            assertEquals(cells[column], parser.getTransitions(row, column));
+        }
+    }
+
+    @Test
+    public void parsesTable() {
+        TransTableParser parser = load(HEADER
+                + "   300000:         0        12         3 \n"
+                + "   576000:        15         0         4 \n"
+                + "   710400:         1         2         0 \n");
+        assertEquals(3, parser.parse());
+        assertEquals(300000, parser.getFreq(0));
+        assertEquals(710400, parser.getFreq(2));
+        assertRow(parser, 0, 0, 12, 3);
+        assertRow(parser, 1, 15, 0, 4);
+        assertRow(parser, 2, 1, 2, 0);
+    }
+
+    @Test
+    public void truncatedTableKeepsRowsThatMadeIt() {
+        TransTableParser parser = load(HEADER
+                + "   300000:         0        12         3 \n"
+                + "   576000:        15         0\n"
+                + "The table is FULL\n");
+        assertEquals(3, parser.parse());
+        assertRow(parser, 0, 0, 12, 3);
+        assertRow(parser, 1, 15, 0, 0);
+        assertRow(parser, 2, 0, 0, 0);
+    }
+
+    @Test
+    public void truncatedMidNumber() {
+        TransTableParser parser = load(HEADER
+                + "   300000:         0        12         3 \n"
+                + "   5760");
+        assertEquals(3, parser.parse());
+        assertRow(parser, 0, 0, 12, 3);
+        assertRow(parser, 1, 0, 0, 0);
+    }
+
+    @Test
+    public void reparseClearsOldCells() {
+        TransTableParser parser = load(HEADER
+                + "   300000:         0        12         3 \n"
+                + "   576000:        15         0         4 \n"
+                + "   710400:         1         2         0 \n");
+        parser.parse();
+        byte[] data = (HEADER + "   300000:         0        13         3 \n")
+                .getBytes(Charset.forName("US-ASCII"));
+        parser.getReader().load(data, data.length);
+        assertEquals(3, parser.parse());
+        assertRow(parser, 0, 0, 13, 3);
+        assertRow(parser, 1, 0, 0, 0);
+    }
+
+    @Test
+    public void rowsOutOfOrderAndUnknownRows() {
+        TransTableParser parser = load(HEADER
+                + "   710400:         1         2         0 \n"
+                + "   999999:         7         7         7 \n"
+                + "   300000:         0        12         3 \n");
+        assertEquals(3, parser.parse());
+        assertRow(parser, 0, 0, 12, 3);
+        assertRow(parser, 1, 0, 0, 0);
+        assertRow(parser, 2, 1, 2, 0);
+    }
+
+    @Test
+    public void growsPastInitialStates() {
+        int count = 40;
+        StringBuilder text = new StringBuilder("   From  :    To\n         : ");
+        for (int i = 0; i < count; i++) {
+            text.append(String.format("%9d ", 300000 + i * 50000));
+        }
+        text.append('\n');
+        for (int row = 0; row < count; row++) {
+            text.append(String.format("%9d: ", 300000 + row * 50000));
+            for (int column = 0; column < count; column++) {
+                text.append(String.format("%9d ", row * 1000 + column));
+            }
+            text.append('\n');
+        }
+        TransTableParser parser = load(text.toString());
+        assertEquals(count, parser.parse());
+        assertEquals(300000 + 39 * 50000, parser.getFreq(39));
+        for (int row = 0; row < count; row++) {
+            for (int column = 0; column < count; column++) {
+                assertEquals(row * 1000 + column, parser.getTransitions(row, column));
+            }
+        }
+    }
+
+    @Test
+    public void emptyFile() {
+        assertEquals(0, load("").parse());
+    }
+}
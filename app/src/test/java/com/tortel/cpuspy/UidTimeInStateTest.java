@@ -0,0 +1,173 @@
+//-----------------------------------------------------------------------------
+//
+// (C) Scott Warner, 2017 <Tortel1210@gmail.com>
+//
+//-----------------------------------------------------------------------------
+
+package com.tortel.cpuspy;
+
+// imports
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UidTimeInStateTest {
+    /** two policies; at 0.75 only 1000000, 1500000 and 2000000 are high */
+    private static final String HEADER = "uid: 300000 576000 1000000 300000 1500000 2000000\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private File mFile;
+    private UidTimeInState mUids;
+
+    @Before
+    public void setUp() throws IOException {
+        File root = mFolder.newFolder("root");
+        mFile = new File(root, UidTimeInState.UID_TIME_IN_STATE_PATH);
+        assertTrue(mFile.getParentFile().mkdirs());
+        mUids = new UidTimeInState(new Sysfs(root));
+    }
+
+    private void write(String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(text.getBytes(Charset.forName("US-ASCII")));
+        } finally {
+            out.close();
+        }
+    }
+
+    /** check the UID's gain in the last update */
+    private void assertGain(int uid, long high, long total) {
+        int[] uids = new int[64];
+        long[] highTimes = new long[64];
+        long[] totalTimes = new long[64];
+        int count = mUids.getTop(uids, highTimes, totalTimes);
+        for (int i = 0; i < count; i++) {
+            if (uids[i] == uid) {
+                assertEquals(high, highTimes[i]);
+                assertEquals(total, totalTimes[i]);
+                return;
+            }
+        }
+        throw new AssertionError("uid " + uid + " not ranked");
+    }
+
+    @Test
+    public void unsupportedWithoutFile() {
+        assertFalse(mUids.isSupported());
+    }
+
+    @Test
+    public void marksHighFrequenciesPerPolicy() throws IOException {
+        write(HEADER + "0: 10 20 30 40 50 60\n");
+        assertTrue(mUids.isSupported());
+        mUids.update();
+        assertEquals(1, mUids.getUidCount());
+        assertGain(0, 30 + 50 + 60, 210);
+    }
+
+    @Test
+    public void highFraction() throws IOException {
+        write(HEADER + "0: 10 20 30 40 50 60\n");
+        mUids.setHighFraction(0.5f);
+        mUids.update();
+        // now 576000 and 1000000 on the first policy
+        assertGain(0, 20 + 30 + 50 + 60, 210);
+    }
+
+    @Test
+    public void gainBetweenUpdates() throws IOException {
+        write(HEADER + "0: 10 20 30 40 50 60\n10123: 1 1 1 1 1 1\n");
+        mUids.update();
+        write(HEADER + "0: 15 20 35 40 50 70\n10123: 1 1 1 1 1 1\n");
+        mUids.update();
+        assertEquals(2, mUids.getUidCount());
+        assertGain(0, 5 + 10, 20);
+        assertGain(10123, 0, 0);
+    }
+
+    @Test
+    public void uidListedTwiceAddsUp() throws IOException {
+        write(HEADER + "1000: 1 0 2 0 3 0\n1000: 0 0 4 0 0 5\n");
+        mUids.update();
+        assertEquals(1, mUids.getUidCount());
+        assertGain(1000, 2 + 3 + 4 + 5, 15);
+    }
+
+    @Test
+    public void reusedUidStartsOver() throws IOException {
+        write(HEADER + "10200: 100 100 100 100 100 100\n");
+        mUids.update();
+        // went backwards: a new app got the UID
+        write(HEADER + "10200: 1 0 2 0 0 3\n");
+        mUids.update();
+        assertGain(10200, 5, 6);
+    }
+
+    @Test
+    public void missingTrailingNewline() throws IOException {
+        write(HEADER + "0: 1 1 1 1 1 1\n2000: 0 0 7 0 0 9");
+        mUids.update();
+        assertEquals(2, mUids.getUidCount());
+        assertGain(2000, 16, 16);
+    }
+
+    @Test
+    public void vanishedUidsAreNotCounted() throws IOException {
+        write(HEADER + "0: 1 1 1 1 1 1\n2000: 1 1 1 1 1 1\n");
+        mUids.update();
+        write(HEADER + "0: 2 2 2 2 2 2\n");
+        mUids.update();
+        assertEquals(1, mUids.getUidCount());
+        int[] uids = new int[4];
+        assertEquals(1, mUids.getTop(uids, new long[4], new long[4]));
+        assertEquals(0, uids[0]);
+    }
+
+    @Test
+    public void topIsSortedAndBounded() throws IOException {
+        StringBuilder text = new StringBuilder(HEADER);
+        for (int uid = 10000; uid < 10500; uid++) {
+            // high time uid % 97, so several UIDs tie
+            text.append(uid).append(": 1 0 ").append(uid % 97).append(" 0 0 0\n");
+        }
+        write(text.toString());
+        mUids.update();
+        assertEquals(500, mUids.getUidCount());
+
+        int[] uids = new int[5];
+        long[] highTimes = new long[5];
+        long[] totalTimes = new long[5];
+        assertEquals(5, mUids.getTop(uids, highTimes, totalTimes));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(96, highTimes[i]);
+            assertEquals(96, uids[i] % 97);
+            assertEquals(97, totalTimes[i]);
+        }
+    }
+
+    @Test
+    public void topOrder() throws IOException {
+        write(HEADER + "1: 0 0 5 0 0 0\n2: 0 0 9 0 0 0\n3: 0 0 1 0 0 0\n4: 0 0 7 0 0 0\n");
+        mUids.update();
+        int[] uids = new int[3];
+        long[] highTimes = new long[3];
+        assertEquals(3, mUids.getTop(uids, highTimes, new long[3]));
+        assertEquals(2, uids[0]);
+        assertEquals(4, uids[1]);
+        assertEquals(1, uids[2]);
+        assertEquals(9, highTimes[0]);
+        assertEquals(5, highTimes[2]);
+    }
+}
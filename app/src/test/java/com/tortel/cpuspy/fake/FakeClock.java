@@ -0,0 +1,32 @@
+package com.tortel.cpuspy.fake;
+
+import com.tortel.cpuspy.MonitorClock;
+
+/**
+ * MonitorClock that only moves when told to
+ */
+public class FakeClock implements MonitorClock {
+    private long mElapsed = 3600 * 1000;
+    private long mUptime = 1800 * 1000;
+
+    /** move both clocks forward, the device being awake */
+    public void advance(long millis) {
+        mElapsed += millis;
+        mUptime += millis;
+    }
+
+    /** move only the elapsed clock forward, the device being asleep */
+    public void sleep(long millis) {
+        mElapsed += millis;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return mElapsed;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return mUptime;
+    }
+}
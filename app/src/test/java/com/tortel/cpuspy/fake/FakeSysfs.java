@@ -0,0 +1,309 @@
+package com.tortel.cpuspy.fake;
+
+import com.tortel.cpuspy.CpuSnapshot;
+import com.tortel.cpuspy.CpuStateMonitor;
+import com.tortel.cpuspy.MonitorState;
+import com.tortel.cpuspy.Sysfs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates synthetic sysfs/procfs trees so the monitoring code can run on a
+ * plain JVM: N CPUs split over M clusters with K frequencies each, laid out
+ * either as cpufreq policy directories or as the older per-CPU stats paths,
+ * optionally with some time_in_state files missing or malformed and some
+ * CPUs offline.
+ *
+ * Run main() to generate a tree and print what CpuStateMonitor reads from it.
+ * Arguments: [dir] [cpus] [clusters] [freqs]
+ */
+public class FakeSysfs {
+    private static final String BOOT_ID_PATH = "/proc/sys/kernel/random/boot_id";
+
+    private final File mRoot;
+    private int mCpus = 8;
+    private int mClusters = 3;
+    private int mFreqs = 20;
+    private boolean mPolicyDirs = true;
+    private int mMissingEvery = 0;
+    private int mMalformedEvery = 0;
+    private long mSeed = 1;
+    private int[] mOffline = new int[0];
+    private int mUids = 0;
+    private int mIdleStates = 3;
+
+    public FakeSysfs(File root) {
+        mRoot = root;
+    }
+
+    /** generate into a fresh temporary directory */
+    public static FakeSysfs temporary() throws IOException {
+        return new FakeSysfs(Files.createTempDirectory("cpuspy-sysfs").toFile());
+    }
+
+    public FakeSysfs cpus(int cpus) {
+        mCpus = cpus;
+        return this;
+    }
+
+    public FakeSysfs clusters(int clusters) {
+        mClusters = clusters;
+        return this;
+    }
+
+    public FakeSysfs freqs(int freqs) {
+        mFreqs = freqs;
+        return this;
+    }
+
+    /** use the per-CPU stats paths instead of cpufreq/policyN */
+    public FakeSysfs legacyLayout() {
+        mPolicyDirs = false;
+        return this;
+    }
+
+    /** leave out the time_in_state file of every n'th cluster */
+    public FakeSysfs missingEvery(int n) {
+        mMissingEvery = n;
+        return this;
+    }
+
+    /** add garbage lines to the time_in_state file of every n'th cluster */
+    public FakeSysfs malformedEvery(int n) {
+        mMalformedEvery = n;
+        return this;
+    }
+
+    /** leave the given CPUs out of the online list */
+    public FakeSysfs offline(int... cpus) {
+        mOffline = cpus;
+        return this;
+    }
+
+    /** give every CPU this many cpuidle states */
+    public FakeSysfs idleStates(int states) {
+        mIdleStates = states;
+        return this;
+    }
+
+    /** write a /proc/uid_time_in_state with this many UIDs */
+    public FakeSysfs uids(int uids) {
+        mUids = uids;
+        return this;
+    }
+
+    public FakeSysfs seed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    public File getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * Write only the boot id, for code that reads nothing else; writing
+     * another one later looks like a reboot
+     * @return the Sysfs for the tree
+     */
+    public Sysfs bootId(String bootId) throws IOException {
+        write(BOOT_ID_PATH, bootId + "\n");
+        return new Sysfs(mRoot);
+    }
+
+    /**
+     * Write the tree
+     * @return the Sysfs to hand to the monitors
+     */
+    public Sysfs build() throws IOException {
+        Random random = new Random(mSeed);
+
+        StringBuilder cpuinfo = new StringBuilder();
+        for (int cpu = 0; cpu < mCpus; cpu++) {
+            cpuinfo.append("processor\t: ").append(cpu).append('\n')
+                    .append("BogoMIPS\t: 38.40\n")
+                    .append("CPU part\t: 0xd05\n\n");
+        }
+        write("/proc/cpuinfo", cpuinfo);
+        write("/proc/version", "Linux version 4.19.0-fake (cpuspy@host) #1 SMP PREEMPT\n");
+        write(BOOT_ID_PATH, new UUID(mSeed, mSeed).toString() + "\n");
+        String all = mCpus == 1 ? "0\n" : "0-" + (mCpus - 1) + "\n";
+        write("/sys/devices/system/cpu/possible", all);
+        write("/sys/devices/system/cpu/present", all);
+        write("/sys/devices/system/cpu/online", onlineList());
+
+        int perCluster = (mCpus + mClusters - 1) / mClusters;
+        for (int cluster = 0; cluster < mClusters; cluster++) {
+            int first = cluster * perCluster;
+            int last = Math.min(mCpus, first + perCluster) - 1;
+            if (first > last) {
+                break;
+            }
+            StringBuilder states = timeInState(random, cluster);
+            for (int cpu = first; cpu <= last; cpu++) {
+                for (int k = 0; k < mIdleStates; k++) {
+                    String idle = "/sys/devices/system/cpu/cpu" + cpu + "/cpuidle/state" + k;
+                    write(idle + "/name", (k == 0 ? "WFI" : "C" + k) + "\n");
+                    write(idle + "/time", random.nextInt(1000000000) + "\n");
+                    write(idle + "/usage", random.nextInt(1000000) + "\n");
+                }
+                write("/sys/devices/system/cpu/cpu" + cpu + "/cpufreq/scaling_cur_freq",
+                        (300000 + cluster * 200000 + random.nextInt(mFreqs) * 76800) + "\n");
+                // the last cluster is capped two steps below its maximum
+                int max = 300000 + cluster * 200000 + (mFreqs - 1) * 76800;
+                int cap = cluster == mClusters - 1 ? max - 2 * 76800 : max;
+                write("/sys/devices/system/cpu/cpu" + cpu + "/cpufreq/cpuinfo_max_freq", max + "\n");
+                write("/sys/devices/system/cpu/cpu" + cpu + "/cpufreq/scaling_max_freq", cap + "\n");
+            }
+            String zone = "/sys/class/thermal/thermal_zone" + cluster;
+            write(zone + "/type", "cpu-" + cluster + "-usr\n");
+            write(zone + "/temp", (40000 + random.nextInt(30000)) + "\n");
+            boolean missing = mMissingEvery > 0 && cluster % mMissingEvery == mMissingEvery - 1;
+
+            if (mPolicyDirs) {
+                String dir = "/sys/devices/system/cpu/cpufreq/policy" + first;
+                StringBuilder related = new StringBuilder();
+                for (int cpu = first; cpu <= last; cpu++) {
+                    related.append(cpu).append(cpu == last ? "\n" : " ");
+                }
+                write(dir + "/related_cpus", related);
+                write(dir + "/affected_cpus", related);
+                if (!missing) {
+                    write(dir + "/stats/time_in_state", states);
+                    write(dir + "/stats/trans_table", transTable(random, cluster));
+                }
+            } else if (!missing) {
+                for (int cpu = first; cpu <= last; cpu++) {
+                    write("/sys/devices/system/cpu/cpu" + cpu + "/cpufreq/stats/time_in_state", states);
+                }
+            }
+        }
+        // a zone that is not a CPU sensor, to be skipped
+        write("/sys/class/thermal/thermal_zone" + mClusters + "/type", "battery\n");
+        write("/sys/class/thermal/thermal_zone" + mClusters + "/temp", "31000\n");
+        if (mUids > 0) {
+            write("/proc/uid_time_in_state", uidTimeInState(random, perCluster));
+        }
+        return new Sysfs(mRoot);
+    }
+
+    /** every cluster's frequencies in the header, then a line per UID */
+    private StringBuilder uidTimeInState(Random random, int perCluster) {
+        StringBuilder out = new StringBuilder("uid:");
+        int clusters = (mCpus + perCluster - 1) / perCluster;
+        for (int cluster = 0; cluster < clusters; cluster++) {
+            for (int i = 0; i < mFreqs; i++) {
+                out.append(' ').append(300000 + cluster * 200000 + i * 76800);
+            }
+        }
+        out.append('\n');
+        for (int i = 0; i < mUids; i++) {
+            out.append(i < 100 ? i * 10 : 10000 + i).append(':');
+            for (int column = 0; column < clusters * mFreqs; column++) {
+                out.append(' ').append(random.nextInt(10) < 5 ? 0 : random.nextInt(100000));
+            }
+            out.append('\n');
+        }
+        return out;
+    }
+
+    /** a trans_table in the kernel's layout; total_trans is left out */
+    private StringBuilder transTable(Random random, int cluster) {
+        int base = 300000 + cluster * 200000;
+        StringBuilder out = new StringBuilder("   From  :    To\n         : ");
+        for (int i = 0; i < mFreqs; i++) {
+            out.append(String.format("%10d", base + i * 76800));
+        }
+        out.append('\n');
+        for (int from = 0; from < mFreqs; from++) {
+            out.append(String.format("%9d: ", base + from * 76800));
+            for (int to = 0; to < mFreqs; to++) {
+                out.append(String.format("%10d", from == to ? 0 : random.nextInt(5000)));
+            }
+            out.append('\n');
+        }
+        return out;
+    }
+
+    /** the online CPUs as a kernel range list, e.g. "0-3,5-7" */
+    private String onlineList() {
+        boolean[] online = new boolean[mCpus];
+        Arrays.fill(online, true);
+        for (int cpu : mOffline) {
+            online[cpu] = false;
+        }
+        StringBuilder out = new StringBuilder();
+        for (int cpu = 0; cpu < mCpus; cpu++) {
+            if (!online[cpu]) {
+                continue;
+            }
+            int last = cpu;
+            while (last + 1 < mCpus && online[last + 1]) {
+                last++;
+            }
+            out.append(out.length() > 0 ? "," : "").append(cpu);
+            if (last > cpu) {
+                out.append('-').append(last);
+            }
+            cpu = last;
+        }
+        return out.append('\n').toString();
+    }
+
+    private StringBuilder timeInState(Random random, int cluster) {
+        StringBuilder out = new StringBuilder();
+        int base = 300000 + cluster * 200000;
+        for (int i = 0; i < mFreqs; i++) {
+            long ticks = random.nextInt(10) < 2 ? 0 : random.nextInt(5000000);
+            out.append(base + i * 76800).append(' ').append(ticks).append('\n');
+            if (mMalformedEvery > 0 && cluster % mMalformedEvery == mMalformedEvery - 1 && i == mFreqs / 2) {
+                out.append("garbage line\n").append("1234\n").append('\n');
+            }
+        }
+        return out;
+    }
+
+    private void write(String path, CharSequence contents) throws IOException {
+        File file = new File(mRoot, path);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.toString().getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        FakeSysfs fake = args.length > 0 ? new FakeSysfs(new File(args[0])) : temporary();
+        fake.cpus(args.length > 1 ? Integer.parseInt(args[1]) : 256)
+                .clusters(args.length > 2 ? Integer.parseInt(args[2]) : 16)
+                .freqs(args.length > 3 ? Integer.parseInt(args[3]) : 40)
+                .missingEvery(5)
+                .malformedEvery(3)
+                .offline(1, 2, 7);
+        Sysfs sysfs = fake.build();
+
+        CpuStateMonitor monitor = new CpuStateMonitor(sysfs, new FakeClock());
+        monitor.updateStates();
+        MonitorState state = monitor.getState();
+        System.out.println(fake.getRoot() + ": " + state.getCpuCount() + " CPUs, "
+                + state.getTopology().getOnlineCount() + " online, "
+                + state.getPolicyCount() + " policies");
+        for (int p = 0; p < state.getPolicyCount(); p++) {
+            CpuSnapshot snapshot = state.getPolicySnapshot(p);
+            System.out.println("  policy " + state.getPolicy(p).getId() + " CPU "
+                    + state.getPolicy(p).getFirstCpu() + "-" + state.getPolicy(p).getLastCpu()
+                    + ": " + snapshot.getCount() + " states, " + snapshot.getTotalTime() + " ticks");
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.tortel.cpuspy;
+
+import com.tortel.cpuspy.CpuStateMonitor.CpuStateMonitorException;
+import com.tortel.cpuspy.fake.FakeClock;
+import com.tortel.cpuspy.fake.FakeSysfs;
+import com.tortel.cpuspy.ui.FreqLabels;
+import com.tortel.cpuspy.ui.StateFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for each stage of a CpuStateMonitor refresh, run against a
+ * generated sysfs tree. Run with -prof gc (the :benchmark:jmh task does) to
+ * get gc.alloc.rate.norm next to the throughput
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MonitorBenchmark {
+    @Param({"8", "64", "256"})
+    public int cpus;
+
+    @Param({"3"})
+    public int clusters;
+
+    @Param({"20", "40"})
+    public int freqs;
+
+    private CpuStateMonitor mMonitor;
+    private File mStateFile;
+    private SysfsReader mReader;
+    private TimeInStateParser mParser;
+    private CpuSnapshot mSnapshot;
+    private TransTableParser mTransParser;
+    private CurFreqReader mCurFreqReader;
+    private int[] mCurFreqs;
+    private final FreqLabels mFreqLabels = new FreqLabels("Deep Sleep");
+    private final char[] mText = new char[StateFormatter.MAX_DURATION_LENGTH];
+
+    @Setup
+    public void setUp() throws IOException, CpuStateMonitorException {
+        FakeSysfs fake = FakeSysfs.temporary().cpus(cpus).clusters(clusters).freqs(freqs);
+        Sysfs sysfs = fake.build();
+        mMonitor = new CpuStateMonitor(sysfs, new FakeClock());
+        mMonitor.updateStates();
+
+        mStateFile = sysfs.file("/sys/devices/system/cpu/cpufreq/policy0/stats/time_in_state");
+        mReader = new SysfsReader();
+        mParser = new TimeInStateParser(mReader);
+        mParser.parse(mStateFile);
+        mSnapshot = CpuSnapshot.fromParser(mParser, 1000);
+
+        mTransParser = new TransTableParser();
+        mTransParser.parse(sysfs.file("/sys/devices/system/cpu/cpufreq/policy0/stats/trans_table"));
+
+        mCurFreqReader = new CurFreqReader(sysfs);
+        mCurFreqReader.setPolicies(mMonitor.getState().getPolicies());
+        mCurFreqs = new int[mCurFreqReader.getPolicyCount()];
+    }
+
+    /** CPU count and policy discovery */
+    @Benchmark
+    public int discovery() throws CpuStateMonitorException {
+        mMonitor.updateCpuCount();
+        return mMonitor.getState().getPolicyCount();
+    }
+
+    /** reading one time_in_state file into the buffer */
+    @Benchmark
+    public int fileRead() throws IOException {
+        return mReader.read(mStateFile);
+    }
+
+    /** parsing an already loaded time_in_state file */
+    @Benchmark
+    public int parse() {
+        return mParser.parse();
+    }
+
+    /** parsing an already loaded freqs x freqs trans_table */
+    @Benchmark
+    public int parseTransTable() {
+        return mTransParser.parse();
+    }
+
+    /** copying a parse into a sorted, totalled snapshot */
+    @Benchmark
+    public CpuSnapshot sortAndTotal() {
+        return CpuSnapshot.fromParser(mParser, 1000);
+    }
+
+    /** a whole refresh: every policy read, parsed and published */
+    @Benchmark
+    public MonitorState refresh() throws CpuStateMonitorException {
+        mMonitor.updateStates();
+        return mMonitor.getState();
+    }
+
+    /** one live sample: every policy's current frequency, re-read in place */
+    @Benchmark
+    public int[] curFreq() {
+        mCurFreqReader.read(mCurFreqs);
+        return mCurFreqs;
+    }
+
+    /** the text a state page shows for one snapshot, built as new strings */
+    @Benchmark
+    public void format(Blackhole blackhole) {
+        CpuSnapshot snapshot = mSnapshot;
+        long total = snapshot.getTotalTime();
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            long duration = snapshot.getDuration(i);
+            int percent = (int) ((float) duration * 100 / total);
+            blackhole.consume(snapshot.getFreq(i) / 1000 + " MHz");
+            blackhole.consume(percent + "%");
+            blackhole.consume(StateFormatter.sToString(duration / 100));
+        }
+        blackhole.consume(StateFormatter.sToString(total / 100));
+    }
+
+    /** the same text written into reused buffers, as the state rows do */
+    @Benchmark
+    public int formatInPlace() {
+        CpuSnapshot snapshot = mSnapshot;
+        long total = snapshot.getTotalTime();
+        int length = 0;
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            long duration = snapshot.getDuration(i);
+            length += mFreqLabels.get(snapshot.getFreq(i)).length();
+            length += StateFormatter.formatPercent(StateFormatter.percent(duration, total), mText);
+            length += StateFormatter.formatDuration(duration / 100, mText);
+        }
+        return length + StateFormatter.formatDuration(total / 100, mText);
+    }
+}
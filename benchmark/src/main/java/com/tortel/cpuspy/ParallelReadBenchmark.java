@@ -0,0 +1,84 @@
+package com.tortel.cpuspy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Compares sequential and parallel policy reads against a synthetic sysfs
+ * tree. Every file read is preceded by a configurable delay to stand in for
+ * slow storage or a kernel under load.
+ *
+ * Arguments: [policies] [freqs per policy] [delay ms] [iterations]
+ */
+public class ParallelReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int policyCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int freqCount = args.length > 1 ? Integer.parseInt(args[1]) : 24;
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : 2;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+        File root = Files.createTempDirectory("cpuspy-sysfs").toFile();
+        CpuPolicy[] policies = new CpuPolicy[policyCount];
+        for (int p = 0; p < policyCount; p++) {
+            File file = new File(root, "policy" + p + "_time_in_state");
+            file.deleteOnExit();
+            writeTimeInState(file, freqCount, p);
+            policies[p] = new DelayedPolicy(p, new File[] { file }, delay);
+        }
+        root.deleteOnExit();
+
+        PolicyReader reader = new PolicyReader();
+        System.out.println(policyCount + " policies, " + freqCount + " states, "
+                + delay + " ms per file, " + iterations + " iterations");
+        for (boolean parallel : new boolean[] { false, true }) {
+            reader.setParallel(parallel);
+            // warm up the pool and the JIT
+            for (int i = 0; i < iterations / 10; i++) {
+                reader.read(policies);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                reader.read(policies);
+            }
+            long perRead = (System.nanoTime() - start) / iterations;
+            System.out.println(String.format("%-10s %8d us/refresh",
+                    parallel ? "parallel" : "sequential", perRead / 1000));
+        }
+        reader.shutdown();
+    }
+
+    private static void writeTimeInState(File file, int freqCount, int seed) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < freqCount; i++) {
+            out.append(300000 + i * 96000).append(' ').append((i + 1) * 1000L * (seed + 1)).append('\n');
+        }
+        FileOutputStream stream = new FileOutputStream(file);
+        stream.write(out.toString().getBytes("US-ASCII"));
+        stream.close();
+    }
+
+    /**
+     * A policy whose every read first sleeps for the configured delay
+     */
+    private static class DelayedPolicy extends CpuPolicy {
+        private final long mDelay;
+
+        DelayedPolicy(int id, File[] stateFiles, long delay) {
+            super(id, new int[] { id }, stateFiles);
+            mDelay = delay;
+        }
+
+        @Override
+        TimeInStateParser read() throws IOException {
+            try {
+                Thread.sleep(mDelay);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return super.read();
+        }
+    }
+}
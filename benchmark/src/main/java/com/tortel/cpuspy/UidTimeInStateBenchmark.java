@@ -0,0 +1,51 @@
+package com.tortel.cpuspy;
+
+import com.tortel.cpuspy.fake.FakeSysfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One streaming pass over a generated /proc/uid_time_in_state, plus the top
+ * ten ranking. Allocations per operation should stay flat as the UIDs grow
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UidTimeInStateBenchmark {
+    @Param({"500", "5000"})
+    public int uids;
+
+    private UidTimeInState mUidTimes;
+    private final int[] mTop = new int[10];
+    private final long[] mHigh = new long[10];
+    private final long[] mTotal = new long[10];
+
+    @Setup
+    public void setUp() throws IOException {
+        Sysfs sysfs = FakeSysfs.temporary().cpus(8).clusters(3).freqs(20).uids(uids).build();
+        mUidTimes = new UidTimeInState(sysfs);
+        mUidTimes.update();
+    }
+
+    @Benchmark
+    public int updateAndRank() throws IOException {
+        mUidTimes.update();
+        return mUidTimes.getTop(mTop, mHigh, mTotal);
+    }
+}
@@ -0,0 +1,129 @@
+package com.tortel.cpuspy.benchmark;
+
+import com.tortel.cpuspy.TimeInStateParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the byte level time_in_state parser with the old
+ * BufferedReader/String.split parser on captured fixtures. The setup fails
+ * if the two disagree on a fixture
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({
+            "msm8960-cpu0.txt",
+            "sm8150-policy0.txt",
+            "sm8150-policy4.txt",
+            "sm8150-policy7.txt",
+            "dimensity-policy7.txt"
+    })
+    public String fixture;
+
+    private File mFile;
+    private TimeInStateParser mParser;
+
+    @Setup
+    public void setUp() throws IOException {
+        File dir = Files.createTempDirectory("cpuspy-fixtures").toFile();
+        dir.deleteOnExit();
+        mFile = extract(dir, fixture);
+        mParser = new TimeInStateParser();
+        verify(mParser, mFile);
+    }
+
+    @Benchmark
+    public List<long[]> legacy() throws IOException {
+        return legacyParse(mFile);
+    }
+
+    @Benchmark
+    public int bytes() throws IOException {
+        return mParser.parse(mFile);
+    }
+
+    /**
+     * Fail loudly if the two parsers disagree on a fixture
+     */
+    private static void verify(TimeInStateParser parser, File file) throws IOException {
+        List<long[]> expected = legacyParse(file);
+        int count = parser.parse(file);
+        if (count != expected.size()) {
+            throw new IllegalStateException(file.getName() + ": expected " + expected.size()
+                    + " states, got " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            if (parser.getFreq(i) != expected.get(i)[0] || parser.getTime(i) != expected.get(i)[1]) {
+                throw new IllegalStateException(file.getName() + ": state " + i + " differs");
+            }
+        }
+    }
+
+    /**
+     * The parser CpuStateMonitor used before the byte level one
+     */
+    private static List<long[]> legacyParse(File file) throws IOException {
+        List<long[]> states = new ArrayList<>();
+        InputStream is = new FileInputStream(file);
+        BufferedReader br = new BufferedReader(new InputStreamReader(is));
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] nums = line.split(" ");
+            states.add(new long[] { Integer.parseInt(nums[0]), Long.parseLong(nums[1]) });
+        }
+        is.close();
+        return states;
+    }
+
+    /**
+     * Copy a fixture out of the classpath so both parsers read a real file
+     */
+    private static File extract(File dir, String name) throws IOException {
+        InputStream in = ParserBenchmark.class.getResourceAsStream("/fixtures/" + name);
+        if (in == null) {
+            throw new IOException("Missing fixture " + name);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            bytes.write(buf, 0, n);
+        }
+        in.close();
+
+        File file = new File(dir, name);
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(bytes.toByteArray());
+        out.close();
+        return file;
+    }
+}